@@ -0,0 +1,15 @@
+(defproject de.janthomae.leiningenplugin/benchmarks "1.0.0-SNAPSHOT"
+  :description "Benchmarks for the parts of the Leiningen plugin which run without IDEA"
+  :dependencies [[org.clojure/clojure "1.5.1"]
+                 [leiningen-core "2.1.3"]
+                 [criterium "0.4.1"]
+                 [org.openjdk.jmh/jmh-core "1.37"]
+                 [org.openjdk.jmh/jmh-generator-annprocess "1.37"]]
+  ;; The interop namespace and the IDEA-free import model come from the
+  ;; plugin sources, so the benchmarks always measure the current code.
+  :source-paths ["src/clj" "../src"]
+  :java-source-paths ["src/java"
+                      "../src/de/janthomae/leiningenplugin/module/model"]
+  :aliases {"bench" ["run" "-m" "org.openjdk.jmh.Main"
+                     "-rf" "json" "-rff" "target/jmh-result.json"]
+            "bench-interop" ["run" "-m" "de.janthomae.leiningenplugin.benchmarks.interop"]})
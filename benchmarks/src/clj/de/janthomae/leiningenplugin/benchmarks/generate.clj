@@ -0,0 +1,63 @@
+(ns de.janthomae.leiningenplugin.benchmarks.generate
+  "Generates a file based Maven repository and Leiningen projects depending on it, so that benchmarks resolve real
+  dependency graphs of a chosen size without touching the network."
+  (:require [clojure.java.io :as io]))
+
+(def group "bench.generated")
+
+(defn temp-dir
+  "Creates a new temporary directory."
+  [prefix]
+  (doto (java.io.File/createTempFile prefix "") (.delete) (.mkdirs)))
+
+(defn artifact-name
+  [i]
+  (str "artifact" i))
+
+(defn dependencies-of
+  "The artifacts which artifact i depends on in a repository of n artifacts: its two children in a binary tree plus one
+   edge across the tree. Every artifact is reachable from artifact 0, and some over several paths, which gives Aether's
+   conflict mediation something to do."
+  [n i]
+  (distinct (filter #(< i % n) [(+ (* 2 i) 1) (+ (* 2 i) 2) (mod (+ (* 7 i) 3) n)])))
+
+(defn- pom
+  [i deps]
+  (str "<project><modelVersion>4.0.0</modelVersion>"
+       "<groupId>" group "</groupId><artifactId>" (artifact-name i) "</artifactId><version>1.0</version>"
+       "<dependencies>"
+       (apply str (for [d deps]
+                    (str "<dependency><groupId>" group "</groupId><artifactId>" (artifact-name d) "</artifactId>"
+                         "<version>1.0</version></dependency>")))
+       "</dependencies></project>"))
+
+(defn write-repository
+  "Writes n artifacts, linked as described by dependencies-of, into the Maven repository layout under dir. The jars are
+   empty, nothing reads them.
+    - Returns: dir"
+  [dir n]
+  (doseq [i (range n)
+          :let [artifact (artifact-name i)
+                version-dir (doto (io/file dir (.replace ^String group "." "/") artifact "1.0") (.mkdirs))]]
+    (spit (io/file version-dir (str artifact "-1.0.pom")) (pom i (dependencies-of n i)))
+    (spit (io/file version-dir (str artifact "-1.0.jar")) ""))
+  dir)
+
+(defn write-project
+  "Writes a project.clj into dir which depends on the given artifacts of a generated repository, resolves them from
+   that repository only and keeps them in local-repo.
+    - Args: dir - the project directory
+            deps - the numbers of the artifacts the project depends on directly
+            repo - the generated repository
+            local-repo - the local repository to download to, empty for a cold resolution
+    - Returns: the project file"
+  [dir deps repo local-repo]
+  (let [file (io/file dir "project.clj")]
+    (binding [*print-meta* true]
+      (spit file (pr-str (list 'defproject (symbol group (.getName (io/file dir))) "1.0.0-SNAPSHOT"
+                               :dependencies (vec (for [d deps] [(symbol group (artifact-name d)) "1.0"]))
+                               :repositories (with-meta [["generated" {:url (str (.toURI (io/file repo)))
+                                                                       :checksum :ignore}]]
+                                               {:replace true})
+                               :local-repo (.getAbsolutePath (io/file local-repo))))))
+    file))
@@ -0,0 +1,104 @@
+(ns de.janthomae.leiningenplugin.benchmarks.interop
+  "Benchmarks for load-project, load-dependencies and find-all-artifacts in de.janthomae.leiningenplugin.leiningen,
+  against generated projects and a generated file repository. For every graph size it reports:
+    - cold: a single call on a project that was not read before, and for load-dependencies an empty local repository
+    - warm: the mean measured by criterium after its warm up; for load-dependencies both with \"force\" (Aether against
+      a filled local repository) and without (the plugin's resolution cache)
+    - bytes: the allocation per call on the calling thread
+  Run with lein bench-interop [sizes...]. The results are also written to target/interop-bench.edn."
+  (:require [clojure.java.io :as io]
+            [clojure.pprint :as pprint]
+            [criterium.core :as c]
+            [leiningen.core.classpath :as cp]
+            [leiningen.core.project :as p]
+            [de.janthomae.leiningenplugin.leiningen :as lein]
+            [de.janthomae.leiningenplugin.benchmarks.generate :as g])
+  (:import (java.lang.management ManagementFactory)))
+
+(def default-sizes [10 100 500 1000])
+
+(def ^:private cold-samples 3)
+
+(defn- allocated-bytes
+  []
+  (let [bean (ManagementFactory/getThreadMXBean)]
+    (if (instance? com.sun.management.ThreadMXBean bean)
+      (.getThreadAllocatedBytes ^com.sun.management.ThreadMXBean bean (.getId (Thread/currentThread)))
+      -1)))
+
+(defn- bytes-per-call
+  "Bytes allocated by the current thread per call of f, averaged over n calls."
+  [n f]
+  (let [before (allocated-bytes)]
+    (dotimes [_ n] (f))
+    (quot (- (allocated-bytes) before) n)))
+
+(defn- cold-ms
+  "Wall time of a single call of f in milliseconds."
+  [f]
+  (let [start (System/nanoTime)]
+    (f)
+    (/ (- (System/nanoTime) start) 1e6)))
+
+(defn- warm-ms
+  "Mean time of f in milliseconds, as measured by criterium."
+  [f]
+  (* 1e3 (first (:mean (c/quick-benchmark (f) {})))))
+
+(defn- fresh-project
+  "Writes a new project depending on the first three artifacts of repo, with an empty local repository."
+  [repo n]
+  (.getAbsolutePath (g/write-project (g/temp-dir "bench-project") (range (min n 3)) repo
+                                     (g/temp-dir "bench-local-repo"))))
+
+(defn- bench-size
+  [n]
+  (let [repo (g/write-repository (g/temp-dir "bench-repo") n)
+        cold-resolutions (vec (for [_ (range cold-samples)
+                                    :let [path (fresh-project repo n)]]
+                                (cold-ms #(lein/load-dependencies path {"force" true}))))
+        path (fresh-project repo n)
+        load-project-cold (cold-ms #(lein/load-project path))
+        resolved (count (lein/load-dependencies path {"force" true}))
+        hierarchy (cp/dependency-hierarchy :dependencies (p/read path))]
+    {:artifacts n
+     :resolved resolved
+     :load-project {:cold-ms load-project-cold
+                    :warm-ms (warm-ms #(lein/load-project path))
+                    :bytes (bytes-per-call 10 #(lein/load-project path))}
+     :load-dependencies {:cold-ms cold-resolutions
+                         :warm-ms (warm-ms #(lein/load-dependencies path {"force" true}))
+                         :cached-ms (warm-ms #(lein/load-dependencies path {}))
+                         :bytes (bytes-per-call 10 #(lein/load-dependencies path {"force" true}))
+                         :cached-bytes (bytes-per-call 100 #(lein/load-dependencies path {}))}
+     :find-all-artifacts {:warm-ms (warm-ms #(doall (lein/find-all-artifacts hierarchy)))
+                          :bytes (bytes-per-call 100 #(doall (lein/find-all-artifacts hierarchy)))}}))
+
+(defn- report
+  [results]
+  (pprint/print-table
+    [:artifacts :resolved :function :cold-ms :warm-ms :cached-ms :bytes]
+    (for [r results
+          f [:load-project :load-dependencies :find-all-artifacts]
+          :let [m (get r f)]]
+      {:artifacts (:artifacts r)
+       :resolved (:resolved r)
+       :function (name f)
+       :cold-ms (let [cold (:cold-ms m)]
+                  (if (sequential? cold) (format "%.1f" (apply min cold)) (some->> cold (format "%.1f"))))
+       :warm-ms (format "%.3f" (:warm-ms m))
+       :cached-ms (some->> (:cached-ms m) (format "%.3f"))
+       :bytes (:bytes m)})))
+
+(defn -main
+  [& args]
+  (let [sizes (if (seq args) (map #(Long/parseLong %) args) default-sizes)
+        results (vec (for [n sizes]
+                       (do (println "Benchmarking" n "artifacts")
+                           (bench-size n))))
+        out (io/file "target" "interop-bench.edn")]
+    (report results)
+    (.mkdirs (.getParentFile out))
+    (spit out (with-out-str (pprint/pprint results)))
+    (println "Results written to" (.getPath out))
+    (shutdown-agents)))
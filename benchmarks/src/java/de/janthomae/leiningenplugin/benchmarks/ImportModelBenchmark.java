@@ -0,0 +1,126 @@
+package de.janthomae.leiningenplugin.benchmarks;
+
+import de.janthomae.leiningenplugin.module.model.DependencyModel;
+import de.janthomae.leiningenplugin.module.model.LibraryDiff;
+import de.janthomae.leiningenplugin.module.model.LibraryScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IDEA-free steps of building a module, over synthetic projects of 10 to 5,000 artifacts. The dependency maps look
+ * like the ones the dependency resolution returns; one in ten artifacts is a test dependency, and one in ten has a
+ * different version than the module currently has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class ImportModelBenchmark {
+    private static final String[] SCOPES = {"compile", "compile", "runtime", "provided", "compile", "compile",
+            "compile", "compile", "compile", "test"};
+    private static final String[] PATH_TYPES = {DependencyModel.SOURCE_PATHS, DependencyModel.JAVA_SOURCE_PATHS,
+            DependencyModel.RESOURCE_PATHS, DependencyModel.TEST_PATHS};
+
+    @Param({"10", "100", "1000", "5000"})
+    public int artifacts;
+
+    private Map<String, Object> projectMap;
+    private List<Map<String, Object>> dependencies;
+    private Set<String> currentLibraries;
+    private Set<String> desiredLibraries;
+
+    @Setup
+    public void setUp() {
+        File repository = new File(System.getProperty("java.io.tmpdir"), "m2");
+
+        projectMap = new HashMap<String, Object>();
+        projectMap.put(DependencyModel.COMPILE_PATH, "/work/project/target/classes");
+        for (String type : PATH_TYPES) {
+            List<String> paths = new ArrayList<String>();
+            for (int i = 0; i <= artifacts / 100; i++) {
+                paths.add("/work/project/" + type + "/" + i);
+            }
+            projectMap.put(type, paths);
+        }
+
+        dependencies = new ArrayList<Map<String, Object>>();
+        currentLibraries = new LinkedHashSet<String>();
+        for (int i = 0; i < artifacts; i++) {
+            String group = i % 7 == 0 ? "artifact" + i : "org.example.group" + i % 50;
+            String artifact = "artifact" + i;
+            String version = "1." + i % 10 + ".0";
+
+            Map<String, Object> dependency = new HashMap<String, Object>();
+            dependency.put("groupid", group);
+            dependency.put("artifactid", artifact);
+            dependency.put("version", version);
+            dependency.put("scope", SCOPES[i % SCOPES.length]);
+            dependency.put("file", new File(repository, group.replace('.', '/') + "/" + artifact + "/" + version +
+                    "/" + artifact + "-" + version + ".jar"));
+            dependencies.add(dependency);
+
+            Map<String, Object> current = new HashMap<String, Object>(dependency);
+            if (i % 10 == 5) {
+                current.put("version", "0.9.0");
+            }
+            currentLibraries.add(DependencyModel.libraryName(current));
+        }
+        desiredLibraries = DependencyModel.libraryNames(dependencies);
+    }
+
+    @Benchmark
+    public void getPaths(Blackhole blackhole) {
+        for (String type : PATH_TYPES) {
+            blackhole.consume(DependencyModel.getPaths(type, projectMap));
+        }
+    }
+
+    @Benchmark
+    public Set<String> libraryNames() {
+        return DependencyModel.libraryNames(dependencies);
+    }
+
+    @Benchmark
+    public void scopes(Blackhole blackhole) {
+        for (Map<String, Object> dependency : dependencies) {
+            blackhole.consume(LibraryScope.of((String) dependency.get("scope")));
+        }
+    }
+
+    @Benchmark
+    public LibraryDiff diff() {
+        return LibraryDiff.compute(currentLibraries, desiredLibraries);
+    }
+
+    @Benchmark
+    public LibraryDiff namesAndDiff() {
+        return LibraryDiff.compute(currentLibraries, DependencyModel.libraryNames(dependencies));
+    }
+
+    @Benchmark
+    public String fingerprint() {
+        return DependencyModel.fingerprint("project", "1.6", projectMap, dependencies, Collections.<String>emptyList());
+    }
+}
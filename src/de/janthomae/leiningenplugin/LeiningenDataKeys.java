@@ -12,5 +12,6 @@ import java.util.List;
 public class LeiningenDataKeys {
     public static final DataKey<List<String>> LEININGEN_GOALS = DataKey.create("LEININGEN_GOALS");
     public static final DataKey<LeiningenProject> LEININGEN_PROJECT = DataKey.create("LEININGEN_PROJECT");
+    public static final DataKey<List<LeiningenProject>> LEININGEN_PROJECTS = DataKey.create("LEININGEN_PROJECTS");
 
 }
@@ -5,11 +5,16 @@ import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.StartupManager;
+import de.janthomae.leiningenplugin.diagnostics.ImportHistory;
+import de.janthomae.leiningenplugin.diagnostics.ImportWatchdog;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
 import org.jetbrains.annotations.NotNull;
 
 public class LeiningenUtil {
@@ -90,15 +95,22 @@ public class LeiningenUtil {
         // dependencies it will lock the UI unless it's put on a background thread.
         // This makes it so the ui is responsive, however we need to put some sort of feedback to the user
         // so that he knows when it's complete - like the Maven plugin does.
+        // The task can be cancelled: Interop polls the indicator while a project is read or resolved.
+
+        if (isNoBackgroundMode()) {
+            // Tests and headless imports wait for the result
+            runTask(project, runnable, new EmptyProgressIndicator());
+            return;
+        }
 
         ApplicationManager.getApplication().invokeLater(new Runnable() {
             @Override
             public void run() {
-                new Task.Backgroundable(project, "Synchronizing Leiningen project", false) {
+                new Task.Backgroundable(project, "Synchronizing Leiningen project", true) {
                     @Override
-                    public void run(@NotNull com.intellij.openapi.progress.ProgressIndicator indicator) {
+                    public void run(@NotNull ProgressIndicator indicator) {
                         indicator.setIndeterminate(true);
-                        runnable.run();
+                        runTask(project, runnable, indicator);
                     }
                 }.queue();
             }
@@ -107,6 +119,20 @@ public class LeiningenUtil {
         // time. this can happen if the user closes the project quickly after re-opening it.
     }
 
+    private static void runTask(Project project, Runnable runnable, ProgressIndicator indicator) {
+        ImportMetrics metrics = ImportMetrics.begin(indicator);
+        ImportWatchdog watchdog = ImportWatchdog.start(project, metrics, Thread.currentThread());
+        try {
+            runnable.run();
+        } finally {
+            metrics.finish();
+            watchdog.stop();
+            if (!metrics.isEmpty() && !project.isDisposed()) {
+                ImportHistory.getInstance(project).add(metrics.toRun());
+            }
+        }
+    }
+
     public static void notifyError(final String title, final String content, final Project project) {
         Notification notification = new Notification(NOTIFICATION_GROUP_ID, title, content, NotificationType.ERROR);
         Notifications.Bus.notify(notification, project);
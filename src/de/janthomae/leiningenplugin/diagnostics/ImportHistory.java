@@ -0,0 +1,96 @@
+package de.janthomae.leiningenplugin.diagnostics;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.containers.ContainerUtil;
+import de.janthomae.leiningenplugin.SimpleProjectComponent;
+import de.janthomae.leiningenplugin.metrics.ImportRun;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The last imports and refreshes of a project, newest first. Only the most recent ones are kept (see
+ * {@link LeiningenRunnerSettings#importHistorySize}), and they are only stored with the workspace if
+ * {@link LeiningenRunnerSettings#persistImportHistory} is set.
+ */
+@State(name = "LeiningenImportHistory", storages = {@Storage(id = "default", file = "$WORKSPACE_FILE$")})
+public class ImportHistory extends SimpleProjectComponent implements PersistentStateComponent<ImportHistoryState> {
+    private final LinkedList<ImportRun> runs = new LinkedList<ImportRun>();
+    private final List<Listener> listeners = ContainerUtil.createLockFreeCopyOnWriteList();
+
+    public interface Listener {
+        void historyChanged();
+    }
+
+    public static ImportHistory getInstance(Project p) {
+        return p.getComponent(ImportHistory.class);
+    }
+
+    protected ImportHistory(Project project) {
+        super(project);
+    }
+
+    public void add(ImportRun run) {
+        synchronized (runs) {
+            runs.addFirst(run);
+            trim();
+        }
+        for (Listener listener : listeners) {
+            listener.historyChanged();
+        }
+    }
+
+    /**
+     * @return the runs, newest first.
+     */
+    public List<ImportRun> getRuns() {
+        synchronized (runs) {
+            return new ArrayList<ImportRun>(runs);
+        }
+    }
+
+    public void clear() {
+        synchronized (runs) {
+            runs.clear();
+        }
+        for (Listener listener : listeners) {
+            listener.historyChanged();
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void trim() {
+        int size = Math.max(LeiningenRunnerSettings.getInstance().importHistorySize, 1);
+        while (runs.size() > size) {
+            runs.removeLast();
+        }
+    }
+
+    public ImportHistoryState getState() {
+        ImportHistoryState state = new ImportHistoryState();
+        if (LeiningenRunnerSettings.getInstance().persistImportHistory) {
+            state.runs.addAll(getRuns());
+        }
+        return state;
+    }
+
+    public void loadState(ImportHistoryState state) {
+        synchronized (runs) {
+            runs.clear();
+            runs.addAll(state.runs);
+            trim();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package de.janthomae.leiningenplugin.diagnostics;
+
+import de.janthomae.leiningenplugin.metrics.ImportRun;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The persisted part of the {@link ImportHistory}.
+ */
+public class ImportHistoryState {
+    public List<ImportRun> runs = new ArrayList<ImportRun>();
+}
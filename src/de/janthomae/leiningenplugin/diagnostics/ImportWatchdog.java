@@ -0,0 +1,182 @@
+package de.janthomae.leiningenplugin.diagnostics;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import de.janthomae.leiningenplugin.LeiningenUtil;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a background import and, once it runs longer than the configured threshold, writes thread dumps of the task
+ * thread, the Leiningen workers and the event dispatch thread to a file in the IDE log directory at regular intervals.
+ * Together with the phase and project file the import was working on, this shows where an import hangs - in Aether, in
+ * the evaluation of a project file, or waiting for the EDT to save documents.
+ */
+public class ImportWatchdog {
+    private static final Logger log = Logger.getInstance(ImportWatchdog.class);
+
+    private static final int MAX_DUMPS = 10;
+
+    private static final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable r) {
+                    Thread thread = new Thread(r, "Leiningen import watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final Project project;
+    private final ImportMetrics metrics;
+    private final Thread taskThread;
+    private ScheduledFuture<?> future;
+    private File bundle;
+    private int dumps;
+    private boolean stopped;
+
+    /**
+     * Starts watching an import, unless the watchdog is disabled in the settings.
+     *
+     * @param project    the project the import runs for
+     * @param metrics    the metrics of the import, for its current phase and project
+     * @param taskThread the thread running the import
+     * @return the watchdog, to be stopped when the import is done
+     */
+    public static ImportWatchdog start(Project project, ImportMetrics metrics, Thread taskThread) {
+        final ImportWatchdog watchdog = new ImportWatchdog(project, metrics, taskThread);
+        LeiningenRunnerSettings settings = LeiningenRunnerSettings.getInstance();
+        if (settings.slowImportThresholdSeconds > 0) {
+            watchdog.future = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    watchdog.capture();
+                }
+            }, settings.slowImportThresholdSeconds, Math.max(settings.threadDumpIntervalSeconds, 1), TimeUnit.SECONDS);
+        }
+        return watchdog;
+    }
+
+    private ImportWatchdog(Project project, ImportMetrics metrics, Thread taskThread) {
+        this.project = project;
+        this.metrics = metrics;
+        this.taskThread = taskThread;
+    }
+
+    /**
+     * Stops watching. If the import was slow, its total duration is added to the bundle.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (future != null) {
+            future.cancel(false);
+        }
+        if (bundle != null) {
+            write("Import finished after " + metrics.getElapsed() + " ms\n\n" + metrics.getSummary() + "\n");
+        }
+    }
+
+    private synchronized void capture() {
+        if (stopped) {
+            return;
+        }
+        if (dumps >= MAX_DUMPS) {
+            future.cancel(false);
+            return;
+        }
+
+        boolean first = bundle == null;
+        if (first) {
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            bundle = new File(PathManager.getLogPath(), "leiningen-slow-import-" + timestamp + ".txt");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()))
+                .append(", ").append(metrics.getTitle()).append(" running for ").append(metrics.getElapsed())
+                .append(" ms\n");
+        sb.append("Project: ").append(project.getName()).append("\n");
+        sb.append("Phase: ").append(metrics.getCurrentPhase()).append("\n");
+        sb.append("Project file: ").append(metrics.getCurrentProject()).append("\n\n");
+        dumpThreads(sb);
+        dumps++;
+        if (!write(sb.toString())) {
+            future.cancel(false);
+            return;
+        }
+
+        if (first) {
+            log.warn("Slow Leiningen import, thread dumps are written to " + bundle);
+            LeiningenUtil.notify("Slow Leiningen import",
+                    metrics.getTitle() + " has been running for " + metrics.getElapsed() / 1000 + " s (" +
+                            metrics.getCurrentPhase() + "). Thread dumps are written to " + bundle.getPath(), project);
+        }
+    }
+
+    private void dumpThreads(StringBuilder sb) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (thread == taskThread || name.startsWith("Leiningen worker") || name.startsWith("AWT-EventQueue")) {
+                ids.add(thread.getId());
+            }
+        }
+        long[] idArray = new long[ids.size()];
+        for (int i = 0; i < idArray.length; i++) {
+            idArray[i] = ids.get(i);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (ThreadInfo info : threads.getThreadInfo(idArray, Integer.MAX_VALUE)) {
+            if (info == null) {
+                continue;
+            }
+            sb.append('"').append(info.getThreadName()).append("\" ").append(info.getThreadState());
+            if (info.getLockName() != null) {
+                sb.append(" on ").append(info.getLockName());
+            }
+            if (info.getLockOwnerName() != null) {
+                sb.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+            }
+            sb.append('\n');
+            for (StackTraceElement element : info.getStackTrace()) {
+                sb.append("\tat ").append(element).append('\n');
+            }
+            sb.append('\n');
+        }
+    }
+
+    private boolean write(String text) {
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(bundle, true));
+            try {
+                out.print(text);
+            } finally {
+                out.close();
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not write " + bundle, e);
+            return false;
+        }
+    }
+}
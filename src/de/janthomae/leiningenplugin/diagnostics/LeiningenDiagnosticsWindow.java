@@ -0,0 +1,238 @@
+package de.janthomae.leiningenplugin.diagnostics;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.actionSystem.ActionManager;
+import com.intellij.openapi.actionSystem.ActionPlaces;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowAnchor;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import de.janthomae.leiningenplugin.LeiningenIcons;
+import de.janthomae.leiningenplugin.LeiningenUtil;
+import de.janthomae.leiningenplugin.SimpleProjectComponent;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.metrics.ImportRun;
+
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tool window showing the recent imports and refreshes as timelines: how long each project spent evaluating, resolving,
+ * building and committing its module, with artifact counts, cache hits and downloads. Projects are listed slowest
+ * first, so the one which made a refresh slow is at the top.
+ */
+public class LeiningenDiagnosticsWindow extends SimpleProjectComponent {
+    public static final String TOOL_WINDOW_ID = "Leiningen Diagnostics";
+
+    private static final String[] PHASES = {ImportMetrics.PHASE_EVALUATE, ImportMetrics.PHASE_RESOLVE,
+            ImportMetrics.PHASE_BUILD, ImportMetrics.PHASE_COMMIT};
+    private static final String[] PHASE_COLORS = {"#6a9fd4", "#d4a03f", "#79b45a", "#c0504d"};
+    private static final int TIMELINE_WIDTH = 300;
+
+    private final ImportHistory myHistory;
+    private DefaultListModel myRuns;
+    private JBList myRunList;
+    private JEditorPane myDetails;
+
+    public LeiningenDiagnosticsWindow(Project project, ImportHistory history) {
+        super(project);
+        myHistory = history;
+    }
+
+    @Override
+    public void initComponent() {
+        if (!isNormalProject()) return;
+        LeiningenUtil.runWhenInitialized(myProject, new Runnable() {
+            public void run() {
+                addPanel();
+                final ImportHistory.Listener listener = new ImportHistory.Listener() {
+                    public void historyChanged() {
+                        scheduleUpdate();
+                    }
+                };
+                myHistory.addListener(listener);
+                Disposer.register(myProject, new Disposable() {
+                    public void dispose() {
+                        myHistory.removeListener(listener);
+                    }
+                });
+            }
+        });
+    }
+
+    private void addPanel() {
+        myRuns = new DefaultListModel();
+        myRunList = new JBList(myRuns);
+        myRunList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        myRunList.setCellRenderer(new ColoredListCellRenderer() {
+            @Override
+            protected void customizeCellRenderer(JList list, Object value, int index, boolean selected, boolean hasFocus) {
+                ImportRun run = (ImportRun) value;
+                append(new SimpleDateFormat("HH:mm:ss").format(new Date(run.startTime)) + "  ");
+                append(run.title, SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+                append("  " + formatMillis(run.elapsed) + ", " + run.projects.size() + " projects",
+                        SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            }
+        });
+        myRunList.addListSelectionListener(new ListSelectionListener() {
+            public void valueChanged(ListSelectionEvent e) {
+                showRun((ImportRun) myRunList.getSelectedValue());
+            }
+        });
+
+        myDetails = new JEditorPane("text/html", "");
+        myDetails.setEditable(false);
+
+        JBSplitter splitter = new JBSplitter(false, 0.3f);
+        splitter.setFirstComponent(new JBScrollPane(myRunList));
+        splitter.setSecondComponent(new JBScrollPane(myDetails));
+
+        DefaultActionGroup actions = new DefaultActionGroup();
+        actions.add(new AnAction("Clear History", "Forget the recorded imports", AllIcons.Actions.Delete) {
+            @Override
+            public void actionPerformed(AnActionEvent e) {
+                myHistory.clear();
+            }
+        });
+
+        SimpleToolWindowPanel panel = new SimpleToolWindowPanel(false, true);
+        panel.setToolbar(ActionManager.getInstance().createActionToolbar(ActionPlaces.UNKNOWN, actions, false)
+                .getComponent());
+        panel.setContent(splitter);
+
+        ToolWindow toolWindow = ToolWindowManager.getInstance(myProject)
+                .registerToolWindow(TOOL_WINDOW_ID, panel, ToolWindowAnchor.BOTTOM, myProject, true);
+        toolWindow.setIcon(LeiningenIcons.PROJECT_ICON);
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        LeiningenUtil.invokeLater(myProject, new Runnable() {
+            public void run() {
+                Object selected = myRunList.getSelectedValue();
+                myRuns.clear();
+                for (ImportRun run : myHistory.getRuns()) {
+                    myRuns.addElement(run);
+                }
+                if (selected != null && myRuns.contains(selected)) {
+                    myRunList.setSelectedValue(selected, true);
+                } else if (!myRuns.isEmpty()) {
+                    myRunList.setSelectedIndex(0);
+                } else {
+                    showRun(null);
+                }
+            }
+        });
+    }
+
+    private void showRun(ImportRun run) {
+        myDetails.setText(run != null ? toHtml(run) : "<html><body>No imports recorded yet.</body></html>");
+        myDetails.setCaretPosition(0);
+    }
+
+    private static String toHtml(ImportRun run) {
+        StringBuilder html = new StringBuilder("<html><body>");
+        html.append("<b>").append(StringUtil.escapeXml(run.title)).append("</b> at ")
+                .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(run.startTime)))
+                .append(": ").append(formatMillis(run.elapsed)).append(", ")
+                .append(run.artifacts).append(" artifacts, cache hits/misses ")
+                .append(run.cacheHits).append("/").append(run.cacheMisses).append(", ")
+                .append(StringUtil.formatFileSize(run.bytes)).append(" downloaded<br>");
+
+        html.append("<table><tr>");
+        for (int i = 0; i < PHASES.length; i++) {
+            html.append("<td bgcolor=\"").append(PHASE_COLORS[i]).append("\">&nbsp;&nbsp;</td><td>")
+                    .append(PHASES[i]).append(" ").append(formatMillis(value(run.phases.get(PHASES[i]))))
+                    .append("</td>");
+        }
+        html.append("</tr></table>");
+
+        List<ImportRun.ProjectRun> projects = new ArrayList<ImportRun.ProjectRun>(run.projects);
+        Collections.sort(projects, new Comparator<ImportRun.ProjectRun>() {
+            public int compare(ImportRun.ProjectRun o1, ImportRun.ProjectRun o2) {
+                long t1 = o1.getTotal();
+                long t2 = o2.getTotal();
+                return t1 > t2 ? -1 : t1 < t2 ? 1 : 0;
+            }
+        });
+        long longest = projects.isEmpty() ? 0 : projects.get(0).getTotal();
+
+        html.append("<table cellspacing=\"4\"><tr><th align=\"left\">Project</th><th>Total</th>");
+        for (String phase : PHASES) {
+            html.append("<th>").append(phase).append("</th>");
+        }
+        html.append("<th align=\"left\">Timeline</th><th>Artifacts</th><th>Cache hits</th><th>Downloaded</th></tr>");
+        for (ImportRun.ProjectRun project : projects) {
+            html.append("<tr><td>").append(StringUtil.escapeXml(projectName(project.path))).append("</td>")
+                    .append("<td align=\"right\">").append(formatMillis(project.getTotal())).append("</td>");
+            for (String phase : PHASES) {
+                html.append("<td align=\"right\">").append(formatMillis(value(project.phases.get(phase))))
+                        .append("</td>");
+            }
+            html.append("<td>").append(timeline(project, longest)).append("</td>")
+                    .append("<td align=\"right\">").append(project.artifacts).append("</td>")
+                    .append("<td align=\"right\">").append(project.cacheHits).append("/")
+                    .append(project.cacheHits + project.cacheMisses).append("</td>")
+                    .append("<td align=\"right\">").append(StringUtil.formatFileSize(project.bytes)).append("</td></tr>");
+        }
+        html.append("</table>");
+
+        if (!run.slowestTransfers.isEmpty()) {
+            html.append("<b>Slowest downloads</b><ul>");
+            for (String transfer : run.slowestTransfers) {
+                html.append("<li>").append(StringUtil.escapeXml(transfer)).append("</li>");
+            }
+            html.append("</ul>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    /**
+     * The phases of a project as a bar, scaled so that the slowest project of the run fills the whole width.
+     */
+    private static String timeline(ImportRun.ProjectRun project, long longest) {
+        StringBuilder bar = new StringBuilder("<table cellspacing=\"0\" cellpadding=\"0\"><tr>");
+        for (int i = 0; i < PHASES.length; i++) {
+            long elapsed = value(project.phases.get(PHASES[i]));
+            int width = longest > 0 ? (int) (elapsed * TIMELINE_WIDTH / longest) : 0;
+            if (width > 0) {
+                bar.append("<td bgcolor=\"").append(PHASE_COLORS[i]).append("\" width=\"").append(width)
+                        .append("\" height=\"10\"></td>");
+            }
+        }
+        return bar.append("</tr></table>").toString();
+    }
+
+    private static long value(Long millis) {
+        return millis != null ? millis : 0;
+    }
+
+    private static String projectName(String path) {
+        File dir = path != null ? new File(path).getParentFile() : null;
+        return dir != null ? dir.getName() : String.valueOf(path);
+    }
+
+    private static String formatMillis(long millis) {
+        return millis < 1000 ? millis + " ms" : String.format("%.1f s", millis / 1000.0);
+    }
+}
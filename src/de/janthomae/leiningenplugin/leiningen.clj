@@ -2,7 +2,14 @@
   "This namespace provides our interop access point so that we can get into Clojure world from Java - basically so we can
   leverage the leiningen core library for introspection of project details."
   (:require [leiningen.core.project :as p]
-             [leiningen.core.classpath :as cp]))
+             [leiningen.core.classpath :as cp]
+             [leiningen.core.eval :as eval]
+             [cemerick.pomegranate.aether :as aether])
+  (:import (org.sonatype.aether.collection DependencyCollectionException)
+           (org.sonatype.aether.graph Dependency)
+           (org.sonatype.aether.util.artifact DefaultArtifact)
+           (org.sonatype.aether.resolution ArtifactDescriptorException ArtifactResolutionException)
+           (org.sonatype.aether.transfer TransferCancelledException TransferListener)))
 
 (defn find-all-artifacts
   "Traverses a nested map of dependencies as given by leiningen.core.classpath/dependency-hierarchy
@@ -25,28 +32,497 @@
                {:keys [dependency file]} (meta %)]
             {:artifactid (name artifact) :version version :groupid (.getGroupId (.getArtifact dependency)) :scope (.getScope dependency) :dependency dependency :file file}))))
 
+(defn- stringify-keys
+  "Turns the keyword keys of m into strings, which is what the Java side expects."
+  [m]
+  (zipmap (map name (keys m)) (vals m)))
+
+(defn- project-profiles
+  "The profiles selected on the Java side for a project, as keywords - or nil, meaning Leiningen's defaults."
+  [opts prj-file-path]
+  (seq (map keyword (get (get opts "profiles") prj-file-path))))
+
+(defn- read-project
+  [prj-file-path opts]
+  (if-let [profiles (project-profiles opts prj-file-path)]
+    (p/read prj-file-path profiles)
+    (p/read prj-file-path)))
+
 (defn load-project
    "Map a Java Static Function call to the project/read function.
-     args: prj-file-path - path to the project.clj file - appears to work with relative or absolute"
-   [prj-file-path]
-   (let [m (p/read prj-file-path)]
-     (zipmap (map name (keys m)) (vals m))))
+     args: prj-file-path - path to the project.clj file - appears to work with relative or absolute
+           opts - map with string keys, may be nil:
+             \"profiles\": Map - from project file path to the list of profile names to merge, default profiles if absent"
+   ([prj-file-path]
+     (load-project prj-file-path nil))
+   ([prj-file-path opts]
+     (let [m (read-project prj-file-path opts)]
+       (stringify-keys m))))
+
+
+;; Progress reporting
+
+(defn- transfer-listener
+  "Reports transfers to a ResolutionListener. A running download is cancelled as soon as the listener asks for it."
+  [listener]
+  (letfn [(check [] (when (.isCancelled listener) (throw (TransferCancelledException.))))
+          (resource [e] (.getResourceName (.getResource e)))
+          (repository [e] (.getRepositoryUrl (.getResource e)))]
+    (reify TransferListener
+      (transferInitiated [_ e]
+        (check))
+      (transferStarted [_ e]
+        (check)
+        (.transferStarted listener (resource e) (repository e)))
+      (transferProgressed [_ e]
+        (check)
+        (.transferProgressed listener (resource e) (repository e) (long (.remaining (.getDataBuffer e)))))
+      (transferCorrupted [_ e])
+      (transferSucceeded [_ e]
+        (.transferSucceeded listener (resource e) (repository e) (.getTransferredBytes e)
+                            (- (System/currentTimeMillis) (.getTransferStartTime (.getResource e)))))
+      (transferFailed [_ e]
+        (.transferFailed listener (resource e) (repository e))))))
+
+(def ^:private repository-settings-fns
+  "The functions of leiningen.core.classpath, private there, which turn a project's repository settings into what
+   pomegranate takes. Without all of them the listener cannot be attached, see dependency-hierarchy."
+  '[add-repo-auth update-policies get-proxy-settings])
+
+(defn missing-repository-settings-fns
+  "The names of the repository-settings-fns this version of Leiningen does not have, empty if it has all of them.
+   Interop logs them, resolutions are then not reported to the ResolutionListener."
+  []
+  (map str (remove #(ns-resolve 'leiningen.core.classpath %) repository-settings-fns)))
+
+(defn- dependency-hierarchy
+  "What leiningen.core.classpath/dependency-hierarchy returns for the :dependencies of a project. With a
+   ResolutionListener the resolution goes to pomegranate directly, with the same settings Leiningen would use, so that
+   the listener is attached to the Aether session of this resolution and no other. If Leiningen lacks one of the
+   functions for those settings, the resolution is left to Leiningen and the listener is not told about it - never
+   resolve without the credentials or proxy Leiningen would use."
+  [project listener]
+  (if (or (not listener) (seq (missing-repository-settings-fns)))
+    (cp/dependency-hierarchy :dependencies project)
+    (let [{:keys [dependencies repositories mirrors local-repo offline? update checksum]} project
+          [add-auth policies proxy-settings] (map #(deref (ns-resolve 'leiningen.core.classpath %))
+                                                  repository-settings-fns)
+          settings #(map (comp (partial policies update checksum) add-auth) %)]
+      (aether/dependency-hierarchy
+        dependencies
+        (aether/resolve-dependencies
+          :local-repo local-repo
+          :offline? offline?
+          :repositories (settings repositories)
+          :mirrors (settings mirrors)
+          :coordinates dependencies
+          :transfer-listener (transfer-listener listener)
+          :proxy (proxy-settings))))))
+
+(defn- report-artifacts
+  "Tells the ResolutionListener in opts, if any, about the artifacts a resolution found, or the ones it missed."
+  [opts artifacts found?]
+  (when-let [listener (get opts "listener")]
+    (doseq [artifact artifacts]
+      (.artifactResolving listener artifact)
+      (.artifactResolved listener artifact (boolean found?)))))
+
+;; Resolution
+
+(defn- causes
+  [e]
+  (take-while identity (iterate #(.getCause ^Throwable %) e)))
+
+(defn unresolved-artifacts
+  "Lists the coordinates of the artifacts a failed resolution could not find, as far as Aether tells us.
+    - Args: e - the exception thrown by the resolution
+    - Returns: a sequence of distinct coordinate strings, eg. \"org.clojure:clojure:jar:1.5.1\""
+  [e]
+  (letfn [(missing [ex]
+            (condp instance? ex
+              ArtifactResolutionException (for [r (.getResults ^ArtifactResolutionException ex)
+                                                :when (not (.isResolved r))]
+                                            (str (.getArtifact (.getRequest r))))
+              ArtifactDescriptorException [(str (.getArtifact (.getRequest (.getResult ^ArtifactDescriptorException ex))))]
+              DependencyCollectionException (mapcat #(mapcat missing (causes %))
+                                                    (.getExceptions (.getResult ^DependencyCollectionException ex)))
+              []))]
+    (distinct (mapcat missing (causes e)))))
+
+(defn- report-missing-artifacts
+  "Calls f, rethrowing resolution failures with the precise list of artifacts that could not be found."
+  [opts offline? f]
+  (try
+    (f)
+    (catch Exception e
+      (if-let [missing (seq (unresolved-artifacts e))]
+        (do
+          (report-artifacts opts missing false)
+          (throw (ex-info (str (if offline?
+                                 "Offline resolution failed, missing from the local repository: "
+                                 "Could not resolve dependencies: ")
+                               (apply str (interpose ", " missing)))
+                          {:missing (vec missing) :offline? (boolean offline?)}
+                          e)))
+        (throw e)))))
+
+(defn- apply-options
+  "Applies the resolution options passed in from the Java side (a map with string keys) to a project map."
+  [project opts]
+  (if (get opts "offline")
+    (assoc project :offline? true)
+    project))
+
+(defn- resolution-context
+  "Everything besides the dependencies themselves that influences what a resolution returns."
+  [project]
+  (select-keys project [:repositories :exclusions :local-repo :offline? :mirrors]))
+
+(defn- artifact->index
+  [{:keys [dependency groupid artifactid version scope file]}]
+  (let [a (.getArtifact dependency)]
+    {"groupid" groupid "artifactid" artifactid "classifier" (.getClassifier a) "extension" (.getExtension a)
+     "version" version "scope" scope "file" file}))
+
+(defn- index->artifact
+  [m]
+  (let [file (get m "file")
+        a (.setFile (DefaultArtifact. (get m "groupid") (get m "artifactid") (get m "classifier") (get m "extension")
+                                      (get m "version"))
+                    file)]
+    {:artifactid (get m "artifactid") :groupid (get m "groupid") :version (get m "version") :scope (get m "scope")
+     :dependency (Dependency. a (get m "scope")) :file file}))
+
+(defn- fixed-versions?
+  "Only fixed releases may be looked up in the index - the result for a SNAPSHOT or a version range changes without
+   any file in the local repository being touched. Ranges further down the graph are caught by LocalRepositoryIndex,
+   which reads the POMs."
+  [deps]
+  (every? #(let [v (second %)] (and (string? v) (not (re-find #"[\[\(,]|SNAPSHOT|^LATEST$|^RELEASE$" v)))) deps))
+
+(defn- indexable?
+  [artifacts]
+  (every? #(and (:file %) (not (.endsWith (str (:version %)) "SNAPSHOT"))) artifacts))
+
+(def ^:private index-cache
+  "The local repository index, MetricsRegistry/INDEX."
+  "cache.index")
+
+(def ^:private resolution-cache-name
+  "The resolution cache, MetricsRegistry/RESOLUTION_CACHE."
+  "cache.resolution")
+
+(def ^:private batch-cache
+  "The resolutions reused within a batch by projects with the same dependencies, MetricsRegistry/BATCH_CACHE."
+  "cache.batch")
+
+(defn- cache-lookup!
+  "Counts a lookup in one of our caches, in the MetricsRegistry passed as \"metrics\" in opts and with the
+   ResolutionListener passed as \"listener\", if any.
+    - Args: cache - the name of the cache, one of index-cache, resolution-cache-name and batch-cache
+            hit? - whether the cache had what we looked for"
+  [opts cache hit?]
+  (when-let [metrics (get opts "metrics")]
+    (.cacheLookup metrics cache (boolean hit?)))
+  (when-let [listener (get opts "listener")]
+    (.cacheLookup listener cache (boolean hit?))))
 
+(defn- index-key
+  "The key of a project's resolution in the local repository index. The index is a file, so only the repository URLs
+   go in and never the rest of their settings, which may hold credentials."
+  [project]
+  (letfn [(urls [repositories]
+            (for [[id repository] repositories]
+              [(str id) (if (map? repository) (:url repository) repository)]))]
+    (pr-str [(:dependencies project) (:exclusions project) (:local-repo project)
+             (urls (:repositories project)) (urls (:mirrors project))])))
+
+(defn- through-index
+  "Looks a resolution up in the local repository index passed as \"index\" in opts (see LocalRepositoryIndex), and
+   resolves and records it with f on a miss. Graphs with version ranges or SNAPSHOTs always go to Aether."
+  [opts project f]
+  (if-let [index (and (fixed-versions? (:dependencies project)) (get opts "index"))]
+    (let [key (index-key project)]
+      (if-let [hit (.lookup index key)]
+        (do (cache-lookup! opts index-cache true)
+            (map index->artifact hit))
+        (let [_ (cache-lookup! opts index-cache false)
+              artifacts (doall (f))]
+          (when (indexable? artifacts)
+            (.store index key (map artifact->index artifacts)))
+          artifacts)))
+    (f)))
+
+(defn resolve-dependencies
+  "Resolves the :dependencies of a project map, including the transitive ones.
+     - args: project - the project map
+             opts - map with string keys, may be nil:
+               \"offline\": Boolean - resolve against the local repository only, never contact remote repositories
+               \"index\": LocalRepositoryIndex - consulted before Aether, and updated with what Aether resolved
+     - Returns: A sequence of maps as returned by find-all-artifacts
+     - Throws: ExceptionInfo carrying the coordinates of all artifacts which could not be found under :missing"
+  [project opts]
+  (let [prj (apply-options project opts)]
+    (report-missing-artifacts opts (:offline? prj)
+      #(through-index opts prj
+         (fn []
+           (let [artifacts (doall (find-all-artifacts (dependency-hierarchy prj (get opts "listener"))))]
+             (report-artifacts opts (map #(str (.getArtifact (:dependency %))) artifacts) true)
+             artifacts))))))
+
+;; Sibling projects
+
+(defn- coordinate
+  "The group/artifact of a dependency vector or project map, the way the Java side keys sibling projects."
+  [dep-sym]
+  (let [s (symbol dep-sym)]
+    (str (or (namespace s) (name s)) "/" (name s))))
+
+(defn- read-sibling
+  "Reads a sibling project with the profiles selected for it, or without the :dev profile - its development
+   dependencies are no business of the projects depending on it."
+  [path opts]
+  (if (project-profiles opts path)
+    (read-project path opts)
+    (p/read path [:base :system :user :provided])))
+
+(defn- inherited?
+  "Whether a dependency of a sibling is passed on to the projects depending on it, as Maven does."
+  [dep]
+  (not (#{"test" "provided"} (:scope (apply hash-map (drop 2 dep))))))
+
+(defn- pass-exclusions
+  "Applies the :exclusions of a dependency on a sibling to the sibling's own dependencies, as Aether would to the
+   sibling's jar: the excluded ones are dropped, the others exclude the same artifacts from their dependencies."
+  [dep sibling-deps]
+  (let [exclusions (:exclusions (apply hash-map (drop 2 dep)))
+        excluded (set (map #(coordinate (if (sequential? %) (first %) %)) exclusions))]
+    (if (empty? exclusions)
+      sibling-deps
+      (for [[dep-sym version & more] sibling-deps
+            :when (not (excluded (coordinate dep-sym)))]
+        (into [dep-sym version]
+              (apply concat (update-in (apply hash-map more) [:exclusions] (fnil into []) exclusions)))))))
+
+(defn- add-repositories
+  "Adds the repositories of a sibling which the project does not have under the same name, so that the sibling's
+   dependencies are found where the sibling itself finds them."
+  [repositories sibling-repositories]
+  (let [names (set (map first repositories))]
+    (into (vec repositories) (remove #(names (first %)) sibling-repositories))))
+
+(defn- sibling-artifact
+  [[dep-sym version & more] path]
+  (let [s (symbol dep-sym)]
+    {:groupid (or (namespace s) (name s)) :artifactid (name s) :version version
+     :scope (or (:scope (apply hash-map more)) "compile") :module path}))
+
+(defn- expand-siblings
+  "Replaces the dependencies of a project on its siblings - other projects open in the IDE, passed as \"siblings\" in
+   opts from \"group/artifact\" to project file path - by the siblings' own dependencies, so that the siblings need not
+   be installed in the local repository. Siblings of siblings are expanded as well. The :exclusions of a dependency on
+   a sibling apply to the sibling's dependencies, and the sibling's :repositories are added to the project's.
+    - Args: project - the project map
+            read - reads a sibling's project map given its path
+    - Returns: [project siblings], the project with the expanded :dependencies and :repositories and an artifact map
+      with the :module path for every sibling that was replaced"
+  [project opts read]
+  (let [siblings (get opts "siblings")]
+    (if (empty? siblings)
+      [project []]
+      (loop [todo (:dependencies project)
+             deps []
+             repositories (:repositories project)
+             replaced []
+             seen #{(str (:group project) "/" (:name project))}]
+        (if-let [[dep & more] (seq todo)]
+          (let [c (coordinate (first dep))
+                path (get siblings c)]
+            (cond
+              (nil? path) (recur more (conj deps dep) repositories replaced seen)
+              (seen c) (recur more deps repositories replaced seen)
+              :else (let [sibling (read path)]
+                      (recur (concat more (pass-exclusions dep (filter inherited? (:dependencies sibling))))
+                             deps
+                             (add-repositories repositories (:repositories sibling))
+                             (conj replaced (sibling-artifact dep path))
+                             (conj seen c)))))
+          [(assoc project :dependencies (vec (distinct deps)) :repositories repositories) replaced])))))
+
+(defn- sibling-reader
+  "A reader for expand-siblings which reads each sibling only once."
+  [opts]
+  (memoize #(read-sibling % opts)))
+
+(def ^:private resolution-cache-size
+  "How many resolutions the resolution cache keeps, the least recently used ones are dropped first."
+  64)
+
+(def ^:private resolution-cache
+  "The last resolutions of project files and profile sets, so that switching profiles back and forth is instant."
+  (proxy [java.util.LinkedHashMap] [16 (float 0.75) true]
+    (removeEldestEntry [_]
+      (> (.size ^java.util.Map this) resolution-cache-size))))
+
+(defn- cached-resolution
+  "Returns the cached artifacts for the project's profile set as long as the dependencies and resolution settings did not
+   change and opts don't ask for \"force\", otherwise resolves them with f."
+  [prj-file-path opts project f]
+  (let [k [prj-file-path (project-profiles opts prj-file-path)]
+        fingerprint [(:dependencies project) (resolution-context (apply-options project opts))]
+        cached (locking resolution-cache (.get ^java.util.Map resolution-cache k))]
+    (if (and cached (not (get opts "force")) (= fingerprint (:fingerprint cached)))
+      (do (cache-lookup! opts resolution-cache-name true)
+          (:artifacts cached))
+      (let [_ (cache-lookup! opts resolution-cache-name false)
+            artifacts (doall (f))]
+        (locking resolution-cache
+          (.put ^java.util.Map resolution-cache k {:fingerprint fingerprint :artifacts artifacts}))
+        artifacts))))
 
 (defn load-dependencies
   "Retrieve all of the dependencies (including transitive) which are in the :dependencies list in the project file.
      - args: prj-file-path - path to the project.clj file - appears to work with relative or absolute
+             opts - resolution options, see resolve-dependencies. In addition:
+               \"profiles\": Map - from project file path to the list of profile names to merge
+               \"force\": Boolean - resolve again even if this profile set has been resolved before
+               \"listener\": ResolutionListener - told about the progress of the resolution, may be nil
+               \"metrics\": MetricsRegistry - counts cache hits and misses, may be nil
+               \"siblings\": Map - from \"group/artifact\" to the project file path of the other projects open in the IDE,
+                 dependencies on them are replaced by their own dependencies, see expand-siblings
      - Returns: A sequence of maps containing the following string keys:
         \"artifactid\": String: the name of the artifact in leiningen format (ie. group/artifact)
         \"groupid\" String: the group coordinates
         \"version\": String: the version number
         \"scope\": String: the scope of the dependency
         \"dependency\": org.sonatype.aether.graph.Dependency - The dependency itself in case you want to have access to anything that we haven't returned
-        \"file\": java.io.File - The file containing the downloaded artifact (usually in your .m2 directory)"
-  [prj-file-path]
-  (let [prj (p/read prj-file-path)
-        dep-hier (cp/dependency-hierarchy :dependencies prj)
-        deps (find-all-artifacts dep-hier)]
-    (into []
-      (for [m deps]
-      (zipmap (map name (keys m)) (vals m))))))
+        \"file\": java.io.File - The file containing the downloaded artifact (usually in your .m2 directory)
+        \"module\": String - only for dependencies on siblings, which have no file: the sibling's project file path"
+  ([prj-file-path]
+    (load-dependencies prj-file-path nil))
+  ([prj-file-path opts]
+    (let [[prj siblings] (expand-siblings (read-project prj-file-path opts) opts (sibling-reader opts))
+          deps (cached-resolution prj-file-path opts prj (fn [] (resolve-dependencies prj opts)))]
+      (into []
+        (for [m (concat siblings deps)]
+        (stringify-keys m))))))
+
+(defn shared-resolution
+  "Resolves a project with f - one real resolution of its whole graph, so that Aether's exclusions and conflict
+   mediation see all of it - unless a project earlier in the batch had the same dependencies and resolution settings.
+   Then that project's result is reused, it is the same as the real resolution would be.
+    - Args: cache - an atom holding the results of the batch so far"
+  [cache project opts f]
+  (let [k [(:dependencies project) (resolution-context project)]]
+    (if-let [artifacts (get @cache k)]
+      (do (cache-lookup! opts batch-cache true)
+          artifacts)
+      (let [_ (cache-lookup! opts batch-cache false)
+            artifacts (doall (f))]
+        (swap! cache assoc k artifacts)
+        artifacts))))
+
+(defn new-batch
+  "Starts a batch of load-dependencies-in-batch calls for many projects, eg. all projects of a refresh. Projects with
+   the same dependencies and resolution settings are resolved only once, see shared-resolution; projects which differ,
+   if only in one dependency, are each resolved in full. The batch holds the resolutions and the siblings read so far.
+     - args: opts - resolution options, see load-dependencies"
+  [opts]
+  {:cache (atom {})
+   :read (sibling-reader opts)})
+
+(defn load-dependencies-in-batch
+  "load-dependencies for one project of a batch, see new-batch. The project is resolved in full, but only once per batch
+   for projects with the same dependencies and repositories, see shared-resolution. Every project is a call of its own,
+   so that the caller can give up on one which hangs and carry on with the others.
+     - args: batch - the batch, see new-batch
+             prj-file-path - the path of the project.clj file
+             opts - resolution options, see load-dependencies
+     - Returns: the same vector load-dependencies would return - or the exception the resolution failed with, so that
+       the caller can log it, retry the project on its own and report the error."
+  [batch prj-file-path opts]
+  (try
+    (when-let [listener (get opts "listener")]
+      (.projectStarted listener prj-file-path))
+    (let [[prj siblings] (expand-siblings (read-project prj-file-path opts) opts (:read batch))
+          prj (apply-options prj opts)]
+      (into [] (map stringify-keys
+                    (concat siblings
+                            (cached-resolution prj-file-path opts prj
+                              (fn [] (shared-resolution (:cache batch) prj opts
+                                       (fn [] (resolve-dependencies prj opts)))))))))
+    (catch Exception e e)))
+
+;; Launching without Leiningen
+
+(defn- needs-prep?
+  "True if the project has to be compiled by Leiningen before its code can run, or has prep tasks of its own."
+  [project]
+  (let [aot (:aot project)]
+    (or (not= :subprocess (:eval-in project :subprocess))
+        (not= (:prep-tasks p/defaults) (:prep-tasks project))
+        (seq (:java-source-paths project))
+        (and aot (not (and (coll? aot) (empty? aot)))))))
+
+(defn- run-form
+  [project [flag main & more :as args]]
+  (let [[main args] (if (= "-m" flag) [main more] [(:main project) args])]
+    (when main
+      `(do ~@(:injections project)
+           (binding [*command-line-args* '~args]
+             (require '~(symbol (name main)))
+             ((resolve '~(symbol (name main) "-main")) ~@args))))))
+
+(defn- test-form
+  "The form which runs the tests like `lein test` - nil if that needs selectors, including the :default selector
+   Leiningen applies when none are given."
+  [project args]
+  (when-not (or (some #(.startsWith ^String % ":") args)
+                (:default (:test-selectors project)))
+    `(do ~@(:injections project)
+         (require 'clojure.test)
+         (let [nses# (or (seq '~(map symbol args))
+                         (for [dir# '~(:test-paths project)
+                               file# (file-seq (java.io.File. ^String dir#))
+                               :when (.endsWith (.getName ^java.io.File file#) ".clj")
+                               :let [form# (try
+                                             (with-open [r# (java.io.PushbackReader. (clojure.java.io/reader file#))]
+                                               (read r#))
+                                             (catch Exception e# nil))]
+                               :when (and (seq? form#) (= '~'ns (first form#)))]
+                           (second form#)))
+               _# (apply require :reload nses#)
+               summary# (apply clojure.test/run-tests nses#)]
+           (shutdown-agents)
+           (System/exit (if (zero? (+ (:fail summary#) (:error summary#))) 0 1))))))
+
+(defn- with-init-file
+  "Points a command line from eval/shell-command at init-file, which gets the form. The init file Leiningen writes
+   deletes itself when the JVM exits, so its command line could only run once."
+  [command form init-file]
+  (let [i (inc (.indexOf ^java.util.List command "-i"))
+        file (java.io.File. ^String init-file)]
+    (.delete (java.io.File. ^String (nth command i)))
+    (.mkdirs (.getParentFile file))
+    (spit file (binding [*print-dup* (boolean (some-> (ns-resolve 'leiningen.core.eval '*eval-print-dup*) deref))]
+                 (pr-str form)))
+    (assoc command i (.getCanonicalPath file))))
+
+(defn launch-command
+  "The command line which runs goals in the project JVM directly, the way `lein trampoline` would, so that running them
+   again does not start Leiningen. Only run (of a namespace's -main) and test (without selectors) are supported, and only
+   for projects which Leiningen does not have to compile or otherwise prepare first.
+     - args: prj-file-path - the path of the project.clj file
+             goals - the goals, eg. [\"run\" \"-m\" \"my.main\" \"arg\"]
+             opts - resolution options, see load-dependencies. Leiningen's default profiles are used.
+             init-file - where to write the form the command line evaluates, it is kept for the next runs
+     - Returns: A vector of strings, the java executable first - or nil if the goals need Leiningen."
+  [prj-file-path goals opts init-file]
+  (let [project (apply-options (p/read prj-file-path) opts)
+        [task & args] goals]
+    (when-not (needs-prep? project)
+      (when-let [form (case task
+                        "run" (run-form project args)
+                        "test" (test-form project args)
+                        nil)]
+        (with-init-file (mapv str (eval/shell-command project form)) form init-file)))))
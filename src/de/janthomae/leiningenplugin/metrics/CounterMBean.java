@@ -0,0 +1,8 @@
+package de.janthomae.leiningenplugin.metrics;
+
+/**
+ * JMX view of a {@link Counter}.
+ */
+public interface CounterMBean {
+    long getCount();
+}
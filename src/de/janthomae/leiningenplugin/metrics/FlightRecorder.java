@@ -0,0 +1,265 @@
+package de.janthomae.leiningenplugin.metrics;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for the plugin's work, so that a recording of the IDE shows imports and launches next to
+ * GC, indexing and EDT activity. The events are defined at runtime with jdk.jfr.EventFactory, which is looked up by
+ * reflection: on a JVM without JFR every event is a no-op, and so is an event type which is not enabled in the running
+ * recording.
+ * <pre>
+ * FlightRecorder.Event event = FlightRecorder.IMPORT_PHASE.begin();
+ * ...
+ * event.set("project", path);
+ * event.commit();
+ * </pre>
+ */
+public class FlightRecorder {
+    private static final Logger log = Logger.getInstance(FlightRecorder.class);
+
+    private static final String CATEGORY = "Leiningen";
+
+    private static boolean ourLookedUp;
+    private static Reflection ourJfr;
+
+    public static final EventType IMPORT_PHASE = define("ImportPhase", "Import Phase",
+            "title", String.class, "phase", String.class, "project", String.class, "artifacts", int.class,
+            "bytes", long.class);
+    public static final EventType CACHE_LOOKUP = define("CacheLookup", "Cache Lookup",
+            "cache", String.class, "hit", boolean.class, "project", String.class);
+    public static final EventType WRITE_ACTION = define("WriteAction", "Module Write Action",
+            "project", String.class, "libraries", int.class);
+    public static final EventType GOAL_LAUNCH = define("GoalLaunch", "Goal Launch",
+            "workingDirectory", String.class, "goals", String.class);
+
+    private static final Event NO_EVENT = new Event(null, null);
+
+    /**
+     * A kind of event, eg. an import phase.
+     */
+    public static class EventType {
+        private final Object factory;
+        private final Object type;
+        private final List<String> fields;
+
+        private EventType(Object factory, Object type, List<String> fields) {
+            this.factory = factory;
+            this.type = type;
+            this.fields = fields;
+        }
+
+        /**
+         * @return true if a recording currently records this event.
+         */
+        public boolean isEnabled() {
+            return factory != null && ourJfr.isEnabled(type);
+        }
+
+        /**
+         * Starts an event. Its duration runs until {@link Event#commit()}.
+         *
+         * @return the event, which does nothing if recording is off
+         */
+        public Event begin() {
+            if (!isEnabled()) {
+                return NO_EVENT;
+            }
+            Object event = ourJfr.newEvent(factory);
+            if (event == null) {
+                return NO_EVENT;
+            }
+            return new Event(this, event);
+        }
+    }
+
+    /**
+     * A single event being recorded.
+     */
+    public static class Event {
+        private final EventType type;
+        private final Object event;
+
+        private Event(EventType type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        /**
+         * @param field the field name, as defined by the event type
+         * @param value the value, which must match the field's type
+         * @return this event
+         */
+        public Event set(String field, Object value) {
+            if (event != null) {
+                int index = type.fields.indexOf(field);
+                if (index < 0) {
+                    throw new IllegalArgumentException("No field " + field);
+                }
+                ourJfr.set(event, index, value);
+            }
+            return this;
+        }
+
+        /**
+         * Ends the event and writes it to the recording.
+         */
+        public void commit() {
+            if (event != null) {
+                ourJfr.commit(event);
+            }
+        }
+    }
+
+    private static EventType define(String name, String label, Object... fieldsAndTypes) {
+        List<String> fields = new ArrayList<String>();
+        List<Class> types = new ArrayList<Class>();
+        for (int i = 0; i < fieldsAndTypes.length; i += 2) {
+            fields.add((String) fieldsAndTypes[i]);
+            types.add((Class) fieldsAndTypes[i + 1]);
+        }
+        Reflection jfr = reflection();
+        if (jfr == null || !jfr.isAvailable()) {
+            return new EventType(null, null, fields);
+        }
+        Object factory = jfr.createFactory("de.janthomae.leiningenplugin." + name, label, fields, types);
+        return new EventType(factory, factory != null ? jfr.eventType(factory) : null, fields);
+    }
+
+    private static synchronized Reflection reflection() {
+        if (!ourLookedUp) {
+            ourLookedUp = true;
+            ourJfr = Reflection.create();
+        }
+        return ourJfr;
+    }
+
+    /**
+     * The parts of jdk.jfr we need, looked up once.
+     */
+    private static class Reflection {
+        private final Constructor<?> annotationElementConstructor;
+        private final Constructor<?> valueDescriptorConstructor;
+        private final Class<?> nameAnnotation;
+        private final Class<?> labelAnnotation;
+        private final Class<?> categoryAnnotation;
+        private final Method create;
+        private final Method getEventType;
+        private final Method isEnabled;
+        private final Method newEvent;
+        private final Method begin;
+        private final Method set;
+        private final Method commit;
+        private boolean failed;
+
+        static Reflection create() {
+            try {
+                return new Reflection();
+            } catch (Exception e) {
+                log.debug("Java Flight Recorder events are not available", e);
+                return null;
+            } catch (LinkageError e) {
+                log.debug("Java Flight Recorder events are not available", e);
+                return null;
+            }
+        }
+
+        private Reflection() throws Exception {
+            ClassLoader loader = ClassLoader.getSystemClassLoader();
+            annotationElementConstructor = Class.forName("jdk.jfr.AnnotationElement", true, loader)
+                    .getConstructor(Class.class, Object.class);
+            valueDescriptorConstructor = Class.forName("jdk.jfr.ValueDescriptor", true, loader)
+                    .getConstructor(Class.class, String.class);
+            nameAnnotation = Class.forName("jdk.jfr.Name", true, loader);
+            labelAnnotation = Class.forName("jdk.jfr.Label", true, loader);
+            categoryAnnotation = Class.forName("jdk.jfr.Category", true, loader);
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory", true, loader);
+            create = factory.getMethod("create", List.class, List.class);
+            getEventType = factory.getMethod("getEventType");
+            newEvent = factory.getMethod("newEvent");
+            isEnabled = Class.forName("jdk.jfr.EventType", true, loader).getMethod("isEnabled");
+            Class<?> event = Class.forName("jdk.jfr.Event", true, loader);
+            begin = event.getMethod("begin");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+        }
+
+        boolean isAvailable() {
+            return !failed;
+        }
+
+        Object createFactory(String name, String label, List<String> fields, List<Class> types) {
+            try {
+                List<Object> annotations = Arrays.asList(
+                        annotationElementConstructor.newInstance(nameAnnotation, name),
+                        annotationElementConstructor.newInstance(labelAnnotation, label),
+                        annotationElementConstructor.newInstance(categoryAnnotation, new String[]{CATEGORY}));
+                List<Object> descriptors = new ArrayList<Object>();
+                for (int i = 0; i < fields.size(); i++) {
+                    descriptors.add(valueDescriptorConstructor.newInstance(types.get(i), fields.get(i)));
+                }
+                return create.invoke(null, annotations, descriptors);
+            } catch (Exception e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        Object eventType(Object factory) {
+            try {
+                return getEventType.invoke(factory);
+            } catch (Exception e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        boolean isEnabled(Object type) {
+            try {
+                return !failed && type != null && (Boolean) isEnabled.invoke(type);
+            } catch (Exception e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        Object newEvent(Object factory) {
+            try {
+                Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return event;
+            } catch (Exception e) {
+                fail(e);
+                return null;
+            }
+        }
+
+        void set(Object event, int index, Object value) {
+            try {
+                set.invoke(event, index, value);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        void commit(Object event) {
+            try {
+                commit.invoke(event);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (!failed) {
+                failed = true;
+                log.warn("Disabling Java Flight Recorder events", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.janthomae.leiningenplugin.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The distribution of a value, eg. the number of artifacts per resolution. Count, minimum, maximum and mean cover all
+ * values ever recorded, the percentiles only the most recent ones.
+ */
+public class Histogram implements HistogramMBean {
+    private static final int SAMPLES = 1024;
+
+    private final long[] samples = new long[SAMPLES];
+    private long count;
+    private long min;
+    private long max;
+    private long sum;
+
+    public synchronized void update(long value) {
+        samples[(int) (count % SAMPLES)] = value;
+        min = count == 0 ? value : Math.min(min, value);
+        max = count == 0 ? value : Math.max(max, value);
+        sum += value;
+        count++;
+    }
+
+    @Override
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized long getMin() {
+        return min;
+    }
+
+    @Override
+    public synchronized long getMax() {
+        return max;
+    }
+
+    @Override
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return getPercentile(0.5);
+    }
+
+    @Override
+    public long get95thPercentile() {
+        return getPercentile(0.95);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the value below which the given fraction of the recent values lie, 0 if nothing was recorded yet.
+     */
+    public long getPercentile(double quantile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLES));
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,479 @@
+package de.janthomae.leiningenplugin.metrics;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one background import spent its time on: the elapsed time of each phase, overall and per project, the number of
+ * artifacts resolved, cache hits and the downloads, per repository and the slowest ones individually.
+ * <p/>
+ * The metrics of the import running on the current thread are available from {@link #current()}. While an import runs
+ * they are also shown on its progress indicator.
+ */
+public class ImportMetrics implements ResolutionListener {
+    private static final Logger log = Logger.getInstance(ImportMetrics.class);
+
+    public static final String PHASE_EVALUATE = "Evaluating project files";
+    public static final String PHASE_RESOLVE = "Resolving dependencies";
+    public static final String PHASE_BUILD = "Building module model";
+    public static final String PHASE_COMMIT = "Committing module model";
+
+    private static final int SLOWEST_TRANSFERS = 10;
+
+    private static final ThreadLocal<ImportMetrics> ourCurrent = new ThreadLocal<ImportMetrics>();
+
+    private final ProgressIndicator indicator;
+    private String title = "Synchronizing Leiningen project";
+    private final long startTime = System.currentTimeMillis();
+    private long endTime;
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private String phase;
+    private String project;
+    private long phaseStart;
+    private FlightRecorder.Event phaseEvent;
+    private final Map<String, ImportRun.ProjectRun> projects = new LinkedHashMap<String, ImportRun.ProjectRun>();
+
+    private int artifactsTotal;
+    private int artifactsResolved;
+    private int artifactsMissing;
+    private int transfersStarted;
+    private int transfersFinished;
+    private long bytesTransferred;
+    private int cacheHits;
+    private int cacheMisses;
+    private final Map<String, RepositoryStats> repositories = new LinkedHashMap<String, RepositoryStats>();
+    private final List<Transfer> slowestTransfers = new ArrayList<Transfer>();
+
+    /**
+     * Starts collecting metrics for the import running on the current thread.
+     *
+     * @param indicator the progress indicator of the import, may be null
+     * @return the metrics
+     */
+    public static ImportMetrics begin(@Nullable ProgressIndicator indicator) {
+        ImportMetrics metrics = new ImportMetrics(indicator);
+        ourCurrent.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of the import running on the current thread, or null if it's not an import.
+     */
+    @Nullable
+    public static ImportMetrics current() {
+        return ourCurrent.get();
+    }
+
+    /**
+     * Starts a phase of the current import, if there is one.
+     *
+     * @param name    the phase, one of the PHASE constants
+     * @param project the path of the project file the phase works on, null if it works on several
+     */
+    public static void phase(String name, @Nullable String project) {
+        ImportMetrics metrics = current();
+        if (metrics != null) {
+            metrics.startPhase(name, project);
+        }
+    }
+
+    /**
+     * Names the current import, eg. "Refresh", for the import history.
+     *
+     * @param title the title
+     */
+    public static void describe(String title) {
+        ImportMetrics metrics = current();
+        if (metrics != null) {
+            metrics.title = title;
+        }
+    }
+
+    /**
+     * Records the number of artifacts a project resolved to, in the current import if there is one.
+     *
+     * @param project the project file path
+     * @param count   the number of artifacts
+     */
+    public static void artifacts(String project, int count) {
+        ImportMetrics metrics = current();
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.project(project).artifacts = count;
+            }
+        }
+    }
+
+    public ImportMetrics(@Nullable ProgressIndicator indicator) {
+        this.indicator = indicator;
+    }
+
+    /**
+     * Ends the current phase and starts the next one. Phases which are entered several times (once per project) add up.
+     *
+     * @param name    the phase
+     * @param project the path of the project file the phase works on, or null
+     */
+    public synchronized void startPhase(String name, @Nullable String project) {
+        endPhase();
+        phase = name;
+        this.project = project;
+        phaseStart = System.currentTimeMillis();
+        phaseEvent = FlightRecorder.IMPORT_PHASE.begin();
+        if (indicator != null) {
+            indicator.setText(name);
+            indicator.setIndeterminate(transfersStarted == 0);
+        }
+    }
+
+    /**
+     * Ends the import. Called by the thread which called {@link #begin(ProgressIndicator)}.
+     */
+    public void finish() {
+        synchronized (this) {
+            endPhase();
+            endTime = System.currentTimeMillis();
+        }
+        if (ourCurrent.get() == this) {
+            ourCurrent.remove();
+        }
+        log.info(getSummary());
+    }
+
+    private void endPhase() {
+        if (phase != null) {
+            long elapsed = System.currentTimeMillis() - phaseStart;
+            add(phases, phase, elapsed);
+            if (project != null) {
+                add(project(project).phases, phase, elapsed);
+            }
+            phaseEvent.set("title", title).set("phase", phase).set("project", project);
+            if (project != null) {
+                phaseEvent.set("artifacts", project(project).artifacts).set("bytes", project(project).bytes);
+            }
+            phaseEvent.commit();
+            phase = null;
+        }
+    }
+
+    private static void add(Map<String, Long> phases, String phase, long elapsed) {
+        Long total = phases.get(phase);
+        phases.put(phase, (total != null ? total : 0) + elapsed);
+    }
+
+    private ImportRun.ProjectRun project(String path) {
+        ImportRun.ProjectRun run = projects.get(path);
+        if (run == null) {
+            run = new ImportRun.ProjectRun();
+            run.path = path;
+            projects.put(path, run);
+        }
+        return run;
+    }
+
+    @Override
+    public synchronized void projectStarted(String path) {
+        String current = phase;
+        endPhase();
+        phase = current;
+        project = path;
+        phaseStart = System.currentTimeMillis();
+        phaseEvent = FlightRecorder.IMPORT_PHASE.begin();
+        transfersStarted = 0;
+        transfersFinished = 0;
+        if (indicator != null) {
+            indicator.setIndeterminate(true);
+            indicator.setText2(null);
+        }
+    }
+
+    @Override
+    public synchronized void cacheLookup(String cache, boolean hit) {
+        FlightRecorder.CACHE_LOOKUP.begin().set("cache", cache).set("hit", hit).set("project", project).commit();
+        if (hit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+        if (project != null) {
+            if (hit) {
+                project(project).cacheHits++;
+            } else {
+                project(project).cacheMisses++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void artifactResolving(String artifact) {
+        artifactsTotal++;
+    }
+
+    @Override
+    public synchronized void artifactResolved(String artifact, boolean found) {
+        artifactsResolved++;
+        if (!found) {
+            artifactsMissing++;
+        }
+    }
+
+    @Override
+    public synchronized void transferStarted(String resource, String repository) {
+        repository(repository).downloads++;
+        transfersStarted++;
+        updateIndicator();
+    }
+
+    @Override
+    public synchronized void transferProgressed(String resource, String repository, long bytes) {
+        bytesTransferred += bytes;
+        repository(repository).bytes += bytes;
+        if (project != null) {
+            project(project).bytes += bytes;
+        }
+        updateIndicator();
+    }
+
+    @Override
+    public synchronized void transferSucceeded(String resource, String repository, long bytes, long millis) {
+        repository(repository).millis += millis;
+        transfersFinished++;
+        updateIndicator();
+        Transfer transfer = new Transfer(resource, repository, bytes, millis);
+        slowestTransfers.add(transfer);
+        Collections.sort(slowestTransfers, new Comparator<Transfer>() {
+            @Override
+            public int compare(Transfer o1, Transfer o2) {
+                return o1.millis > o2.millis ? -1 : o1.millis < o2.millis ? 1 : 0;
+            }
+        });
+        if (slowestTransfers.size() > SLOWEST_TRANSFERS) {
+            slowestTransfers.remove(SLOWEST_TRANSFERS);
+        }
+    }
+
+    @Override
+    public synchronized void transferFailed(String resource, String repository) {
+        repository(repository).failures++;
+        transfersFinished++;
+        updateIndicator();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return indicator != null && indicator.isCanceled();
+    }
+
+    private RepositoryStats repository(String url) {
+        RepositoryStats stats = repositories.get(url);
+        if (stats == null) {
+            stats = new RepositoryStats(url);
+            repositories.put(url, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Shows the downloads of the current project: the artifacts a resolution will find are only known once it is done,
+     * so the fraction is that of the downloads started so far, and starts over with each project.
+     */
+    private void updateIndicator() {
+        if (indicator != null && transfersStarted > 0) {
+            indicator.setIndeterminate(false);
+            indicator.setFraction((double) transfersFinished / transfersStarted);
+            indicator.setText2(transfersFinished + " of " + transfersStarted + " downloads, " +
+                    StringUtil.formatFileSize(bytesTransferred) + " downloaded");
+        }
+    }
+
+    /**
+     * @return the elapsed time of each phase in milliseconds, in the order they were first entered.
+     */
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<String, Long>(phases);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the duration of the whole import in milliseconds, up to now if it is still running.
+     */
+    public synchronized long getElapsed() {
+        return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    public synchronized int getArtifactsTotal() {
+        return artifactsTotal;
+    }
+
+    public synchronized int getArtifactsResolved() {
+        return artifactsResolved;
+    }
+
+    public synchronized int getArtifactsMissing() {
+        return artifactsMissing;
+    }
+
+    public synchronized long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    public synchronized List<RepositoryStats> getRepositories() {
+        List<RepositoryStats> result = new ArrayList<RepositoryStats>();
+        for (RepositoryStats stats : repositories.values()) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+    /**
+     * @return the slowest downloads, slowest first.
+     */
+    public synchronized List<Transfer> getSlowestTransfers() {
+        return new ArrayList<Transfer>(slowestTransfers);
+    }
+
+    public synchronized String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the phase the import is in, or null between phases.
+     */
+    @Nullable
+    public synchronized String getCurrentPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the path of the project file the current phase works on, or null.
+     */
+    @Nullable
+    public synchronized String getCurrentProject() {
+        return project;
+    }
+
+    /**
+     * @return true if nothing was measured, ie. the task did not read or resolve any project.
+     */
+    public synchronized boolean isEmpty() {
+        return phases.isEmpty() && phase == null;
+    }
+
+    /**
+     * @return a snapshot for the import history.
+     */
+    public synchronized ImportRun toRun() {
+        ImportRun run = new ImportRun();
+        run.title = title;
+        run.startTime = startTime;
+        run.elapsed = getElapsed();
+        run.artifacts = artifactsResolved;
+        run.cacheHits = cacheHits;
+        run.cacheMisses = cacheMisses;
+        run.bytes = bytesTransferred;
+        run.phases.putAll(phases);
+        for (ImportRun.ProjectRun project : projects.values()) {
+            ImportRun.ProjectRun copy = new ImportRun.ProjectRun();
+            copy.path = project.path;
+            copy.phases.putAll(project.phases);
+            copy.artifacts = project.artifacts;
+            copy.cacheHits = project.cacheHits;
+            copy.cacheMisses = project.cacheMisses;
+            copy.bytes = project.bytes;
+            run.projects.add(copy);
+        }
+        for (Transfer transfer : slowestTransfers) {
+            run.slowestTransfers.add(transfer.toString());
+        }
+        return run;
+    }
+
+    /**
+     * @return a human readable report, as written to the log when the import finishes.
+     */
+    public synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder(title).append(" took ").append(getElapsed()).append(" ms");
+        for (Map.Entry<String, Long> entry : phases.entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" ms");
+        }
+        sb.append("\n  Artifacts: ").append(artifactsResolved).append(" of ").append(artifactsTotal).append(" resolved, ")
+                .append(artifactsMissing).append(" missing, cache hits/misses ").append(cacheHits).append("/")
+                .append(cacheMisses);
+        for (ImportRun.ProjectRun project : projects.values()) {
+            sb.append("\n  ").append(project.path).append(": ").append(project.getTotal()).append(" ms ")
+                    .append(project.phases);
+        }
+        for (RepositoryStats stats : repositories.values()) {
+            sb.append("\n  ").append(stats);
+        }
+        for (Transfer transfer : slowestTransfers) {
+            sb.append("\n  Slow: ").append(transfer);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Downloads from one remote repository.
+     */
+    public static class RepositoryStats {
+        public final String url;
+        public int downloads;
+        public int failures;
+        public long bytes;
+        public long millis;
+
+        RepositoryStats(String url) {
+            this.url = url;
+        }
+
+        RepositoryStats copy() {
+            RepositoryStats copy = new RepositoryStats(url);
+            copy.downloads = downloads;
+            copy.failures = failures;
+            copy.bytes = bytes;
+            copy.millis = millis;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return url + ": " + downloads + " downloads, " + failures + " failed, " + StringUtil.formatFileSize(bytes) +
+                    " in " + millis + " ms";
+        }
+    }
+
+    /**
+     * A single download.
+     */
+    public static class Transfer {
+        public final String resource;
+        public final String repository;
+        public final long bytes;
+        public final long millis;
+
+        Transfer(String resource, String repository, long bytes, long millis) {
+            this.resource = resource;
+            this.repository = repository;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return repository + "/" + resource + " (" + StringUtil.formatFileSize(bytes) + " in " + millis + " ms)";
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.janthomae.leiningenplugin.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A finished import as kept in the import history: a snapshot of its {@link ImportMetrics} which can be persisted.
+ */
+public class ImportRun {
+    public String title;
+    public long startTime;
+    public long elapsed;
+    public int artifacts;
+    public int cacheHits;
+    public int cacheMisses;
+    public long bytes;
+    /** Elapsed milliseconds by phase, summed over all projects. */
+    public Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    public List<ProjectRun> projects = new ArrayList<ProjectRun>();
+    /** The slowest downloads, slowest first. */
+    public List<String> slowestTransfers = new ArrayList<String>();
+
+    /**
+     * What a single project contributed to the import.
+     */
+    public static class ProjectRun {
+        public String path;
+        /** Elapsed milliseconds by phase, in the order they were entered. */
+        public Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        public int artifacts;
+        public int cacheHits;
+        public int cacheMisses;
+        public long bytes;
+
+        public long getTotal() {
+            long total = 0;
+            for (Long elapsed : phases.values()) {
+                total += elapsed;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.janthomae.leiningenplugin.metrics;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The plugin's timers, counters and histograms. Each metric is created on first use and published as a standard MBean
+ * named "de.janthomae.leiningenplugin:type=Timer,name=project.evaluation" and so on, so it can be watched with JConsole
+ * or VisualVM while working with the IDE.
+ */
+public class MetricsRegistry implements ApplicationComponent {
+    private static final Logger log = Logger.getInstance(MetricsRegistry.class);
+
+    private static final String DOMAIN = "de.janthomae.leiningenplugin";
+
+    public static final String PROJECT_EVALUATION = "project.evaluation";
+    public static final String DEPENDENCY_RESOLUTION = "dependency.resolution";
+    public static final String BATCH_RESOLUTION = "dependency.resolution.batch";
+    public static final String RESOLVED_ARTIFACTS = "dependency.resolution.artifacts";
+    public static final String PROJECT_IMPORT = "project.import";
+    public static final String IMPORT_FAILURES = "project.import.failures";
+    public static final String MODEL_COMMIT = "module.commit";
+    public static final String WRITE_LOCK = "write-lock.hold";
+    public static final String RESOLUTION_CACHE = "cache.resolution";
+    public static final String RESOLUTION_CACHE_HITS = RESOLUTION_CACHE + ".hits";
+    public static final String RESOLUTION_CACHE_MISSES = RESOLUTION_CACHE + ".misses";
+    public static final String BATCH_CACHE = "cache.batch";
+    public static final String BATCH_CACHE_HITS = BATCH_CACHE + ".hits";
+    public static final String BATCH_CACHE_MISSES = BATCH_CACHE + ".misses";
+    public static final String INDEX = "cache.index";
+    public static final String INDEX_HITS = INDEX + ".hits";
+    public static final String INDEX_MISSES = INDEX + ".misses";
+    public static final String PROCESS_LAUNCHES = "process.launches";
+    public static final String PROCESS_START = "process.start";
+    public static final String FAST_LAUNCHES = "process.fast-launches";
+    public static final String GOAL_SERVER_STARTS = "process.goal-server.starts";
+    public static final String GOAL_SERVER_RUNS = "process.goal-server.runs";
+
+    private final Map<String, Object> metrics = new TreeMap<String, Object>();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public static MetricsRegistry getInstance() {
+        return ApplicationManager.getApplication().getComponent(MetricsRegistry.class);
+    }
+
+    public Timer timer(String name) {
+        return metric(name, Timer.class);
+    }
+
+    public Counter counter(String name) {
+        return metric(name, Counter.class);
+    }
+
+    public Histogram histogram(String name) {
+        return metric(name, Histogram.class);
+    }
+
+    /**
+     * Counts a lookup in one of the caches of the dependency resolution, eg. as INDEX_HITS or INDEX_MISSES.
+     *
+     * @param cache RESOLUTION_CACHE, BATCH_CACHE or INDEX
+     * @param hit   true if the cache had the resolution
+     */
+    public void cacheLookup(String cache, boolean hit) {
+        counter(cache + (hit ? ".hits" : ".misses")).inc();
+    }
+
+    /**
+     * @return all metrics by name.
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        return new TreeMap<String, Object>(metrics);
+    }
+
+    private synchronized <T> T metric(String name, Class<T> type) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            try {
+                metric = type.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            metrics.put(name, metric);
+            register(name, metric);
+        } else if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    private void register(String name, Object metric) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + metric.getClass().getSimpleName() +
+                    ",name=" + name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            log.warn("Could not publish metric " + name, e);
+        }
+    }
+
+    @Override
+    public void initComponent() {
+    }
+
+    @Override
+    public synchronized void disposeComponent() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.debug(e);
+            }
+        }
+        registered.clear();
+    }
+
+    @NotNull
+    @Override
+    public String getComponentName() {
+        return "leiningen.metrics";
+    }
+}
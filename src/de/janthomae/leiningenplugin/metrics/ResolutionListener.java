@@ -0,0 +1,65 @@
+package de.janthomae.leiningenplugin.metrics;
+
+/**
+ * Receives the progress of a dependency resolution from the Clojure side, which attaches it as transfer listener to the
+ * Aether session of that resolution only. Methods may be called from Aether's download threads.
+ */
+public interface ResolutionListener {
+    /**
+     * A batch resolution moves on to the next project. Everything reported until the next call belongs to it.
+     *
+     * @param path the project file path
+     */
+    void projectStarted(String path);
+
+    /**
+     * @param cache the cache which was consulted, eg. {@link MetricsRegistry#INDEX}
+     * @param hit   true if the cache had the resolution
+     */
+    void cacheLookup(String cache, boolean hit);
+
+    /**
+     * An artifact was resolved. Reported once a resolution is done, followed by {@link #artifactResolved}.
+     *
+     * @param artifact the artifact coordinate
+     */
+    void artifactResolving(String artifact);
+
+    /**
+     * @param artifact the artifact coordinate
+     * @param found    false if the artifact could not be resolved
+     */
+    void artifactResolved(String artifact, boolean found);
+
+    /**
+     * @param resource   the path of the file being downloaded, relative to the repository
+     * @param repository the repository URL
+     */
+    void transferStarted(String resource, String repository);
+
+    /**
+     * @param resource   the path of the file being downloaded, relative to the repository
+     * @param repository the repository URL
+     * @param bytes      the number of bytes received since the last call
+     */
+    void transferProgressed(String resource, String repository, long bytes);
+
+    /**
+     * @param resource   the path of the file being downloaded, relative to the repository
+     * @param repository the repository URL
+     * @param bytes      the size of the file
+     * @param millis     how long the download took
+     */
+    void transferSucceeded(String resource, String repository, long bytes, long millis);
+
+    /**
+     * @param resource   the path of the file being downloaded, relative to the repository
+     * @param repository the repository URL
+     */
+    void transferFailed(String resource, String repository);
+
+    /**
+     * @return true if the resolution should be abandoned. Running downloads are cancelled with the next event.
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,95 @@
+package de.janthomae.leiningenplugin.metrics;
+
+/**
+ * Measures how long an operation takes:
+ * <pre>
+ * Timer.Context context = timer.time();
+ * try {
+ *     ...
+ * } finally {
+ *     context.stop();
+ * }
+ * </pre>
+ */
+public class Timer implements TimerMBean {
+    private final Histogram durations = new Histogram();
+    private long total;
+
+    public Context time() {
+        return new Context();
+    }
+
+    /**
+     * Records a duration which was measured elsewhere.
+     *
+     * @param millis the duration in milliseconds
+     */
+    public void update(long millis) {
+        durations.update(millis);
+        synchronized (this) {
+            total += millis;
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return durations.getCount();
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return total;
+    }
+
+    @Override
+    public long getMinMillis() {
+        return durations.getMin();
+    }
+
+    @Override
+    public long getMaxMillis() {
+        return durations.getMax();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return durations.getMean();
+    }
+
+    @Override
+    public long get50thPercentileMillis() {
+        return durations.get50thPercentile();
+    }
+
+    @Override
+    public long get95thPercentileMillis() {
+        return durations.get95thPercentile();
+    }
+
+    @Override
+    public long get99thPercentileMillis() {
+        return durations.get99thPercentile();
+    }
+
+    /**
+     * A running measurement.
+     */
+    public class Context {
+        private final long start = System.nanoTime();
+        private boolean stopped;
+
+        /**
+         * Ends the measurement. Only the first call counts.
+         *
+         * @return the elapsed time in milliseconds
+         */
+        public long stop() {
+            long millis = (System.nanoTime() - start) / 1000000;
+            if (!stopped) {
+                stopped = true;
+                update(millis);
+            }
+            return millis;
+        }
+    }
+}
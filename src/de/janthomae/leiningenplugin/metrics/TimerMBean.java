@@ -0,0 +1,22 @@
+package de.janthomae.leiningenplugin.metrics;
+
+/**
+ * JMX view of a {@link Timer}, all durations in milliseconds.
+ */
+public interface TimerMBean {
+    long getCount();
+
+    long getTotalMillis();
+
+    long getMinMillis();
+
+    long getMaxMillis();
+
+    double getMeanMillis();
+
+    long get50thPercentileMillis();
+
+    long get95thPercentileMillis();
+
+    long get99thPercentileMillis();
+}
@@ -1,10 +1,10 @@
 package de.janthomae.leiningenplugin.module;
 
-import clojure.lang.LazySeq;
 import com.intellij.ide.highlighter.ModuleFileType;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.*;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.ModifiableModuleModel;
@@ -12,24 +12,42 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.StdModuleTypes;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.roots.*;
 import com.intellij.openapi.roots.ex.ProjectRootManagerEx;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.roots.libraries.LibraryTable;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.*;
+import de.janthomae.leiningenplugin.metrics.FlightRecorder;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import de.janthomae.leiningenplugin.metrics.Timer;
+import de.janthomae.leiningenplugin.module.model.DependencyModel;
+import de.janthomae.leiningenplugin.module.model.ExcludedFolders;
+import de.janthomae.leiningenplugin.module.model.LibraryDiff;
+import de.janthomae.leiningenplugin.module.model.SiblingIndex;
 import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectException;
 import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
 import de.janthomae.leiningenplugin.utils.ClassPathUtils;
-import de.janthomae.leiningenplugin.utils.Interop;
+import de.janthomae.leiningenplugin.utils.ResolutionOptions;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created with IntelliJ IDEA.
@@ -42,15 +60,17 @@ import java.util.Map;
 public class ModuleCreationUtils {
     public static final Logger log = Logger.getInstance(ModuleCreationUtils.class);
 
-    public final static String LEIN_COMPILE_PATH = "compile-path";
-    public final static String LEIN_RESOURCE_PATHS = "resource-paths";
-    public final static String LEIN_SOURCE_PATHS = "source-paths";
-    public final static String LEIN_JAVA_SOURCE_PATHS = "java-source-paths";
-    public final static String LEIN_TEST_PATHS = "test-paths";
+    public final static String LEIN_COMPILE_PATH = DependencyModel.COMPILE_PATH;
+    public final static String LEIN_TARGET_PATH = DependencyModel.TARGET_PATH;
+    public final static String LEIN_RESOURCE_PATHS = DependencyModel.RESOURCE_PATHS;
+    public final static String LEIN_SOURCE_PATHS = DependencyModel.SOURCE_PATHS;
+    public final static String LEIN_JAVA_SOURCE_PATHS = DependencyModel.JAVA_SOURCE_PATHS;
+    public final static String LEIN_TEST_PATHS = DependencyModel.TEST_PATHS;
     public final static String LEIN_PROJECT_NAME = "name";
     public final static String LEIN_PROJECT_VERSION = "version";
     public final static String LEIN_PROJECT_GROUP = "group";
-    public static final String LEIN_LIB_PREFIX = "Leiningen: ";
+    public final static String LEIN_PROFILES = "profiles";
+    public static final String LEIN_LIB_PREFIX = DependencyModel.LIBRARY_PREFIX;
     public static final String MAVEN_LIB_PREFIX = "Maven: ";
 
     /**
@@ -69,15 +89,7 @@ public class ModuleCreationUtils {
      * @return A list of paths to folders of type.
      */
     public List<String> getPaths(String type, Map leinProjectMap) {
-        LazySeq pathStrings = ((LazySeq) leinProjectMap.get(type));
-        List<String> results = new ArrayList<String>();
-        if (pathStrings != null) {
-            for (Object obj : pathStrings) {
-                String path = (String) obj;
-                results.add(path);
-            }
-        }
-        return results;
+        return DependencyModel.getPaths(type, leinProjectMap);
     }
 
     /**
@@ -278,13 +290,38 @@ public class ModuleCreationUtils {
 
 
     /**
-     * Initialize the source, resources, test, and compile paths on module.
+     * Excludes build output and Leiningen's working folders from the content entry, so that they are not indexed.
+     * Folders which are already excluded, including the ones the user excluded, are left alone.
+     * <p/>
+     * SIDE-EFFECT: Will modify contentEntry
+     *
+     * @param contentEntry    The contentEntry to be updated
+     * @param excludedFolders The paths of the folders to exclude, relative to the content root, see
+     *                        {@link ExcludedFolders}
+     */
+    public void addExcludedFolders(ContentEntry contentEntry, List<String> excludedFolders) {
+        Set<String> existing = new HashSet<String>();
+        for (ExcludeFolder folder : contentEntry.getExcludeFolders()) {
+            existing.add(folder.getUrl());
+        }
+        for (String path : excludedFolders) {
+            String url = contentEntry.getUrl() + "/" + path;
+            if (existing.add(url)) {
+                contentEntry.addExcludeFolder(url);
+            }
+        }
+    }
+
+    /**
+     * Initialize the source, resources, test, compile and excluded paths on module.
      *
-     * @param projectMap  The leiningen project map.
-     * @param module      The module to update
-     * @param contentRoot The virtual file pointing to the leiningen project root directory. (Usually where the project.clj file is)
+     * @param projectMap      The leiningen project map.
+     * @param module          The module to update
+     * @param contentRoot     The virtual file pointing to the leiningen project root directory. (Usually where the project.clj file is)
+     * @param excludedFolders The paths of the folders to exclude from the module, relative to contentRoot.
      */
-    public void initializeModulePaths(Map projectMap, ModifiableRootModel module, VirtualFile contentRoot) {
+    public void initializeModulePaths(Map projectMap, ModifiableRootModel module, VirtualFile contentRoot,
+                                      List<String> excludedFolders) {
         //Set up the paths
         module.inheritSdk();
         final ContentEntry contentEntry = module.addContentEntry(contentRoot);
@@ -296,6 +333,9 @@ public class ModuleCreationUtils {
         //Add the source and resource paths to the module
         updateSourceAndResourcesPaths(contentEntry, projectMap);
 
+        //Keep build output out of the index
+        addExcludedFolders(contentEntry, excludedFolders);
+
         //Handle the compile path (output)
         CompilerModuleExtension compilerExtension = module.getModuleExtension(CompilerModuleExtension.class);
         updateCompilePath(compilerExtension, projectMap);
@@ -313,7 +353,27 @@ public class ModuleCreationUtils {
      */
     private List<LibraryInfo> initializeDependencies(Project project, Module module, ModifiableRootModel moduleRootModel, LibraryTable.ModifiableModel projectLibraries, List dependencyMaps) {
 
-        tidyDependencies(project, module, moduleRootModel, projectLibraries, true);
+        //Libraries the module keeps stay in the project table, so that they are not deleted and created again
+        LibraryDiff diff = LibraryDiff.compute(leiningenLibraryNames(moduleRootModel.getOrderEntries()),
+                DependencyModel.libraryNames(dependencyMaps));
+        log.debug("Libraries of " + module.getName() + ": " + diff);
+        tidyDependencies(project, module, moduleRootModel, projectLibraries, true, diff.getRetained());
+
+        //Sibling projects come first, so that navigation ends up in their sources rather than in a jar
+        Map<String, LeiningenProject> siblings = new HashMap<String, LeiningenProject>();
+        for (LeiningenProject sibling : LeiningenProjectsManager.getInstance(project).getLeiningenProjects()) {
+            siblings.put(sibling.getResolutionPath(), sibling);
+        }
+        List<String> moduleDependencies = new ArrayList<String>();
+        for (Object obj : dependencyMaps) {
+            Map dependency = (Map) obj;
+            if (DependencyModel.isModule(dependency)) {
+                moduleDependencies.add(addModuleDependency(project, moduleRootModel,
+                        siblings.get(dependency.get(DependencyModel.MODULE)), dependency));
+            }
+        }
+        module.setOption(LeiningenProjectsManager.LEIN_MODULE_DEPENDENCIES_PROPERTY_NAME,
+                StringUtil.join(moduleDependencies, ","));
 
         //Add the dependencies to the projects's library table - this is how maven does it - but we could put the libraries directly on the module - but maybe it's better if we share a lot of libraries between modules.
         List<LibraryInfo> libraries = createLibraries(projectLibraries, dependencyMaps);
@@ -325,6 +385,101 @@ public class ModuleCreationUtils {
         return libraries;
     }
 
+    /**
+     * Adds a dependency on the module of a sibling project. If the sibling's module does not exist yet, eg. because it
+     * is imported later in the same batch, the dependency is added by name and becomes valid once the module exists.
+     *
+     * @return the name of the module depended on
+     */
+    private String addModuleDependency(Project project, ModifiableRootModel moduleRootModel, LeiningenProject sibling,
+                                     Map dependency) {
+        Module siblingModule = sibling != null ? findModule(project, sibling.getVirtualFile()) : null;
+        ModuleOrderEntry entry;
+        if (siblingModule != null) {
+            entry = moduleRootModel.addModuleOrderEntry(siblingModule);
+        } else {
+            String name = sibling != null ? sibling.getName() : (String) dependency.get("artifactid");
+            entry = moduleRootModel.addInvalidModuleEntry(FileUtil.sanitizeFileName(name));
+        }
+        entry.setScope(DependencyScope.valueOf(DependencyModel.scope(dependency).name()));
+        return entry.getModuleName();
+    }
+
+    /**
+     * Marks the dependencies on other managed projects as module dependencies, and adds the managed projects linked
+     * from the project's checkouts directory. The resolution already marks the siblings a project depends on directly;
+     * this finds the ones which come in through a jar, by coordinate.
+     *
+     * @param ideaProject    The IDEA project
+     * @param leinProject    The project being imported
+     * @param dependencyMaps The resolved dependencies
+     * @return the dependencies, with {@link DependencyModel#MODULE} set on the ones on sibling projects
+     */
+    private List linkSiblings(Project ideaProject, LeiningenProject leinProject, List dependencyMaps) {
+        LeiningenProjectsManager manager = LeiningenProjectsManager.getInstance(ideaProject);
+        SiblingIndex siblings = manager.getSiblingIndex();
+        String ownPath = leinProject.getResolutionPath();
+        List<Map> result = new ArrayList<Map>();
+        Set<String> modules = new HashSet<String>();
+        for (Object obj : dependencyMaps) {
+            Map dependency = (Map) obj;
+            String sibling = DependencyModel.isModule(dependency)
+                    ? (String) dependency.get(DependencyModel.MODULE)
+                    : siblings.find(dependency);
+            if (sibling == null) {
+                result.add(dependency);
+            } else if (!sibling.equals(ownPath) && modules.add(sibling)) {
+                Map<Object, Object> moduleDependency = new HashMap<Object, Object>(dependency);
+                moduleDependency.put(DependencyModel.MODULE, sibling);
+                result.add(moduleDependency);
+            }
+        }
+
+        for (LeiningenProject checkout : findCheckouts(manager, leinProject)) {
+            String path = checkout.getResolutionPath();
+            if (!path.equals(ownPath) && modules.add(path)) {
+                Map<String, Object> moduleDependency = new HashMap<String, Object>();
+                moduleDependency.put("groupid", checkout.getGroup());
+                moduleDependency.put("artifactid", checkout.getName());
+                moduleDependency.put("version", checkout.getVersion());
+                moduleDependency.put("scope", "compile");
+                moduleDependency.put(DependencyModel.MODULE, path);
+                result.add(moduleDependency);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the managed projects linked from the checkouts directory of leinProject.
+     */
+    private static List<LeiningenProject> findCheckouts(LeiningenProjectsManager manager, LeiningenProject leinProject) {
+        List<LeiningenProject> result = new ArrayList<LeiningenProject>();
+        File[] links = new File(new File(leinProject.getResolutionPath()).getParentFile(), "checkouts").listFiles();
+        if (links == null) {
+            return result;
+        }
+        Map<File, LeiningenProject> byDirectory = new HashMap<File, LeiningenProject>();
+        for (LeiningenProject project : manager.getLeiningenProjects()) {
+            byDirectory.put(canonicalFile(new File(project.getResolutionPath()).getParentFile()), project);
+        }
+        for (File link : links) {
+            LeiningenProject checkout = byDirectory.get(canonicalFile(link));
+            if (checkout != null) {
+                result.add(checkout);
+            }
+        }
+        return result;
+    }
+
+    private static File canonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
     public static void tidyDependencies(Project project, VirtualFile projectFile, boolean deleteMavenLibs) {
         Module module = findModule(project, projectFile);
         if (module != null) {
@@ -347,7 +502,26 @@ public class ModuleCreationUtils {
                                         ModifiableRootModel moduleRootModel,
                                         LibraryTable.ModifiableModel projectLibraries,
                                         boolean deleteMavenLibs) {
+        tidyDependencies(project, module, moduleRootModel, projectLibraries, deleteMavenLibs,
+                Collections.<String>emptySet());
+    }
+
+    /**
+     * Removes the Leiningen libraries from the module, and from the project if no other module uses them.
+     *
+     * @param retainedLibraries names of libraries which the module is about to add again, they are left in the project
+     */
+    public static void tidyDependencies(Project project,
+                                        Module module,
+                                        ModifiableRootModel moduleRootModel,
+                                        LibraryTable.ModifiableModel projectLibraries,
+                                        boolean deleteMavenLibs,
+                                        Set<String> retainedLibraries) {
         Module[] allModules = ModuleManager.getInstance(project).getModules();
+        String imported = module.getOptionValue(LeiningenProjectsManager.LEIN_MODULE_DEPENDENCIES_PROPERTY_NAME);
+        Set<String> importedModules = imported != null
+                ? new HashSet<String>(StringUtil.split(imported, ","))
+                : null;
 
         //Reset the module's library order entries here - this actually happens in org.jetbrains.idea.maven.importing.MavenRootModelAdapter.initOrderEntries()
         for (OrderEntry orderEntry : moduleRootModel.getOrderEntries()) {
@@ -355,8 +529,9 @@ public class ModuleCreationUtils {
                 //Remove any unused library from the project list
                 Library library = ((LibraryOrderEntry) orderEntry).getLibrary();
                 if (isLeiningenLibrary(library)) {
-                    boolean keep = false;
-                    for (Module each : allModules) {
+                    boolean keep = retainedLibraries.contains(library.getName());
+                    for (int i = 0; !keep && i < allModules.length; i++) {
+                        Module each = allModules[i];
                         if (!isSameModule(module, each) && moduleLibraries(each).contains(library)) {
                             keep = true;
                         }
@@ -372,8 +547,32 @@ public class ModuleCreationUtils {
                     // Remove any invalid ones too (probably old Maven entries)
                     moduleRootModel.removeOrderEntry(orderEntry);
                 }
+            } else if (orderEntry instanceof ModuleOrderEntry) {
+                // Dependencies on sibling projects are added again by the import, like the libraries. The ones added by
+                // hand stay; modules imported before the import recorded its dependencies get the old guess.
+                ModuleOrderEntry moduleEntry = (ModuleOrderEntry) orderEntry;
+                Module dependency = moduleEntry.getModule();
+                boolean byImport = importedModules != null
+                        ? importedModules.contains(moduleEntry.getModuleName())
+                        : dependency == null || isLeiningenModule(dependency);
+                if (byImport) {
+                    moduleRootModel.removeOrderEntry(orderEntry);
+                }
+            }
+        }
+    }
+
+    private static Set<String> leiningenLibraryNames(OrderEntry[] orderEntries) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (OrderEntry orderEntry : orderEntries) {
+            if (orderEntry instanceof LibraryOrderEntry) {
+                Library library = ((LibraryOrderEntry) orderEntry).getLibrary();
+                if (isLeiningenLibrary(library)) {
+                    names.add(library.getName());
+                }
             }
         }
+        return names;
     }
 
     private static boolean isSameModule(Module module, Module each) {
@@ -417,50 +616,123 @@ public class ModuleCreationUtils {
      *
      * @param ideaProject The IDEA project to add the leiningen module to.
      * @param leinProject  The leiningen project
+     * @throws LeiningenProjectException if the dependencies could not be resolved
      */
-    public void importModule(Project ideaProject, LeiningenProject leinProject) {
+    public void importModule(Project ideaProject, LeiningenProject leinProject) throws LeiningenProjectException {
+        importModule(ideaProject, leinProject, null, false);
+    }
+
+    /**
+     * Same as {@link #importModule(Project, LeiningenProject)}, but with the dependencies already resolved, eg. by a
+     * batch resolution of several projects.
+     *
+     * @param ideaProject    The IDEA project to add the leiningen module to.
+     * @param leinProject    The leiningen project
+     * @param dependencyMaps The resolved dependencies of the project, or null to resolve them here.
+     * @param force          Build the module even if nothing it is built from changed since the last import.
+     * @throws LeiningenProjectException if the dependencies could not be resolved
+     */
+    public void importModule(Project ideaProject, LeiningenProject leinProject, List dependencyMaps, boolean force)
+            throws LeiningenProjectException {
 
         ClassPathUtils.getInstance().switchToPluginClassLoader();
         Map projectMap = leinProject.getProjectMap();
         String name = (String) projectMap.get(LEIN_PROJECT_NAME);
 
-        final ModifiableModuleModel moduleManager = createModuleManager(ideaProject);
-        final Module module = createModule(ideaProject, moduleManager, leinProject.getVirtualFile(), name);
-        final ModifiableRootModel moduleRootModel = getRootModel(module);
-        initializeModulePaths(projectMap, moduleRootModel, leinProject.getVirtualFile().getParent());
+        //Load all the dependencies from the project file, unless the caller already did. This happens before any model
+        //is touched, so that a failed or cancelled resolution leaves nothing behind.
+        if (dependencyMaps == null) {
+            dependencyMaps = leinProject.resolveDependencies(
+                    LeiningenProjectsManager.getInstance(ideaProject).withSiblings(ResolutionOptions.fromSettings()));
+        }
+        dependencyMaps = linkSiblings(ideaProject, leinProject, dependencyMaps);
+
+        //Nothing to do if the module was built from the same paths and dependencies and still has its libraries,
+        //unless the import is forced
+        final List<String> excludedFolders = ExcludedFolders.compute(
+                new File(leinProject.getVirtualFile().getParent().getPath()), projectMap,
+                LeiningenRunnerSettings.getInstance().getExcludedFolderPatterns());
+        final Sdk sdk = ProjectRootManagerEx.getInstanceEx(ideaProject).getProjectSdk();
+        final String fingerprint = DependencyModel.fingerprint(name, sdk != null ? sdk.getName() : null, projectMap,
+                dependencyMaps, excludedFolders);
+        Module existing = findModule(ideaProject, leinProject.getVirtualFile());
+        if (existing != null && DependencyModel.isUpToDate(force, fingerprint, leinProject.getImportFingerprint(),
+                leiningenLibraryNames(ModuleRootManager.getInstance(existing).getOrderEntries()), dependencyMaps)) {
+            log.debug("Module of " + leinProject.getResolutionPath() + " is up to date");
+            return;
+        }
 
-        ProjectRootManagerEx rootManager = ProjectRootManagerEx.getInstanceEx(ideaProject);
-        moduleRootModel.setSdk(rootManager.getProjectSdk());
+        ImportMetrics.phase(ImportMetrics.PHASE_BUILD, leinProject.getResolutionPath());
+        final MetricsRegistry metrics = MetricsRegistry.getInstance();
+        Timer.Context commitTimer = metrics.timer(MetricsRegistry.MODEL_COMMIT).time();
+        final ModifiableModuleModel moduleManager = createModuleManager(ideaProject);
+        ModifiableRootModel rootModel = null;
+        LibraryTable.ModifiableModel libraryModel = null;
+        List<LibraryInfo> libraryModels = Collections.emptyList();
+        boolean committed = false;
+        try {
+            final Module module = createModule(ideaProject, moduleManager, leinProject.getVirtualFile(), name);
+            final ModifiableRootModel moduleRootModel = getRootModel(module);
+            rootModel = moduleRootModel;
+            initializeModulePaths(projectMap, moduleRootModel, leinProject.getVirtualFile().getParent(), excludedFolders);
 
-        //Setup the dependencies
-        // Based loosely on org.jetbrains.idea.maven.importing.MavenRootModelAdapter#addLibraryDependency
+            moduleRootModel.setSdk(sdk);
 
-        //We could use the module table here, but then the libraries wouldn't be shared across modules.
-        final LibraryTable.ModifiableModel libraryTable = ProjectLibraryTable.getInstance(ideaProject).getModifiableModel();
+            //Setup the dependencies
+            // Based loosely on org.jetbrains.idea.maven.importing.MavenRootModelAdapter#addLibraryDependency
 
-        //Load all the dependencies from the project file
-        List dependencyMaps = Interop.loadDependencies(leinProject.getVirtualFile().getCanonicalPath());
-        final List<LibraryInfo> dependencies =
-                initializeDependencies(ideaProject, module, moduleRootModel, libraryTable, dependencyMaps);
+            //We could use the module table here, but then the libraries wouldn't be shared across modules.
+            final LibraryTable.ModifiableModel libraryTable = ProjectLibraryTable.getInstance(ideaProject).getModifiableModel();
+            libraryModel = libraryTable;
 
-        new WriteAction() {
-            @Override
-            protected void run(Result result) throws Throwable {
+            final List<LibraryInfo> dependencies =
+                    initializeDependencies(ideaProject, module, moduleRootModel, libraryTable, dependencyMaps);
+            libraryModels = dependencies;
 
-                for (LibraryInfo library : dependencies) {
-                    library.modifiableModel.commit();
-                }
+            final String path = leinProject.getResolutionPath();
+            ImportMetrics.phase(ImportMetrics.PHASE_COMMIT, path);
+            new WriteAction() {
+                @Override
+                protected void run(Result result) throws Throwable {
+                    Timer.Context lockTimer = metrics.timer(MetricsRegistry.WRITE_LOCK).time();
+                    FlightRecorder.Event event = FlightRecorder.WRITE_ACTION.begin();
+                    try {
+                        for (LibraryInfo library : dependencies) {
+                            library.modifiableModel.commit();
+                        }
 
-                //Save the project libraries
-                libraryTable.commit();
+                        //Save the project libraries
+                        libraryTable.commit();
 
-                //Save the module itself to the module file.
-                moduleRootModel.commit();
+                        //Save the module itself to the module file.
+                        moduleRootModel.commit();
 
-                //Save the list of modules that are in this project to the IDEA project file
-                moduleManager.commit();
+                        //Save the list of modules that are in this project to the IDEA project file
+                        moduleManager.commit();
+                    } finally {
+                        lockTimer.stop();
+                        event.set("project", path).set("libraries", dependencies.size()).commit();
+                    }
+                }
+            }.execute();
+            committed = true;
+            leinProject.setImportFingerprint(fingerprint);
+        } finally {
+            commitTimer.stop();
+            if (!committed) {
+                //Don't leave a half configured module behind, eg. after the import was cancelled
+                for (LibraryInfo library : libraryModels) {
+                    Disposer.dispose(library.modifiableModel);
+                }
+                if (libraryModel instanceof Disposable) {
+                    Disposer.dispose((Disposable) libraryModel);
+                }
+                if (rootModel != null) {
+                    rootModel.dispose();
+                }
+                moduleManager.dispose();
             }
-        }.execute();
+        }
     }
 
     /**
@@ -477,14 +749,11 @@ public class ModuleCreationUtils {
         List<LibraryInfo> result = new ArrayList<LibraryInfo>();
         for (Object obj : dependencyMaps) {
             Map dependency = (Map) obj;
+            if (DependencyModel.isModule(dependency)) {
+                continue;
+            }
             //Check if the library already exists
-            Object groupId = dependency.get("groupid");
-            Object artifactId = dependency.get("artifactid");
-            Object version = dependency.get("version");
-            String libraryName = LEIN_LIB_PREFIX +
-                    (!groupId.equals(artifactId) ? groupId + "/" : "")  +
-                    artifactId + ":" +
-                    version;
+            String libraryName = DependencyModel.libraryName(dependency);
             Library library = libraryTable.getLibraryByName(libraryName);
             if (library == null) {
                 library = libraryTable.createLibrary(libraryName);
@@ -504,7 +773,7 @@ public class ModuleCreationUtils {
             String url = VirtualFileManager.constructUrl(JarFileSystem.PROTOCOL, path) + JarFileSystem.JAR_SEPARATOR;
             libraryModel.addRoot(url, OrderRootType.CLASSES);
 
-            DependencyScope scope = determineScope((String) dependency.get("scope"));
+            DependencyScope scope = DependencyScope.valueOf(DependencyModel.scope(dependency).name());
             LibraryInfo libraryInfo = new LibraryInfo();
             libraryInfo.library = library;
             libraryInfo.modifiableModel = libraryModel;
@@ -514,35 +783,6 @@ public class ModuleCreationUtils {
         return result;
     }
 
-    /**
-     * Do a check to determine the proper scope.
-     *
-     * @param s The string scope.
-     * @return A DependencyScope object
-     */
-    private DependencyScope determineScope(String s) {
-
-        //Issue 35: If the scope that is on the dependency doesn't match one of the DependencyScope types, then default to compile scope.
-        DependencyScope scope = DependencyScope.COMPILE;
-
-        if (s.equalsIgnoreCase("compile")) {
-            scope = DependencyScope.COMPILE;
-        }
-
-        if (s.equalsIgnoreCase("test")) {
-            scope = DependencyScope.TEST;
-        }
-
-        if (s.equalsIgnoreCase("runtime")) {
-            scope = DependencyScope.RUNTIME;
-        }
-
-        if (s.equalsIgnoreCase("provided")) {
-            scope = DependencyScope.PROVIDED;
-        }
-        return scope;
-    }
-
     private static class LibraryInfo {
         public Library library;
         public Library.ModifiableModel modifiableModel;
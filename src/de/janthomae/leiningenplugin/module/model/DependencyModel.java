@@ -0,0 +1,172 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parts of building a module from a project map and its resolved dependencies which do not need IDEA: path lists,
+ * library names and scopes, and a fingerprint of everything the module is built from. Kept free of IDEA classes so that
+ * they can be benchmarked on their own, see the benchmarks directory.
+ */
+public class DependencyModel {
+    public static final String LIBRARY_PREFIX = "Leiningen: ";
+
+    public static final String COMPILE_PATH = "compile-path";
+    public static final String TARGET_PATH = "target-path";
+    public static final String RESOURCE_PATHS = "resource-paths";
+    public static final String SOURCE_PATHS = "source-paths";
+    public static final String JAVA_SOURCE_PATHS = "java-source-paths";
+    public static final String TEST_PATHS = "test-paths";
+
+    /**
+     * The key under which a dependency on a sibling project carries that project's file path. Such a dependency becomes
+     * a module dependency, not a library.
+     */
+    public static final String MODULE = "module";
+
+    private static final String[] PATH_TYPES = {RESOURCE_PATHS, SOURCE_PATHS, JAVA_SOURCE_PATHS, TEST_PATHS};
+
+    private DependencyModel() {
+    }
+
+    /**
+     * @param type       the key of the paths in the project map, eg. "source-paths"
+     * @param projectMap the project map
+     * @return the paths, empty if the project map has none of this type
+     */
+    public static List<String> getPaths(String type, Map projectMap) {
+        Object paths = projectMap.get(type);
+        List<String> results = new ArrayList<String>();
+        if (paths instanceof Iterable) {
+            for (Object obj : (Iterable) paths) {
+                results.add((String) obj);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The name of the project library for a dependency, eg. "Leiningen: org.clojure/clojure:1.5.1". The group is left
+     * out if it is the same as the artifact id, as Leiningen does.
+     *
+     * @param dependency a dependency map as returned by the dependency resolution
+     * @return the library name
+     */
+    public static String libraryName(Map dependency) {
+        Object groupId = dependency.get("groupid");
+        Object artifactId = dependency.get("artifactid");
+        Object version = dependency.get("version");
+        StringBuilder name = new StringBuilder(LIBRARY_PREFIX);
+        if (!groupId.equals(artifactId)) {
+            name.append(groupId).append('/');
+        }
+        return name.append(artifactId).append(':').append(version).toString();
+    }
+
+    /**
+     * @param dependencyMaps the resolved dependencies
+     * @return the library names of the dependencies which are not on sibling projects, in order
+     */
+    public static Set<String> libraryNames(List dependencyMaps) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Object dependency : dependencyMaps) {
+            if (!isModule((Map) dependency)) {
+                names.add(libraryName((Map) dependency));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param dependency a dependency map
+     * @return true if the dependency is on a sibling project, see {@link #MODULE}
+     */
+    public static boolean isModule(Map dependency) {
+        return dependency.get(MODULE) != null;
+    }
+
+    /**
+     * @param dependency a dependency map as returned by the dependency resolution
+     * @return the scope of the dependency
+     */
+    public static LibraryScope scope(Map dependency) {
+        return LibraryScope.of((String) dependency.get("scope"));
+    }
+
+    /**
+     * A digest of everything the module of a project is built from: its name and SDK, its paths, its excluded folders
+     * and its dependencies with their scopes and files. If it did not change since the last import, the module does not
+     * need to be built again.
+     *
+     * @param moduleName      the name of the module
+     * @param sdkName         the name of the SDK the module gets, or null if there is none
+     * @param projectMap      the project map
+     * @param dependencyMaps  the resolved dependencies
+     * @param excludedFolders the folders excluded from the module, see {@link ExcludedFolders}
+     * @return the fingerprint as hex string
+     */
+    public static String fingerprint(String moduleName, String sdkName, Map projectMap, List dependencyMaps,
+                                     Collection<String> excludedFolders) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(moduleName).append('\t').append(sdkName).append('\n');
+        sb.append(projectMap.get(COMPILE_PATH)).append('\n');
+        for (String folder : excludedFolders) {
+            sb.append(folder).append('\t');
+        }
+        sb.append('\n');
+        for (String type : PATH_TYPES) {
+            sb.append(type);
+            for (String path : getPaths(type, projectMap)) {
+                sb.append('\t').append(path);
+            }
+            sb.append('\n');
+        }
+        for (Object obj : dependencyMaps) {
+            Map dependency = (Map) obj;
+            File file = (File) dependency.get("file");
+            sb.append(libraryName(dependency)).append('\t').append(scope(dependency)).append('\t')
+                    .append(file != null ? file.getAbsolutePath() : dependency.get(MODULE)).append('\n');
+        }
+        return digest(sb.toString());
+    }
+
+    /**
+     * Whether an import can leave a module as the last import built it. A forced import, eg. an explicit refresh,
+     * always builds the module again, so that changes made by hand to its folders or module dependencies are repaired.
+     *
+     * @param force               whether the import is forced
+     * @param fingerprint         the fingerprint of this import, see {@link #fingerprint}
+     * @param importedFingerprint the fingerprint of the last import, null if there was none
+     * @param currentLibraries    the names of the Leiningen libraries the module has now
+     * @param dependencyMaps      the resolved dependencies
+     * @return true if the module is up to date
+     */
+    public static boolean isUpToDate(boolean force, String fingerprint, String importedFingerprint,
+                                     Collection<String> currentLibraries, List dependencyMaps) {
+        return !force && fingerprint.equals(importedFingerprint) &&
+                LibraryDiff.compute(currentLibraries, libraryNames(dependencyMaps)).isEmpty();
+    }
+
+    private static String digest(String text) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
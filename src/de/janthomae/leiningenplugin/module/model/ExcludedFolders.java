@@ -0,0 +1,187 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The folders of a project which hold build output or Leiningen's working files and are excluded from its module, so
+ * that they are not indexed: the :target-path and :compile-path of the project, its .lein-* directories, the target
+ * directories of its checkouts, and whatever matches the extra patterns from the settings.
+ * <p/>
+ * Patterns are relative to the project directory and use / as separator; * and ? match within a single folder name.
+ * A pattern without wildcards is excluded even if the folder does not exist yet, a pattern with wildcards only matches
+ * existing folders. Folders outside of the project, and folders containing source, resource or test paths, are never
+ * excluded.
+ * <p/>
+ * Paths are compared as written, relative to the project directory, and only canonicalised if a path from the project
+ * map does not lie below the project directory as written: a checkout is usually a symlink to a project elsewhere,
+ * and the project directory itself may be reached through a symlink.
+ */
+public class ExcludedFolders {
+    public static final List<String> DEFAULT_PATTERNS = Collections.unmodifiableList(
+            Arrays.asList(".lein-*", "checkouts/*/target", "target/stale"));
+
+    private static final String[] SOURCE_TYPES = {DependencyModel.RESOURCE_PATHS, DependencyModel.SOURCE_PATHS,
+            DependencyModel.JAVA_SOURCE_PATHS, DependencyModel.TEST_PATHS};
+
+    private ExcludedFolders() {
+    }
+
+    /**
+     * @param projectDir    the project directory
+     * @param projectMap    the project map
+     * @param extraPatterns patterns to exclude in addition to the defaults
+     * @return the paths of the folders to exclude, relative to the project directory and separated by /
+     */
+    public static List<String> compute(File projectDir, Map projectMap, List<String> extraPatterns) {
+        List<String> sources = new ArrayList<String>();
+        for (String type : SOURCE_TYPES) {
+            for (String path : DependencyModel.getPaths(type, projectMap)) {
+                String source = relativePath(projectDir, resolve(projectDir, path));
+                if (source != null) {
+                    sources.add(source);
+                }
+            }
+        }
+
+        Set<String> result = new LinkedHashSet<String>();
+        for (String key : new String[]{DependencyModel.TARGET_PATH, DependencyModel.COMPILE_PATH}) {
+            Object path = projectMap.get(key);
+            if (path instanceof String) {
+                addIfSafe(result, resolve(projectDir, (String) path), projectDir, sources);
+            }
+        }
+        List<String> patterns = new ArrayList<String>(DEFAULT_PATTERNS);
+        patterns.addAll(extraPatterns);
+        for (String pattern : patterns) {
+            for (File folder : matches(projectDir, pattern)) {
+                addIfSafe(result, folder, projectDir, sources);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    private static void addIfSafe(Set<String> result, File folder, File projectDir, List<String> sources) {
+        if (folder.isFile()) {
+            return;
+        }
+        String path = relativePath(projectDir, folder);
+        if (path == null || path.length() == 0) {
+            return;
+        }
+        for (String source : sources) {
+            if (source.equals(path) || isAncestor(path, source)) {
+                return;
+            }
+        }
+        result.add(path);
+    }
+
+    private static List<File> matches(File projectDir, String pattern) {
+        List<File> current = Collections.singletonList(projectDir);
+        for (String segment : pattern.trim().replace('\\', '/').split("/")) {
+            if (segment.length() == 0 || segment.equals(".")) {
+                continue;
+            }
+            List<File> next = new ArrayList<File>();
+            if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+                Pattern regex = toRegex(segment);
+                for (File parent : current) {
+                    File[] children = parent.listFiles();
+                    if (children != null) {
+                        for (File child : children) {
+                            if (child.isDirectory() && regex.matcher(child.getName()).matches()) {
+                                next.add(child);
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (File parent : current) {
+                    next.add(new File(parent, segment));
+                }
+            }
+            current = next;
+        }
+        return current.size() == 1 && current.get(0) == projectDir ? Collections.<File>emptyList() : current;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static File resolve(File projectDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(projectDir, path);
+    }
+
+    private static boolean isAncestor(String ancestor, String path) {
+        return path.startsWith(ancestor) && path.length() > ancestor.length() && path.charAt(ancestor.length()) == '/';
+    }
+
+    /**
+     * @return the path of file relative to the project directory, separated by / and without . and .. segments; "" for
+     * the project directory itself and null for files outside of it. The paths from the project map may have been made
+     * canonical where the project directory was not, so they are compared canonically if they don't match as written.
+     */
+    private static String relativePath(File projectDir, File file) {
+        String relative = relativePath(normalize(projectDir.getAbsolutePath()), normalize(file.getAbsolutePath()));
+        if (relative == null) {
+            try {
+                relative = relativePath(normalize(projectDir.getCanonicalPath()), normalize(file.getCanonicalPath()));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return relative;
+    }
+
+    private static String relativePath(String root, String path) {
+        if (path.equals(root)) {
+            return "";
+        }
+        String prefix = root.endsWith("/") ? root : root + "/";
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+    }
+
+    private static String normalize(String path) {
+        String separated = path.replace('\\', '/');
+        List<String> segments = new ArrayList<String>();
+        for (String segment : separated.split("/")) {
+            if (segment.equals("..") && !segments.isEmpty()) {
+                segments.remove(segments.size() - 1);
+            } else if (segment.length() > 0 && !segment.equals(".")) {
+                segments.add(segment);
+            }
+        }
+        StringBuilder sb = new StringBuilder(separated.startsWith("/") ? "/" : "");
+        for (int i = 0; i < segments.size(); i++) {
+            sb.append(i > 0 ? "/" : "").append(segments.get(i));
+        }
+        return sb.toString();
+    }
+}
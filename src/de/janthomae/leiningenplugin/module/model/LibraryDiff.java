@@ -0,0 +1,63 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The difference between the libraries a module currently has and the libraries its dependencies ask for, by library
+ * name. Libraries in {@link #getRetained()} can be kept as they are instead of being deleted and created again.
+ */
+public class LibraryDiff {
+    private final Set<String> added = new LinkedHashSet<String>();
+    private final Set<String> removed = new LinkedHashSet<String>();
+    private final Set<String> retained = new LinkedHashSet<String>();
+
+    /**
+     * @param current the names of the libraries the module has now
+     * @param desired the names of the libraries the module should have
+     * @return the difference
+     */
+    public static LibraryDiff compute(Collection<String> current, Collection<String> desired) {
+        LibraryDiff diff = new LibraryDiff();
+        Set<String> desiredSet = desired instanceof Set ? (Set<String>) desired : new LinkedHashSet<String>(desired);
+        Set<String> currentSet = current instanceof Set ? (Set<String>) current : new LinkedHashSet<String>(current);
+        for (String name : currentSet) {
+            (desiredSet.contains(name) ? diff.retained : diff.removed).add(name);
+        }
+        for (String name : desiredSet) {
+            if (!currentSet.contains(name)) {
+                diff.added.add(name);
+            }
+        }
+        return diff;
+    }
+
+    private LibraryDiff() {
+    }
+
+    public Set<String> getAdded() {
+        return Collections.unmodifiableSet(added);
+    }
+
+    public Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public Set<String> getRetained() {
+        return Collections.unmodifiableSet(retained);
+    }
+
+    /**
+     * @return true if the module already has exactly the desired libraries.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + " =" + retained.size();
+    }
+}
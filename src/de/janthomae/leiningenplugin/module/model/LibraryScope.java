@@ -0,0 +1,26 @@
+package de.janthomae.leiningenplugin.module.model;
+
+/**
+ * The scopes a Leiningen dependency can have in a module. They are named like IDEA's DependencyScope, which they are
+ * converted to by name.
+ */
+public enum LibraryScope {
+    COMPILE, TEST, RUNTIME, PROVIDED;
+
+    /**
+     * Maps the scope of a dependency as reported by Aether.
+     *
+     * @param s the scope string, eg. "test"
+     * @return the scope; COMPILE if s is not one of the known scopes (Issue 35)
+     */
+    public static LibraryScope of(String s) {
+        if (s != null) {
+            for (LibraryScope scope : values()) {
+                if (scope.name().equalsIgnoreCase(s)) {
+                    return scope;
+                }
+            }
+        }
+        return COMPILE;
+    }
+}
@@ -0,0 +1,45 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Leiningen projects of an IDE project by their group/artifact coordinate, regardless of version. A dependency on
+ * one of them becomes a dependency on its module instead of on its jar in the local repository.
+ */
+public class SiblingIndex {
+    private final Map<String, String> byCoordinate = new HashMap<String, String>();
+
+    /**
+     * @param group    the group of the project
+     * @param artifact the name of the project
+     * @param path     the project file path
+     */
+    public void add(String group, String artifact, String path) {
+        byCoordinate.put(coordinate(group, artifact), path);
+    }
+
+    /**
+     * @param dependency a dependency map as returned by the dependency resolution
+     * @return the project file path of the sibling project the dependency refers to, or null
+     */
+    public String find(Map dependency) {
+        return byCoordinate.get(coordinate(dependency.get("groupid"), dependency.get("artifactid")));
+    }
+
+    /**
+     * @return the index as passed to the dependency resolution, from "group/artifact" to project file path.
+     */
+    public Map<String, String> toMap() {
+        return Collections.unmodifiableMap(byCoordinate);
+    }
+
+    public boolean isEmpty() {
+        return byCoordinate.isEmpty();
+    }
+
+    private static String coordinate(Object group, Object artifact) {
+        return group + "/" + artifact;
+    }
+}
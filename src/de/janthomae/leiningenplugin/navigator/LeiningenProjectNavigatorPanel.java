@@ -44,6 +44,7 @@ public class LeiningenProjectNavigatorPanel extends SimpleToolWindowPanel implem
         if (LeiningenDataKeys.LEININGEN_GOALS.is(dataId)) return extractGoals();
         if (PlatformDataKeys.VIRTUAL_FILE.is(dataId)) return extractVirtualFile();
         if (LeiningenDataKeys.LEININGEN_PROJECT.is(dataId)) return extractLeiningenProject();
+        if (LeiningenDataKeys.LEININGEN_PROJECTS.is(dataId)) return extractLeiningenProjects();
         return null;
     }
 
@@ -62,6 +63,19 @@ public class LeiningenProjectNavigatorPanel extends SimpleToolWindowPanel implem
         return null;
     }
 
+    private List<LeiningenProject> extractLeiningenProjects() {
+        List<LeiningenProject> result = new ArrayList<LeiningenProject>();
+        for (LeiningenProjectNode node : LeiningenProjectStructure.getSelectedNodes(myTree, LeiningenProjectNode.class)) {
+            result.add(node.getLeiningenProject());
+        }
+        for (LeiningenGoalNode node : LeiningenProjectStructure.getSelectedNodes(myTree, LeiningenGoalNode.class)) {
+            if (!result.contains(node.getLeiningenProject())) {
+                result.add(node.getLeiningenProject());
+            }
+        }
+        return result;
+    }
+
     private List<String> extractGoals() {
         List<String> result = new ArrayList<String>();
         List<LeiningenGoalNode> v =
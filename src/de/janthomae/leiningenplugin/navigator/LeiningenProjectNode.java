@@ -1,11 +1,14 @@
 package de.janthomae.leiningenplugin.navigator;
 
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.treeStructure.SimpleNode;
 import de.janthomae.leiningenplugin.LeiningenConstants;
 import de.janthomae.leiningenplugin.LeiningenIcons;
 import de.janthomae.leiningenplugin.project.LeiningenProject;
 
+import java.util.List;
+
 /**
  * @author <a href="janthomae@janthomae.de">Jan Thom&auml;</a>
  * @version $Id:$
@@ -28,7 +31,8 @@ public class LeiningenProjectNode extends LeiningenNode {
 
     @Override
     public String getName() {
-        return myLeiningenProject.getDisplayName();
+        List<String> profiles = myLeiningenProject.getProfiles();
+        return myLeiningenProject.getDisplayName() + (profiles.isEmpty() ? "" : " [" + StringUtil.join(profiles, ",") + "]");
     }
 
     @Override
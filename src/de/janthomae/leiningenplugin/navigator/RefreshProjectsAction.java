@@ -6,12 +6,17 @@ import com.intellij.openapi.actionSystem.PlatformDataKeys;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import de.janthomae.leiningenplugin.LeiningenUtil;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
 import de.janthomae.leiningenplugin.module.ModuleCreationUtils;
 import de.janthomae.leiningenplugin.project.LeiningenProject;
 import de.janthomae.leiningenplugin.project.LeiningenProjectException;
 import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
+import de.janthomae.leiningenplugin.utils.ResolutionOptions;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="janthomae@janthomae.de">Jan Thom&auml;</a>
@@ -20,28 +25,59 @@ import java.util.List;
 public class RefreshProjectsAction extends AnAction {
     @Override
     public void actionPerformed(AnActionEvent e) {
-        final Project theProject = e.getData(PlatformDataKeys.PROJECT);
+        refresh(e.getData(PlatformDataKeys.PROJECT), isOffline());
+    }
+
+    /**
+     * Re-imports all leiningen projects of an IDEA project, resolving their dependencies again. Runs in the
+     * background, or right away in tests and headless mode.
+     *
+     * @param theProject the IDEA project
+     * @param offline    true to resolve against the local repository only
+     */
+    public static void refresh(final Project theProject, boolean offline) {
         final LeiningenProjectsManager manager =
                 LeiningenProjectsManager.getInstance(theProject);
+        // A refresh always resolves again, so that changed SNAPSHOTs are picked up, and builds the modules again
+        final ResolutionOptions options = manager.withSiblings(new ResolutionOptions(offline, true));
 
         final List<LeiningenProject> projects = manager.getLeiningenProjects();
         LeiningenUtil.runInBackground(theProject, new Runnable() {
             @Override
             public void run() {
+                ImportMetrics.describe(options.isOffline() ? "Offline refresh" : "Refresh");
+                List<LeiningenProject> toReimport = new ArrayList<LeiningenProject>();
                 for (LeiningenProject project : projects) {
                     VirtualFile projectFile = project.getVirtualFile();
                     if (ModuleCreationUtils.validateModule(theProject, projectFile)) {
-                        try {
-                            project.reimport(theProject);
-                        } catch (LeiningenProjectException ignore) {
-                            // Just ignore it for now
-                        }
+                        toReimport.add(project);
                     } else {
                         ModuleCreationUtils.tidyDependencies(theProject, projectFile, false);
                         manager.removeLeiningenProject(project);
                     }
                 }
+
+                // Resolve all projects together so that projects with the same dependencies are only resolved once
+                Map dependencies = LeiningenProjectsManager.resolveDependencies(toReimport, options);
+                for (LeiningenProject project : toReimport) {
+                    try {
+                        List dependencyMaps = (List) dependencies.get(project.getResolutionPath());
+                        if (dependencyMaps == null) {
+                            dependencyMaps = project.resolveDependencies(options);
+                        }
+                        project.reimport(theProject, dependencyMaps, options.isForce());
+                    } catch (LeiningenProjectException ex) {
+                        LeiningenUtil.notifyError("Leiningen refresh failed", ex.getMessage(), theProject);
+                    }
+                }
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * @return true if this refresh should only use the local repository.
+     */
+    protected boolean isOffline() {
+        return LeiningenRunnerSettings.getInstance().offlineResolution;
+    }
+}
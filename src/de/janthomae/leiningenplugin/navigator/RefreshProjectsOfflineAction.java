@@ -0,0 +1,12 @@
+package de.janthomae.leiningenplugin.navigator;
+
+/**
+ * Refreshes all leiningen projects against the local repository only, regardless of the offline setting. Useful when
+ * the remote repositories are unreachable and waiting for their timeouts would stall the import.
+ */
+public class RefreshProjectsOfflineAction extends RefreshProjectsAction {
+    @Override
+    protected boolean isOffline() {
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package de.janthomae.leiningenplugin.navigator;
+
+import com.intellij.ide.util.ElementsChooser;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogBuilder;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.Messages;
+import de.janthomae.leiningenplugin.LeiningenDataKeys;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action to select the profiles a leiningen project is imported with, out of the ones its project file defines.
+ */
+public class SelectProfilesAction extends AnAction {
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        final Project ideaProject = e.getData(PlatformDataKeys.PROJECT);
+        LeiningenProject leiningenProject = e.getData(LeiningenDataKeys.LEININGEN_PROJECT);
+        if (ideaProject == null || leiningenProject == null) {
+            return;
+        }
+
+        List<String> choices = new ArrayList<String>(leiningenProject.getDefinedProfiles());
+        for (String selected : leiningenProject.getProfiles()) {
+            if (!choices.contains(selected)) {
+                choices.add(selected);
+            }
+        }
+        if (choices.isEmpty()) {
+            Messages.showInfoMessage(ideaProject, leiningenProject.getDisplayName() + " defines no profiles.",
+                    "Select Profiles");
+            return;
+        }
+
+        ElementsChooser<String> chooser = new ElementsChooser<String>(true);
+        for (String profile : choices) {
+            chooser.addElement(profile, leiningenProject.getProfiles().contains(profile));
+        }
+        JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.add(new JLabel("<html>Profiles to import " + leiningenProject.getDisplayName() + " with.<br>" +
+                "Select none to use the default profiles from the settings.</html>"), BorderLayout.NORTH);
+        panel.add(chooser, BorderLayout.CENTER);
+        DialogBuilder builder = new DialogBuilder(ideaProject);
+        builder.setTitle("Select Profiles");
+        builder.setCenterPanel(panel);
+        if (builder.show() != DialogWrapper.OK_EXIT_CODE) {
+            return;
+        }
+
+        LeiningenProjectsManager.getInstance(ideaProject)
+                .changeProfiles(leiningenProject, chooser.getMarkedElements());
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        super.update(e);
+        e.getPresentation().setEnabled(e.getData(LeiningenDataKeys.LEININGEN_PROJECT) != null);
+    }
+}
@@ -2,9 +2,16 @@ package de.janthomae.leiningenplugin.project;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import clojure.lang.Named;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
 import de.janthomae.leiningenplugin.module.ModuleCreationUtils;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
 import de.janthomae.leiningenplugin.utils.Interop;
+import de.janthomae.leiningenplugin.utils.ResolutionOptions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -20,18 +27,35 @@ public class LeiningenProject {
     private String name;
     private String group;
     private String version;
+    private List<String> profiles;
+    private ImportMetrics lastImportMetrics;
+    private String importFingerprint;
 
-    public static LeiningenProject create(VirtualFile projectFile) {
-        return new LeiningenProject(projectFile);
+    public static LeiningenProject create(VirtualFile projectFile) throws LeiningenProjectException {
+        return create(projectFile, Collections.<String>emptyList());
     }
 
-    private LeiningenProject(VirtualFile projectFile) {
+    /**
+     * Creates a project which is read with a specific set of profiles.
+     *
+     * @param projectFile the project.clj
+     * @param profiles    the profiles to activate, the default profiles from the settings are used if this is empty
+     * @return the project
+     * @throws LeiningenProjectException if the project file could not be read in time
+     */
+    public static LeiningenProject create(VirtualFile projectFile, List<String> profiles)
+            throws LeiningenProjectException {
+        return new LeiningenProject(projectFile, profiles);
+    }
+
+    private LeiningenProject(VirtualFile projectFile, List<String> profiles) throws LeiningenProjectException {
         this.projectFile = projectFile;
+        this.profiles = new ArrayList<String>(profiles);
         reload();
     }
 
-    private void reload() {
-        projectMap = Interop.loadProject(projectFile.getPath());
+    private void reload() throws LeiningenProjectException {
+        projectMap = Interop.loadProject(getResolutionPath(), withProfiles(new ResolutionOptions(false, false)));
         name = (String) projectMap.get(ModuleCreationUtils.LEIN_PROJECT_NAME);
         group = (String) projectMap.get(ModuleCreationUtils.LEIN_PROJECT_GROUP);
         version = (String) projectMap.get(ModuleCreationUtils.LEIN_PROJECT_VERSION);
@@ -70,6 +94,77 @@ public class LeiningenProject {
         return version;
     }
 
+    /**
+     * @return the metrics of the background import which last re-imported this project, or null.
+     */
+    public ImportMetrics getLastImportMetrics() {
+        return lastImportMetrics;
+    }
+
+    /**
+     * @return the fingerprint of the name, SDK, paths and dependencies the module was last built from, or null.
+     * @see de.janthomae.leiningenplugin.module.model.DependencyModel#fingerprint(String, String, Map, List,
+     * java.util.Collection)
+     */
+    public String getImportFingerprint() {
+        return importFingerprint;
+    }
+
+    public void setImportFingerprint(String importFingerprint) {
+        this.importFingerprint = importFingerprint;
+    }
+
+    /**
+     * @return the profiles selected for this project, empty if it uses the default profiles from the settings.
+     */
+    public List<String> getProfiles() {
+        return Collections.unmodifiableList(profiles);
+    }
+
+    /**
+     * Selects the profiles for this project. Takes effect with the next {@link #reimport(Project)}.
+     *
+     * @param profiles the profiles, or an empty list to go back to the default profiles from the settings
+     */
+    public void setProfiles(List<String> profiles) {
+        this.profiles = new ArrayList<String>(profiles);
+    }
+
+    /**
+     * @return the profiles the project is actually read with.
+     */
+    public List<String> getActiveProfiles() {
+        return profiles.isEmpty() ? LeiningenRunnerSettings.getInstance().getDefaultProfiles() : getProfiles();
+    }
+
+    /**
+     * Selects this project's active profiles in the given options.
+     *
+     * @param options the options to update
+     * @return options, for convenience
+     */
+    public ResolutionOptions withProfiles(ResolutionOptions options) {
+        options.setProfiles(getResolutionPath(), getActiveProfiles());
+        return options;
+    }
+
+    /**
+     * All profiles defined in the project file itself.
+     *
+     * @return the profile names
+     */
+    public List<String> getDefinedProfiles() {
+        List<String> result = new ArrayList<String>();
+        Object definedProfiles = projectMap.get(ModuleCreationUtils.LEIN_PROFILES);
+        if (definedProfiles instanceof Map) {
+            for (Object key : ((Map) definedProfiles).keySet()) {
+                result.add(key instanceof Named ? ((Named) key).getName() : String.valueOf(key));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj != null && obj instanceof LeiningenProject &&
@@ -91,9 +186,55 @@ public class LeiningenProject {
      * @throws LeiningenProjectException
      */
     public void reimport(final Project ideaProject) throws LeiningenProjectException {
+        reimport(ideaProject, null);
+    }
+
+    /**
+     * Re-import the leiningen project using dependencies which have already been resolved.
+     *
+     * @param ideaProject    The idea project
+     * @param dependencyMaps The resolved dependencies, or null to resolve them during the import.
+     * @throws LeiningenProjectException
+     */
+    public void reimport(final Project ideaProject, List dependencyMaps) throws LeiningenProjectException {
+        reimport(ideaProject, dependencyMaps, false);
+    }
+
+    /**
+     * Re-import the leiningen project using dependencies which have already been resolved.
+     *
+     * @param ideaProject    The idea project
+     * @param dependencyMaps The resolved dependencies, or null to resolve them during the import.
+     * @param force          Build the module again even if nothing changed since the last import, eg. for a refresh.
+     * @throws LeiningenProjectException
+     */
+    public void reimport(final Project ideaProject, List dependencyMaps, boolean force)
+            throws LeiningenProjectException {
         //Reload the lein project file
         ModuleCreationUtils mcu = new ModuleCreationUtils();
+        lastImportMetrics = ImportMetrics.current();
         reload();
-        mcu.importModule(ideaProject, this);
+        mcu.importModule(ideaProject, this, dependencyMaps, force);
+    }
+
+    /**
+     * Resolves the dependencies of this project with its active profiles.
+     *
+     * @param options the resolution options
+     * @return the dependency list, as expected by {@link #reimport(Project, List)}
+     * @throws LeiningenProjectException if the dependencies could not be resolved
+     */
+    public List resolveDependencies(ResolutionOptions options) throws LeiningenProjectException {
+        return Interop.loadDependencies(getResolutionPath(), withProfiles(options));
+    }
+
+    /**
+     * The path under which this project's dependencies are resolved, and under which they are found in the result of a
+     * batch resolution.
+     *
+     * @return the canonical path of the project file.
+     */
+    public String getResolutionPath() {
+        return projectFile.getCanonicalPath();
     }
 }
@@ -27,9 +27,14 @@ public class LeiningenProjectOpenProcessor extends ProjectOpenProcessorBase {
 
     public boolean doQuickImport(VirtualFile file, WizardContext wizardContext) {
         getBuilder().setProjectFile(file);
-        LeiningenProject leiningenProject = LeiningenProject.create(file);
-        wizardContext.setProjectName(leiningenProject.getDisplayName());
-        return true;
+        try {
+            LeiningenProject leiningenProject = LeiningenProject.create(file);
+            wizardContext.setProjectName(leiningenProject.getDisplayName());
+            return true;
+        } catch (LeiningenProjectException e) {
+            // Fall back to the wizard, which shows the error
+            return false;
+        }
     }
 }
 
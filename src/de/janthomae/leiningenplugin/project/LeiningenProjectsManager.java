@@ -5,16 +5,29 @@ import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import de.janthomae.leiningenplugin.LeiningenConstants;
 import de.janthomae.leiningenplugin.LeiningenUtil;
 import de.janthomae.leiningenplugin.SimpleProjectComponent;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import de.janthomae.leiningenplugin.metrics.Timer;
 import de.janthomae.leiningenplugin.module.ModuleCreationUtils;
+import de.janthomae.leiningenplugin.module.model.SiblingIndex;
+import de.janthomae.leiningenplugin.run.BuildGraph;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
+import de.janthomae.leiningenplugin.utils.Interop;
+import de.janthomae.leiningenplugin.utils.ResolutionOptions;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="janthomae@janthomae.de">Jan Thom&auml;</a>
@@ -29,6 +42,13 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
     public static final String LEIN_PROPERTY_NAME =
             "de.janthomae.leiningenplugin.project.LeiningenProjectsManager.isLeinModule";
 
+    /**
+     * The names of the modules the import made a module depend on, comma separated, so that a later import removes only
+     * those and leaves the module dependencies added by hand alone.
+     */
+    public static final String LEIN_MODULE_DEPENDENCIES_PROPERTY_NAME =
+            "de.janthomae.leiningenplugin.project.LeiningenProjectsManager.moduleDependencies";
+
     /**
      * Don't want to add a dependency on Maven just for this
      * @see MavenProjectsManager.isMavenizedModule
@@ -78,6 +98,87 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
         return null;
     }
 
+    /**
+     * @return the managed projects by coordinate, to find dependencies of one project on another.
+     */
+    public SiblingIndex getSiblingIndex() {
+        SiblingIndex index = new SiblingIndex();
+        for (LeiningenProject leiningenProject : getLeiningenProjects()) {
+            index.add(leiningenProject.getGroup(), leiningenProject.getName(), leiningenProject.getResolutionPath());
+        }
+        return index;
+    }
+
+    /**
+     * Selects the managed projects as siblings in the given options, see {@link ResolutionOptions#setSiblings(Map)}.
+     *
+     * @param options the options to update
+     * @return options, for convenience
+     */
+    public ResolutionOptions withSiblings(ResolutionOptions options) {
+        options.setSiblings(getSiblingIndex().toMap());
+        return options;
+    }
+
+    /**
+     * The order in which projects have to be built, eg. for "install". A project depends on another if it lists its
+     * coordinate in its dependencies, or if its module depends on the other's module, which covers dependencies coming
+     * in through a jar, see {@link ModuleCreationUtils#importModule}.
+     *
+     * @param projects the projects to build, dependencies on other projects are ignored
+     * @return the graph of the projects
+     */
+    public BuildGraph<LeiningenProject> getDependencyGraph(List<LeiningenProject> projects) {
+        BuildGraph<LeiningenProject> graph = new BuildGraph<LeiningenProject>();
+        Map<Module, LeiningenProject> byModule = new HashMap<Module, LeiningenProject>();
+        // the sibling index holds resolution paths, which are canonical
+        Map<String, LeiningenProject> byResolutionPath = new HashMap<String, LeiningenProject>();
+        for (LeiningenProject project : projects) {
+            graph.add(project);
+            byResolutionPath.put(project.getResolutionPath(), project);
+            Module module = ModuleCreationUtils.findModule(myProject, project.getVirtualFile());
+            if (module != null) {
+                byModule.put(module, project);
+            }
+        }
+
+        SiblingIndex siblings = getSiblingIndex();
+        for (LeiningenProject project : projects) {
+            Object dependencies = project.getProjectMap().get("dependencies");
+            if (dependencies instanceof Collection) {
+                for (Object dependency : (Collection) dependencies) {
+                    String path = dependency instanceof List && !((List) dependency).isEmpty()
+                            ? siblings.find(coordinate(((List) dependency).get(0).toString())) : null;
+                    LeiningenProject sibling = path != null ? byResolutionPath.get(path) : null;
+                    if (sibling != null) {
+                        graph.addDependency(project, sibling);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Module, LeiningenProject> entry : byModule.entrySet()) {
+            for (Module dependency : ModuleRootManager.getInstance(entry.getKey()).getDependencies()) {
+                LeiningenProject sibling = byModule.get(dependency);
+                if (sibling != null) {
+                    graph.addDependency(entry.getValue(), sibling);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @param symbol a dependency as written in project.clj, "group/artifact" or just "artifact"
+     * @return the coordinate as a map like the ones {@link SiblingIndex#find(Map)} takes
+     */
+    private static Map<String, String> coordinate(String symbol) {
+        int slash = symbol.indexOf('/');
+        Map<String, String> coordinate = new HashMap<String, String>();
+        coordinate.put("groupid", slash >= 0 ? symbol.substring(0, slash) : symbol);
+        coordinate.put("artifactid", slash >= 0 ? symbol.substring(slash + 1) : symbol);
+        return coordinate;
+    }
+
     public boolean hasProjects() {
         return !leiningenProjects.isEmpty();
     }
@@ -95,26 +196,50 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
         LeiningenUtil.runInBackground(project, new Runnable() {
             @Override
             public void run() {
+                ImportMetrics.describe("Import");
+                MetricsRegistry metrics = MetricsRegistry.getInstance();
+                Timer.Context timer = metrics.timer(MetricsRegistry.PROJECT_IMPORT).time();
+                List<LeiningenProject> toImport = new ArrayList<LeiningenProject>();
+                List<String> failures = new ArrayList<String>();
                 try {
                     for (VirtualFile projectFile : projectFiles) {
                         if (ModuleCreationUtils.validateModule(project, projectFile)) {
-                            LeiningenProject leiningenProject = getProjectByProjectFile(projectFile);
-                            if (leiningenProject == null) {
-                                leiningenProject = LeiningenProject.create(projectFile);
-                                addLeiningenProject(leiningenProject);
+                            try {
+                                LeiningenProject leiningenProject = getProjectByProjectFile(projectFile);
+                                if (leiningenProject == null) {
+                                    leiningenProject = LeiningenProject.create(projectFile);
+                                    addLeiningenProject(leiningenProject);
+                                }
+                                toImport.add(leiningenProject);
+                            } catch (LeiningenProjectException e) {
+                                failures.add(projectFile.getPath() + ": " + e.getMessage());
                             }
+                        }
+                    }
 
+                    // A project which fails or hangs must not keep the others from being imported
+                    Map dependencies = resolveDependencies(toImport, withSiblings(ResolutionOptions.fromSettings()));
+                    for (LeiningenProject leiningenProject : toImport) {
+                        try {
                             /** Side effect - adds to the project's module list */
-                            leiningenProject.reimport(project);
+                            leiningenProject.reimport(project,
+                                    (List) dependencies.get(leiningenProject.getResolutionPath()));
 
-                            Module newModule = ModuleCreationUtils.findModule(project, projectFile);
+                            Module newModule =
+                                    ModuleCreationUtils.findModule(project, leiningenProject.getVirtualFile());
                             if (newModule != null) {
                                 result.add(newModule);
                             }
+                        } catch (LeiningenProjectException e) {
+                            failures.add(leiningenProject.getDisplayName() + ": " + e.getMessage());
                         }
                     }
-                } catch (LeiningenProjectException ignore) {
-                    // Just do nothing for now
+                } finally {
+                    timer.stop();
+                }
+                metrics.counter(MetricsRegistry.IMPORT_FAILURES).inc(failures.size());
+                if (!failures.isEmpty()) {
+                    LeiningenUtil.notifyError("Leiningen import failed", StringUtil.join(failures, "<br/>"), project);
                 }
             }
         });
@@ -122,6 +247,52 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
         return result;
     }
 
+    /**
+     * Resolves the dependencies of several projects at once. A single project is left to the import itself, there is
+     * nothing to share in that case.
+     *
+     * @param projects the projects to resolve, each with its active profiles
+     * @param options  the resolution options
+     * @return a map from {@link LeiningenProject#getResolutionPath()} to the project's dependency list. Projects which
+     * could not be resolved or timed out are missing, they have to be resolved (and reported) on their own.
+     */
+    public static Map resolveDependencies(Collection<LeiningenProject> projects, ResolutionOptions options) {
+        if (projects.size() < 2) {
+            return Collections.emptyMap();
+        }
+        List<String> paths = new ArrayList<String>();
+        for (LeiningenProject project : projects) {
+            project.withProfiles(options);
+            paths.add(project.getResolutionPath());
+        }
+        return Interop.loadDependencies(paths, options);
+    }
+
+    /**
+     * Selects the profiles of a project and re-imports it in the background. Dependencies are only resolved again if
+     * this profile combination has not been resolved before.
+     *
+     * @param leiningenProject the project
+     * @param profiles         the profiles, or an empty list for the default profiles from the settings
+     */
+    public void changeProfiles(final LeiningenProject leiningenProject, List<String> profiles) {
+        leiningenProject.setProfiles(profiles);
+        notifyListeners();
+        LeiningenUtil.runInBackground(myProject, new Runnable() {
+            @Override
+            public void run() {
+                ImportMetrics.describe("Profile change");
+                try {
+                    leiningenProject.reimport(myProject);
+                } catch (LeiningenProjectException e) {
+                    MetricsRegistry.getInstance().counter(MetricsRegistry.IMPORT_FAILURES).inc();
+                    LeiningenUtil.notifyError("Leiningen import failed", e.getMessage(), myProject);
+                }
+                notifyListeners();
+            }
+        });
+    }
+
     public boolean hasProject(LeiningenProject project) {
         return leiningenProjects.contains(project);
     }
@@ -176,7 +347,11 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
     public LeiningenProjectsManagerState getState() {
         LeiningenProjectsManagerState state = new LeiningenProjectsManagerState();
         for (LeiningenProject leiningenProject : leiningenProjects) {
-            state.projectFiles.add(leiningenProject.getVirtualFile().getUrl());
+            String url = leiningenProject.getVirtualFile().getUrl();
+            state.projectFiles.add(url);
+            if (!leiningenProject.getProfiles().isEmpty()) {
+                state.projectProfiles.put(url, StringUtil.join(leiningenProject.getProfiles(), ","));
+            }
         }
         return state;
     }
@@ -187,12 +362,15 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
                 LeiningenUtil.runInBackground(myProject, new Runnable() {
                     @Override
                     public void run() {
+                        ImportMetrics.describe("Project open");
                         for (String projectFile : leiningenProjectsManagerState.projectFiles) {
                             try {
                                 VirtualFile vf = VirtualFileManager.getInstance().findFileByUrl(projectFile);
                                 Collection<LeiningenProject> toImport = new ArrayList<LeiningenProject>();
                                 if (ModuleCreationUtils.validateModule(myProject, vf)) {
-                                    LeiningenProject leiningenProject = LeiningenProject.create(vf);
+                                    String profiles = leiningenProjectsManagerState.projectProfiles.get(projectFile);
+                                    LeiningenProject leiningenProject = LeiningenProject.create(vf,
+                                            LeiningenRunnerSettings.splitProfiles(profiles != null ? profiles : ""));
                                     toImport.add(leiningenProject);
                                     addLeiningenProject(leiningenProject);
                                 } else {
@@ -201,8 +379,9 @@ public class LeiningenProjectsManager extends  SimpleProjectComponent implements
                                 for (LeiningenProject leiningenProject : toImport) {
                                     leiningenProject.reimport(myProject);
                                 }
-                            } catch (LeiningenProjectException ignore) {
-                                // Do nothing for now
+                            } catch (LeiningenProjectException e) {
+                                MetricsRegistry.getInstance().counter(MetricsRegistry.IMPORT_FAILURES).inc();
+                                LeiningenUtil.notifyError("Leiningen import failed", e.getMessage(), myProject);
                             }
                         }
                     }
@@ -1,7 +1,9 @@
 package de.janthomae.leiningenplugin.project;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="janthomae@janthomae.de">Jan Thom&auml;</a>
@@ -9,4 +11,6 @@ import java.util.List;
  */
 public class LeiningenProjectsManagerState {
     public List<String> projectFiles = new ArrayList<String>();
+    /** Comma separated profiles by project file url, for projects which don't use the default profiles. */
+    public Map<String, String> projectProfiles = new HashMap<String, String>();
 }
@@ -9,6 +9,7 @@ import com.intellij.projectImport.ProjectImportWizardStep;
 import de.janthomae.leiningenplugin.module.forms.LeiningenModuleInformationForm;
 import de.janthomae.leiningenplugin.project.LeiningenProject;
 import de.janthomae.leiningenplugin.project.LeiningenProjectBuilder;
+import de.janthomae.leiningenplugin.project.LeiningenProjectException;
 
 import javax.swing.*;
 
@@ -26,6 +27,7 @@ public class LeiningenProjectImportWizardStep extends ProjectImportWizardStep {
     private final VirtualFile projectFile;
     private LeiningenModuleInformationForm moduleInformationForm;
     private final LeiningenProject leiningenProject;
+    private final String loadError;
 
     /**
      * Initialize the wizard step with wizard context and the path of the project.clj file.
@@ -36,19 +38,32 @@ public class LeiningenProjectImportWizardStep extends ProjectImportWizardStep {
     public LeiningenProjectImportWizardStep(WizardContext context, String projectFile) {
         super(context);
         this.projectFile = LocalFileSystem.getInstance().refreshAndFindFileByPath(projectFile);
-        leiningenProject = LeiningenProject.create(this.projectFile);
+        LeiningenProject project = null;
+        String error = null;
+        try {
+            project = LeiningenProject.create(this.projectFile);
+        } catch (LeiningenProjectException e) {
+            error = e.getMessage();
+        }
+        leiningenProject = project;
+        loadError = error;
 
         moduleInformationForm = new LeiningenModuleInformationForm();
     }
 
     @Override
     public boolean validate() throws ConfigurationException {
+        if (leiningenProject == null) {
+            throw new ConfigurationException(loadError, "Cannot read " + projectFile.getName());
+        }
         return true;
     }
 
     @Override
     public void updateStep() {
-        moduleInformationForm.setData(leiningenProject);
+        if (leiningenProject != null) {
+            moduleInformationForm.setData(leiningenProject);
+        }
     }
 
     @Override
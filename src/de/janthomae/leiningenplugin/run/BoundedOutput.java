@@ -0,0 +1,307 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.ide.actions.ShowFilePathAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The output of a goal on its way to the console. Output is collected and handed on in batches, at most every
+ * {@link #FLUSH_DELAY_MS} or when {@link #FLUSH_CHARS} are pending, instead of line by line, so that a goal printing
+ * hundreds of megabytes does not flood the console.
+ * <p/>
+ * With a limit, the console gets the first three quarters of it live. After that the output is kept in a buffer of the
+ * last quarter, which is printed when the goal ends, so that eg. the test summary is still shown. The full output,
+ * without ANSI escapes, is written to a temporary file, whose path is printed as a link, see {@link FullOutputFilter}.
+ * The file is deleted if the output stayed within the limit.
+ * <p/>
+ * Test runner service messages are never held back, since the test tree is built from them: after the limit, lines
+ * starting with {@link #SERVICE_MESSAGE} still go to the console right away and only the others are kept.
+ */
+public class BoundedOutput {
+    private static final Logger log = Logger.getInstance(BoundedOutput.class);
+
+    private static final long FLUSH_DELAY_MS = 100;
+    private static final int FLUSH_CHARS = 64 * 1024;
+    private static final String FULL_OUTPUT = "Full output: ";
+    private static final String SERVICE_MESSAGE = "##teamcity[";
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[;\\d]*[A-Za-z]");
+
+    /**
+     * Where the batches go, usually the notifyTextAvailable of the process handler.
+     */
+    public interface Sink {
+        void print(String text, Key outputType);
+    }
+
+    private final Sink mySink;
+    private final long myHeadLimit;
+    private final long myTailLimit;
+    private final List<Segment> myPending = new ArrayList<Segment>();
+    private final LinkedList<Segment> myTail = new LinkedList<Segment>();
+    private final StringBuilder myLine = new StringBuilder();
+    private Key myLineType;
+    private int myPendingChars;
+    private boolean myFlushScheduled;
+    private long myShown;
+    private long myTailChars;
+    private long myOmitted;
+    private boolean myTruncated;
+    private boolean myClosed;
+    private File myLogFile;
+    private Writer myLog;
+
+    /**
+     * @param limitMegabytes how much output the console gets, 0 for no limit
+     * @param sink           where the output goes
+     */
+    public BoundedOutput(int limitMegabytes, Sink sink) {
+        mySink = sink;
+        long limit = limitMegabytes * 1024L * 1024L;
+        myHeadLimit = limit > 0 ? limit / 4 * 3 : Long.MAX_VALUE;
+        myTailLimit = limit - limit / 4 * 3;
+    }
+
+    /**
+     * Adds output. System output, eg. the command line, is printed right away after the pending output.
+     */
+    public synchronized void add(String text, Key outputType) {
+        if (myClosed) {
+            mySink.print(text, outputType);
+            return;
+        }
+        if (outputType == ProcessOutputTypes.SYSTEM) {
+            flush();
+            mySink.print(text, outputType);
+            return;
+        }
+        log(text);
+        if (myTruncated) {
+            addTruncated(text, outputType);
+            return;
+        }
+        Segment last = myPending.isEmpty() ? null : myPending.get(myPending.size() - 1);
+        if (last != null && last.type == outputType) {
+            last.text.append(text);
+        } else {
+            myPending.add(new Segment(text, outputType));
+        }
+        myPendingChars += text.length();
+        if (myPendingChars >= FLUSH_CHARS) {
+            flush();
+        } else if (!myFlushScheduled) {
+            myFlushScheduled = true;
+            JobScheduler.getScheduler().schedule(new Runnable() {
+                public void run() {
+                    synchronized (BoundedOutput.this) {
+                        myFlushScheduled = false;
+                        flush();
+                    }
+                }
+            }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Prints what is pending and the end of the output if it was truncated. Must be called when the goal ended, before
+     * the termination is announced.
+     */
+    public synchronized void close() {
+        if (myClosed) {
+            return;
+        }
+        flush();
+        if (myLine.length() > 0) {
+            endLine();
+        }
+        myClosed = true;
+        if (myLog != null) {
+            try {
+                myLog.close();
+            } catch (IOException e) {
+                log.info("Could not write " + myLogFile + ": " + e.getMessage());
+            }
+        }
+        if (!myTruncated) {
+            if (myLogFile != null) {
+                FileUtil.delete(myLogFile);
+            }
+            return;
+        }
+        mySink.print("\n... " + StringUtil.formatFileSize(myOmitted) + " of output omitted ...\n",
+                ProcessOutputTypes.SYSTEM);
+        for (Segment segment : myTail) {
+            mySink.print(segment.text.toString(), segment.type);
+        }
+        myTail.clear();
+        if (myLog != null) {
+            mySink.print("\n" + FULL_OUTPUT + myLogFile.getPath() + "\n", ProcessOutputTypes.SYSTEM);
+        }
+    }
+
+    private void flush() {
+        for (Segment segment : myPending) {
+            String text = segment.text.toString();
+            if (myTruncated) {
+                addTruncated(text, segment.type);
+                continue;
+            }
+            if (myShown + text.length() <= myHeadLimit) {
+                myShown += text.length();
+                mySink.print(text, segment.type);
+                continue;
+            }
+            int fits = (int) (myHeadLimit - myShown);
+            int newline = text.lastIndexOf('\n', fits - 1);
+            int cut = newline >= 0 ? newline + 1 : fits;
+            if (cut > 0) {
+                mySink.print(text.substring(0, cut), segment.type);
+            }
+            myShown += cut;
+            myTruncated = true;
+            mySink.print("\n... The output exceeds " + StringUtil.formatFileSize(myHeadLimit) +
+                    ", its end is shown when the goal finishes." +
+                    (myLog != null ? " " + FULL_OUTPUT + myLogFile.getPath() : "") + "\n", ProcessOutputTypes.SYSTEM);
+            addTruncated(text.substring(cut), segment.type);
+        }
+        myPending.clear();
+        myPendingChars = 0;
+    }
+
+    /**
+     * Splits output after the limit into lines, passing service messages on and keeping the rest for the tail.
+     */
+    private void addTruncated(String text, Key outputType) {
+        if (myLine.length() > 0 && myLineType != outputType) {
+            endLine();
+        }
+        myLineType = outputType;
+        int start = 0;
+        int newline;
+        while ((newline = text.indexOf('\n', start)) >= 0) {
+            myLine.append(text, start, newline + 1);
+            endLine();
+            start = newline + 1;
+        }
+        myLine.append(text, start, text.length());
+    }
+
+    private void endLine() {
+        String line = myLine.toString();
+        myLine.setLength(0);
+        if (line.startsWith(SERVICE_MESSAGE)) {
+            mySink.print(line, myLineType);
+        } else {
+            addTail(line, myLineType);
+        }
+    }
+
+    private void addTail(String text, Key outputType) {
+        Segment last = myTail.isEmpty() ? null : myTail.getLast();
+        if (last != null && last.type == outputType) {
+            last.text.append(text);
+        } else {
+            myTail.add(new Segment(text, outputType));
+        }
+        myTailChars += text.length();
+        while (myTailChars > myTailLimit && !myTail.isEmpty()) {
+            Segment first = myTail.getFirst();
+            long excess = myTailChars - myTailLimit;
+            if (first.text.length() <= excess) {
+                myTail.removeFirst();
+                myTailChars -= first.text.length();
+                myOmitted += first.text.length();
+            } else {
+                // keep whole lines where there are any
+                int newline = first.text.indexOf("\n", (int) excess);
+                int cut = newline >= 0 ? newline + 1 : (int) excess;
+                first.text.delete(0, cut);
+                myTailChars -= cut;
+                myOmitted += cut;
+            }
+        }
+    }
+
+    private void log(String text) {
+        if (myHeadLimit == Long.MAX_VALUE) {
+            return;
+        }
+        try {
+            if (myLogFile == null) {
+                myLogFile = FileUtil.createTempFile("lein-output", ".log", true);
+                myLog = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(myLogFile), "UTF-8"), 64 * 1024);
+            }
+            if (myLog != null) {
+                myLog.write(ANSI_ESCAPE.matcher(text).replaceAll(""));
+            }
+        } catch (IOException e) {
+            log.info("Could not write the output to a file: " + e.getMessage());
+            myLog = null;
+        }
+    }
+
+    private static class Segment {
+        private final StringBuilder text;
+        private final Key type;
+
+        private Segment(String text, Key type) {
+            this.text = new StringBuilder(text);
+            this.type = type;
+        }
+    }
+
+    /**
+     * Turns the path of a full output file in the console into a link which opens it, in the editor if it is small
+     * enough and otherwise in the application the system opens it with.
+     */
+    public static class FullOutputFilter implements Filter {
+        private static final Pattern LINE = Pattern.compile(Pattern.quote(FULL_OUTPUT) + "(.+?)\\s*$");
+
+        /**
+         * The largest file the editor opens.
+         */
+        private static final long EDITOR_LIMIT = 20 * 1024 * 1024;
+
+        public Result applyFilter(String line, int entireLength) {
+            Matcher matcher = LINE.matcher(line);
+            if (!matcher.find()) {
+                return null;
+            }
+            final File file = new File(matcher.group(1));
+            int offset = entireLength - line.length();
+            return new Result(offset + matcher.start(1), offset + matcher.end(1), new HyperlinkInfo() {
+                public void navigate(Project project) {
+                    VirtualFile virtualFile = file.length() <= EDITOR_LIMIT
+                            ? LocalFileSystem.getInstance().refreshAndFindFileByIoFile(file) : null;
+                    if (virtualFile != null) {
+                        new OpenFileDescriptor(project, virtualFile).navigate(true);
+                    } else if (file.isFile()) {
+                        ShowFilePathAction.openFile(file);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.process.AnsiEscapeDecoder;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.openapi.util.Key;
+
+import java.nio.charset.Charset;
+
+/**
+ * A process handler like {@link com.intellij.execution.process.ColoredProcessHandler}, which passes the output through
+ * a {@link BoundedOutput} first, so that the ANSI colours are decoded once per batch rather than once per line.
+ */
+public class BoundedProcessHandler extends OSProcessHandler implements AnsiEscapeDecoder.ColoredTextAcceptor {
+    private final AnsiEscapeDecoder myDecoder = new AnsiEscapeDecoder();
+    private final BoundedOutput myOutput;
+
+    public BoundedProcessHandler(Process process, String commandLine, Charset charset, int limitMegabytes) {
+        super(process, commandLine, charset);
+        myOutput = new BoundedOutput(limitMegabytes, new BoundedOutput.Sink() {
+            public void print(String text, Key outputType) {
+                myDecoder.escapeText(text, outputType, BoundedProcessHandler.this);
+            }
+        });
+    }
+
+    @Override
+    public void notifyTextAvailable(String text, Key outputType) {
+        myOutput.add(text, outputType);
+    }
+
+    public void coloredTextAvailable(String text, Key attributes) {
+        super.notifyTextAvailable(text, attributes);
+    }
+
+    @Override
+    protected void notifyProcessTerminated(int exitCode) {
+        myOutput.close();
+        super.notifyProcessTerminated(exitCode);
+    }
+}
@@ -0,0 +1,148 @@
+package de.janthomae.leiningenplugin.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The projects of a build and, for each of them, the projects which have to be built before it. Kept free of IDEA
+ * classes.
+ *
+ * @param <T> the project type
+ */
+public class BuildGraph<T> {
+    private final Map<T, Set<T>> myDependencies = new LinkedHashMap<T, Set<T>>();
+
+    public void add(T node) {
+        if (!myDependencies.containsKey(node)) {
+            myDependencies.put(node, new LinkedHashSet<T>());
+        }
+    }
+
+    /**
+     * Records that dependent needs dependency to be built first. Both must have been added.
+     */
+    public void addDependency(T dependent, T dependency) {
+        if (!dependent.equals(dependency) && myDependencies.containsKey(dependency)) {
+            myDependencies.get(dependent).add(dependency);
+        }
+    }
+
+    public Set<T> getNodes() {
+        return Collections.unmodifiableSet(myDependencies.keySet());
+    }
+
+    public Set<T> getDependencies(T node) {
+        return Collections.unmodifiableSet(myDependencies.get(node));
+    }
+
+    /**
+     * @return the nodes so that every node comes after its dependencies, otherwise in the order they were added; null
+     * if the graph has a cycle
+     */
+    public List<T> topologicalOrder() {
+        List<T> order = new ArrayList<T>();
+        Set<T> done = new LinkedHashSet<T>();
+        while (order.size() < myDependencies.size()) {
+            boolean progress = false;
+            for (Map.Entry<T, Set<T>> entry : myDependencies.entrySet()) {
+                if (!done.contains(entry.getKey()) && done.containsAll(entry.getValue())) {
+                    done.add(entry.getKey());
+                    order.add(entry.getKey());
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                return null;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return the nodes of a cycle, each depending on the next and the last on the first, or null if there is none
+     */
+    public List<T> findCycle() {
+        Set<T> finished = new LinkedHashSet<T>();
+        for (T node : myDependencies.keySet()) {
+            List<T> cycle = findCycle(node, new ArrayList<T>(), finished);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private List<T> findCycle(T node, List<T> path, Set<T> finished) {
+        int index = path.indexOf(node);
+        if (index >= 0) {
+            return new ArrayList<T>(path.subList(index, path.size()));
+        }
+        if (finished.contains(node)) {
+            return null;
+        }
+        path.add(node);
+        for (T dependency : myDependencies.get(node)) {
+            List<T> cycle = findCycle(dependency, path, finished);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        finished.add(node);
+        return null;
+    }
+
+    /**
+     * The chain of dependencies which took longest to build in total, which no amount of parallelism could shorten.
+     *
+     * @param durations how long each node took, nodes which were not built count as 0
+     * @return the nodes of the path, dependencies first; empty if the graph has a cycle or no nodes
+     */
+    public List<T> criticalPath(Map<T, Long> durations) {
+        List<T> order = topologicalOrder();
+        if (order == null || order.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<T, Long> finish = new HashMap<T, Long>();
+        Map<T, T> previous = new HashMap<T, T>();
+        T last = null;
+        for (T node : order) {
+            long start = 0;
+            for (T dependency : myDependencies.get(node)) {
+                if (finish.get(dependency) > start || previous.get(node) == null) {
+                    start = Math.max(start, finish.get(dependency));
+                    previous.put(node, dependency);
+                }
+            }
+            Long duration = durations.get(node);
+            finish.put(node, start + (duration != null ? duration : 0));
+            if (last == null || finish.get(node) > finish.get(last)) {
+                last = node;
+            }
+        }
+        List<T> path = new ArrayList<T>();
+        for (T node = last; node != null; node = previous.get(node)) {
+            path.add(0, node);
+        }
+        return path;
+    }
+
+    /**
+     * @param path a path as returned by {@link #criticalPath(Map)}
+     * @return the total duration of the path
+     */
+    public static <T> long duration(List<T> path, Map<T, Long> durations) {
+        long total = 0;
+        for (T node : path) {
+            Long duration = durations.get(node);
+            total += duration != null ? duration : 0;
+        }
+        return total;
+    }
+}
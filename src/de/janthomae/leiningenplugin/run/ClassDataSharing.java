@@ -0,0 +1,295 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class data sharing archives for the JVMs the plugin starts, so that they map the classes of Clojure and Leiningen
+ * instead of loading them one by one. An archive is written by the first JVM started without one when it exits
+ * (-XX:ArchiveClassesAtExit, Java 13 and later) and used by the JVMs started after that. JVMs of older Java versions
+ * run without an archive.
+ * <p/>
+ * Each owner, eg. the Leiningen JVM or a project, has one archive at a time. Its name is a fingerprint of the java
+ * executable, its version and the jars on the classpath, so a new Leiningen version or changed dependencies lead to a
+ * new archive, and the old one is deleted.
+ */
+public class ClassDataSharing {
+    private static final Logger log = Logger.getInstance(ClassDataSharing.class);
+
+    /**
+     * The first Java version which can write an archive of the classes an application loaded when it exits.
+     */
+    private static final int MIN_JAVA_VERSION = 13;
+
+    /**
+     * How often writing an archive may fail before the plugin stops trying.
+     */
+    private static final int MAX_DUMP_ATTEMPTS = 2;
+
+    private static final Pattern VERSION = Pattern.compile("version \"(1\\.)?(\\d+)");
+
+    private static final ClassDataSharing ourInstance = new ClassDataSharing();
+
+    private final Map<String, Integer> myJavaVersions = new ConcurrentHashMap<String, Integer>();
+    private final Set<String> myProbing = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> myDumping = Collections.synchronizedSet(new HashSet<String>());
+    private final Map<String, Integer> myDumpAttempts = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Long> myStartupWith = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Long> myStartupWithout = new ConcurrentHashMap<String, Long>();
+
+    public static ClassDataSharing getInstance() {
+        return ourInstance;
+    }
+
+    private ClassDataSharing() {
+    }
+
+    /**
+     * @return the java executable the lein script starts Leiningen with.
+     */
+    public static String leiningenJavaCommand() {
+        for (String variable : new String[]{"LEIN_JAVA_CMD", "JAVA_CMD"}) {
+            String command = System.getenv(variable);
+            if (!StringUtil.isEmpty(command)) {
+                return command;
+            }
+        }
+        return "java";
+    }
+
+    /**
+     * The archive a JVM should be started with.
+     *
+     * @param javaCommand the java executable
+     * @param owner       what the archive is for, eg. "lein" or a project directory
+     * @param classpath   the jars on the classpath of the JVM
+     * @return the archive, or null if the JVM cannot use one: its Java version is too old or not known yet, another JVM
+     * is writing the archive right now, or writing it failed before.
+     */
+    @Nullable
+    public Archive getArchive(String javaCommand, String owner, List<String> classpath) {
+        Integer version = myJavaVersions.get(javaCommand);
+        if (version == null) {
+            probe(javaCommand);
+            return null;
+        }
+        if (version < MIN_JAVA_VERSION) {
+            return null;
+        }
+
+        StringBuilder fingerprint = new StringBuilder(javaCommand).append('\n').append(version);
+        for (String entry : classpath) {
+            File jar = new File(entry);
+            fingerprint.append('\n').append(entry).append('\t').append(jar.length()).append('\t')
+                    .append(jar.lastModified());
+        }
+        String prefix = digest(owner).substring(0, 12) + "-";
+        File file = new File(directory(), prefix + digest(fingerprint.toString()) + ".jsa");
+        String path = file.getPath();
+
+        if (file.isFile()) {
+            return new Archive(file, owner, false);
+        }
+        Integer attempts = myDumpAttempts.get(path);
+        if (attempts != null && attempts >= MAX_DUMP_ATTEMPTS || !myDumping.add(path)) {
+            return null;
+        }
+        myDumpAttempts.put(path, attempts == null ? 1 : attempts + 1);
+        deleteArchives(prefix, file);
+        return new Archive(file, owner, true);
+    }
+
+    private void probe(final String javaCommand) {
+        if (!myProbing.add(javaCommand)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    myJavaVersions.put(javaCommand, javaVersion(javaCommand));
+                } finally {
+                    myProbing.remove(javaCommand);
+                }
+            }
+        });
+    }
+
+    private static int javaVersion(String javaCommand) {
+        try {
+            Process process = new ProcessBuilder(javaCommand, "-version").redirectErrorStream(true).start();
+            String output = new String(FileUtil.loadBytes(process.getInputStream()), "UTF-8");
+            process.waitFor();
+            Matcher matcher = VERSION.matcher(output);
+            return matcher.find() ? Integer.parseInt(matcher.group(2)) : 0;
+        } catch (IOException e) {
+            log.info("Could not run " + javaCommand + ": " + e.getMessage());
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private static File directory() {
+        return new File(PathManager.getSystemPath(), "leiningen" + File.separator + "cds");
+    }
+
+    private static void deleteArchives(final String prefix, final File except) {
+        File[] stale = directory().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && !name.equals(except.getName());
+            }
+        });
+        if (stale != null) {
+            for (File file : stale) {
+                FileUtil.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @return the SHA-1 of text as hex string, eg. to name a file after a key without collisions
+     */
+    static String digest(String text) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.format("%.1f s", millis / 1000.0);
+    }
+
+    /**
+     * An archive to start one JVM with, either to use it or to write it when the JVM exits.
+     */
+    public class Archive {
+        private final File myFile;
+        private final String myOwner;
+        private final boolean myDump;
+
+        private Archive(File file, String owner, boolean dump) {
+            myFile = file;
+            myOwner = owner;
+            myDump = dump;
+            if (dump) {
+                myFile.getParentFile().mkdirs();
+            }
+        }
+
+        public String getPath() {
+            return myFile.getPath();
+        }
+
+        /**
+         * @return true if the JVM writes the archive rather than using it
+         */
+        public boolean isDump() {
+            return myDump;
+        }
+
+        @NotNull
+        public List<String> getJvmOptions() {
+            if (myDump) {
+                return Collections.singletonList("-XX:ArchiveClassesAtExit=" + myFile.getPath());
+            }
+            return Arrays.asList("-XX:SharedArchiveFile=" + myFile.getPath(), "-Xshare:auto");
+        }
+
+        /**
+         * Records how long the JVM took to start.
+         */
+        public void started(long millis) {
+            (myDump ? myStartupWithout : myStartupWith).put(myOwner, millis);
+        }
+
+        /**
+         * Must be called when the JVM has exited.
+         */
+        public void finished() {
+            if (myDump) {
+                myDumping.remove(myFile.getPath());
+                if (myFile.isFile()) {
+                    myDumpAttempts.remove(myFile.getPath());
+                }
+            }
+        }
+
+        /**
+         * @param millis how long the JVM took to start
+         * @return a line comparing it to the startup time with, or without, the archive
+         */
+        public String describeStartup(long millis) {
+            if (myDump) {
+                return "Started in " + seconds(millis) +
+                        " without class data sharing, the archive is written on exit.";
+            }
+            Long without = myStartupWithout.get(myOwner);
+            return "Started in " + seconds(millis) + " with class data sharing" +
+                    (without != null ? ", " + seconds(without) + " without." : ".");
+        }
+
+        /**
+         * Measures the startup time of a process as the time to its first output, and prints the comparison into its
+         * console when it ends.
+         */
+        public void attach(final ProcessHandler handler) {
+            handler.addProcessListener(new ProcessAdapter() {
+                private final long myStart = System.nanoTime();
+                private volatile long myStartup = -1;
+
+                @Override
+                public void onTextAvailable(ProcessEvent event, Key outputType) {
+                    if (myStartup < 0 && outputType != ProcessOutputTypes.SYSTEM) {
+                        myStartup = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - myStart);
+                        started(myStartup);
+                    }
+                }
+
+                @Override
+                public void processTerminated(ProcessEvent event) {
+                    finished();
+                    if (myStartup >= 0) {
+                        handler.notifyTextAvailable(describeStartup(myStartup) + "\n", ProcessOutputTypes.SYSTEM);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.SystemProperties;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Leiningen JVM kept running for one project, which runs goals sent to it over a local socket instead of a fresh
+ * "lein" process per goal. It runs goal_server.clj, which also describes the protocol, with the jars of
+ * {@link LeiningenRunnerSettings#getLeiningenClasspathUrls()} on the classpath.
+ * <p/>
+ * The JVM is started on first use and recycled when the project file, a profiles file or the Leiningen classpath
+ * changed since, since Leiningen keeps plugins and user profiles loaded. {@link GoalServers} stops it when idle.
+ */
+public class GoalServer {
+    private static final Logger log = Logger.getInstance(GoalServer.class);
+
+    private static final String SCRIPT = "goal_server.clj";
+    private static final String READY = "leiningen-goal-server ";
+    private static final long STARTUP_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Tasks which need a console or replace the JVM, and so can only run in a "lein" process of their own: the JVM has
+     * no stdin to give a REPL, and trampoline would run its command after the JVM exits.
+     */
+    private static final Set<String> PLAIN_LEIN_TASKS = new HashSet<String>(Arrays.asList("repl", "trampoline"));
+
+    private final String myDirectory;
+    private Process myProcess;
+    private int myPort;
+    private String myToken;
+    private String myClasspath;
+    private long myStamp;
+    private ClassDataSharing.Archive myArchive;
+    private String myStartup = "";
+    private boolean myBusy;
+    private volatile long myLastUsed = System.currentTimeMillis();
+
+    GoalServer(String directory) {
+        myDirectory = directory;
+    }
+
+    public String getDirectory() {
+        return myDirectory;
+    }
+
+    /**
+     * @param goals the goals of a run
+     * @return false if the goals must run in a "lein" process of their own, see {@link #PLAIN_LEIN_TASKS}
+     */
+    public static boolean canRun(List<String> goals) {
+        for (String goal : goals) {
+            if (PLAIN_LEIN_TASKS.contains(goal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return how long the JVM took to start the last time, compared to a start without class data sharing if it used
+     * an archive.
+     */
+    public synchronized String getStartup() {
+        return myStartup;
+    }
+
+    boolean isBusy() {
+        return myBusy;
+    }
+
+    void setBusy(boolean busy) {
+        myBusy = busy;
+        myLastUsed = System.currentTimeMillis();
+    }
+
+    long getLastUsed() {
+        return myLastUsed;
+    }
+
+    public synchronized boolean isRunning() {
+        if (myProcess == null) {
+            return false;
+        }
+        try {
+            myProcess.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Starts the JVM unless it is running and up to date.
+     *
+     * @param settings the settings to take the Leiningen classpath from
+     * @return true if the JVM had to be started, false if it was reused
+     * @throws ExecutionException if the JVM could not be started
+     */
+    public synchronized boolean ensureStarted(LeiningenRunnerSettings settings) throws ExecutionException {
+        List<String> jars = classpath(settings);
+        String classpath = StringUtil.join(jars, File.pathSeparator);
+        long stamp = ProjectStamp.of(myDirectory, settings);
+        if (isRunning() && classpath.equals(myClasspath) && stamp == myStamp) {
+            return false;
+        }
+        stop();
+
+        String java = SystemProperties.getJavaHome() + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        myArchive = settings.classDataSharing ?
+                ClassDataSharing.getInstance().getArchive(java, "goal-server", jars) : null;
+        if (myArchive != null) {
+            command.addAll(myArchive.getJvmOptions());
+        }
+        command.add("-XX:+TieredCompilation");
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-Dleiningen.original.pwd=" + myDirectory);
+        command.add("-cp");
+        command.add(classpath);
+        command.add("clojure.main");
+        command.add("-i");
+        command.add(script(SCRIPT).getPath());
+        command.add("-e");
+        command.add("(leiningen.goal-server/-main)");
+
+        ProcessBuilder builder = new ProcessBuilder(command).directory(new File(myDirectory)).redirectErrorStream(true);
+        builder.environment().put("LEIN_HOME", settings.getRealLeiningenHome());
+        long start = System.currentTimeMillis();
+        try {
+            myProcess = builder.start();
+            myToken = Long.toHexString(new SecureRandom().nextLong());
+            OutputStream stdin = myProcess.getOutputStream();
+            stdin.write((myToken + "\n").getBytes("UTF-8"));
+            stdin.flush();
+            myPort = awaitPort(myProcess);
+        } catch (IOException e) {
+            stop();
+            throw new ExecutionException("Could not start the Leiningen JVM: " + e.getMessage());
+        }
+        long millis = System.currentTimeMillis() - start;
+        if (myArchive != null) {
+            myArchive.started(millis);
+            myStartup = myArchive.describeStartup(millis);
+        } else {
+            myStartup = "Started in " + String.format("%.1f s", millis / 1000.0) + ".";
+        }
+        myClasspath = classpath;
+        myStamp = stamp;
+        return true;
+    }
+
+    /**
+     * Connects and sends a request; the response is read from the socket's input stream.
+     *
+     * @param goals the goals to run
+     * @return the connected socket
+     * @throws IOException if the JVM could not be reached
+     */
+    public synchronized Socket send(List<String> goals) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), myPort);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(myToken);
+        out.writeUTF(myDirectory);
+        out.writeInt(goals.size());
+        for (String goal : goals) {
+            out.writeUTF(goal);
+        }
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * Stops the JVM, eg. to cancel a running goal. It is started again on next use.
+     * <p/>
+     * The JVM is asked to exit by closing its stdin, so that Leiningen's shutdown hooks stop the project JVM of a task
+     * running eval-in-project; destroying it right away would leave that JVM behind. It is only destroyed if it does
+     * not exit in time.
+     */
+    public synchronized void stop() {
+        if (myProcess != null) {
+            Process process = myProcess;
+            myProcess = null;
+            try {
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                // it is gone already
+            }
+            if (!awaitExit(process, SHUTDOWN_TIMEOUT_MS)) {
+                process.destroy();
+            }
+        }
+        if (myArchive != null) {
+            myArchive.finished();
+            myArchive = null;
+        }
+    }
+
+    private static boolean awaitExit(Process process, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private int awaitPort(final Process process) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        final int[] port = {-1};
+        final StringBuilder output = new StringBuilder();
+        Thread pump = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        synchronized (port) {
+                            if (port[0] < 0 && line.startsWith(READY)) {
+                                port[0] = Integer.parseInt(line.substring(READY.length()).trim());
+                                port.notifyAll();
+                            } else if (port[0] < 0) {
+                                output.append(line).append('\n');
+                            } else {
+                                log.info("Leiningen JVM for " + myDirectory + ": " + line);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // the process is gone
+                } catch (NumberFormatException e) {
+                    log.warn(e);
+                }
+                synchronized (port) {
+                    port.notifyAll();
+                }
+            }
+        }, "Leiningen JVM output " + myDirectory);
+        pump.setDaemon(true);
+        pump.start();
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        synchronized (port) {
+            while (port[0] < 0 && pump.isAlive() && System.currentTimeMillis() < deadline) {
+                try {
+                    port.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                }
+            }
+            if (port[0] < 0) {
+                throw new IOException(output.length() > 0 ? output.toString().trim() : "no response in time");
+            }
+            return port[0];
+        }
+    }
+
+    private static List<String> classpath(LeiningenRunnerSettings settings) throws ExecutionException {
+        List<String> files = new ArrayList<String>();
+        for (URL url : settings.getLeiningenClasspathUrls()) {
+            try {
+                files.add(new File(url.toURI()).getPath());
+            } catch (URISyntaxException e) {
+                files.add(url.getPath());
+            }
+        }
+        if (files.isEmpty()) {
+            throw new ExecutionException("The Leiningen jar " + settings.getRealLeiningenJar() +
+                    " does not exist, please check the Leiningen settings.");
+        }
+        return files;
+    }
+
+    /**
+     * Copies a Clojure script of the plugin to the system directory, so that a JVM can load it with "-i". The copy is
+     * only written if it differs, so that JVMs starting at the same time never read a script being written.
+     *
+     * @param name the file name of the script, next to this class
+     * @return the copy
+     */
+    static synchronized File script(String name) throws ExecutionException {
+        File script = new File(PathManager.getSystemPath(), "leiningen" + File.separator + name);
+        InputStream in = GoalServer.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new ExecutionException(name + " is missing from the plugin.");
+        }
+        try {
+            try {
+                byte[] content = FileUtil.loadBytes(in);
+                if (!script.isFile() || script.length() != content.length ||
+                        !Arrays.equals(content, FileUtil.loadFileBytes(script))) {
+                    FileUtil.writeToFile(script, content);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new ExecutionException("Could not write " + script + ": " + e.getMessage());
+        }
+        return script;
+    }
+}
@@ -0,0 +1,158 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs goals in a warm Leiningen JVM and streams their output into the console like a process would. Stopping the run
+ * stops the JVM, as a running task cannot be interrupted reliably.
+ */
+public class GoalServerProcessHandler extends ProcessHandler {
+    private final GoalServer myServer;
+    private final LeiningenRunnerSettings mySettings;
+    private final List<String> myGoals;
+    private final AtomicBoolean myTerminated = new AtomicBoolean();
+    private final BoundedOutput myOutput;
+    private volatile Socket mySocket;
+
+    public GoalServerProcessHandler(GoalServer server, LeiningenRunnerSettings settings, List<String> goals) {
+        myServer = server;
+        mySettings = settings;
+        myGoals = goals;
+        myOutput = new BoundedOutput(settings.consoleLimitMegabytes, new BoundedOutput.Sink() {
+            public void print(String text, Key outputType) {
+                GoalServerProcessHandler.super.notifyTextAvailable(text, outputType);
+            }
+        });
+    }
+
+    @Override
+    public void notifyTextAvailable(String text, Key outputType) {
+        myOutput.add(text, outputType);
+    }
+
+    @Override
+    public void startNotify() {
+        super.startNotify();
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    runGoals();
+                } finally {
+                    GoalServers.getInstance().release(myServer);
+                }
+            }
+        });
+    }
+
+    private void runGoals() {
+        String command = "lein " + StringUtil.join(myGoals, " ");
+        try {
+            if (myServer.ensureStarted(mySettings)) {
+                MetricsRegistry.getInstance().counter(MetricsRegistry.GOAL_SERVER_STARTS).inc();
+                notifyTextAvailable("Started a Leiningen JVM for " + myServer.getDirectory() + ". " +
+                        myServer.getStartup() + "\n", ProcessOutputTypes.SYSTEM);
+            }
+        } catch (ExecutionException e) {
+            notifyTextAvailable(e.getMessage() + "\n", ProcessOutputTypes.STDERR);
+            terminate(1);
+            return;
+        }
+        if (myTerminated.get()) {
+            // stopped while the JVM was starting, the goals must not run anyway
+            return;
+        }
+        MetricsRegistry.getInstance().counter(MetricsRegistry.GOAL_SERVER_RUNS).inc();
+        notifyTextAvailable(command + " (warm JVM)\n", ProcessOutputTypes.SYSTEM);
+
+        int exitCode = -1;
+        try {
+            mySocket = myServer.send(myGoals);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(mySocket.getInputStream()));
+            while (true) {
+                int tag = in.readByte();
+                int value = in.readInt();
+                if (tag == 'x') {
+                    exitCode = value;
+                    break;
+                }
+                byte[] bytes = new byte[value];
+                in.readFully(bytes);
+                notifyTextAvailable(new String(bytes, "UTF-8"),
+                        tag == 'e' ? ProcessOutputTypes.STDERR : ProcessOutputTypes.STDOUT);
+            }
+        } catch (IOException e) {
+            if (!myTerminated.get()) {
+                notifyTextAvailable("Lost the Leiningen JVM: " + e.getMessage() + "\n", ProcessOutputTypes.STDERR);
+                myServer.stop();
+            }
+        } finally {
+            closeSocket();
+        }
+        terminate(exitCode);
+    }
+
+    private void terminate(int exitCode) {
+        if (myTerminated.compareAndSet(false, true)) {
+            myOutput.close();
+            notifyProcessTerminated(exitCode);
+        }
+    }
+
+    private void closeSocket() {
+        Socket socket = mySocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    protected void destroyProcessImpl() {
+        // the JVM is given time to stop the task's own processes, see GoalServer#stop
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                myServer.stop();
+            }
+        });
+        closeSocket();
+        terminate(-1);
+    }
+
+    @Override
+    protected void detachProcessImpl() {
+        closeSocket();
+        if (myTerminated.compareAndSet(false, true)) {
+            myOutput.close();
+            notifyProcessDetached();
+        }
+    }
+
+    @Override
+    public boolean detachIsDefault() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public OutputStream getProcessInput() {
+        return null;
+    }
+}
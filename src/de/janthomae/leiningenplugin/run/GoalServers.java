@@ -0,0 +1,125 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The warm Leiningen JVMs, one per project directory. A JVM runs one goal at a time; it is stopped after
+ * {@link LeiningenRunnerSettings#warmJvmIdleMinutes} without a goal, and when the IDE exits.
+ */
+public class GoalServers implements ApplicationComponent {
+    private final Map<String, GoalServer> myServers = new HashMap<String, GoalServer>();
+    private ScheduledExecutorService myReaper;
+
+    public static GoalServers getInstance() {
+        return ApplicationManager.getApplication().getComponent(GoalServers.class);
+    }
+
+    /**
+     * Reserves the JVM of a project for one run. It is started by the caller, see {@link GoalServer#ensureStarted}.
+     *
+     * @param directory the project directory
+     * @return the JVM, or null if it is running another goal
+     */
+    @Nullable
+    public synchronized GoalServer reserve(String directory) {
+        String key = canonicalPath(directory);
+        GoalServer server = myServers.get(key);
+        if (server == null) {
+            server = new GoalServer(key);
+            myServers.put(key, server);
+        }
+        if (server.isBusy()) {
+            return null;
+        }
+        server.setBusy(true);
+        return server;
+    }
+
+    /**
+     * Ends a run started with {@link #reserve}.
+     */
+    public synchronized void release(GoalServer server) {
+        server.setBusy(false);
+    }
+
+    /**
+     * Stops the JVMs which were not used for longer than the idle time. They are reserved while they stop, so that a run
+     * starting meanwhile gets a fresh "lein" process instead of a JVM which is going away.
+     */
+    public void stopIdle() {
+        long idleMs = TimeUnit.MINUTES.toMillis(Math.max(1, LeiningenRunnerSettings.getInstance().warmJvmIdleMinutes));
+        long now = System.currentTimeMillis();
+        List<GoalServer> idle = new ArrayList<GoalServer>();
+        synchronized (this) {
+            for (GoalServer server : myServers.values()) {
+                if (!server.isBusy() && now - server.getLastUsed() > idleMs) {
+                    server.setBusy(true);
+                    idle.add(server);
+                }
+            }
+        }
+        for (GoalServer server : idle) {
+            try {
+                server.stop();
+            } finally {
+                release(server);
+            }
+        }
+    }
+
+    public void initComponent() {
+        myReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(@NotNull Runnable r) {
+                Thread thread = new Thread(r, "Leiningen JVM reaper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        myReaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                stopIdle();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void disposeComponent() {
+        if (myReaper != null) {
+            myReaper.shutdownNow();
+        }
+        List<GoalServer> servers;
+        synchronized (this) {
+            servers = new ArrayList<GoalServer>(myServers.values());
+            myServers.clear();
+        }
+        for (GoalServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @NotNull
+    public String getComponentName() {
+        return "LeiningenGoalServers";
+    }
+
+    private static String canonicalPath(String directory) {
+        try {
+            return new File(directory).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(directory).getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import de.janthomae.leiningenplugin.LeiningenConstants;
+import de.janthomae.leiningenplugin.project.LeiningenProjectException;
+import de.janthomae.leiningenplugin.utils.Interop;
+import de.janthomae.leiningenplugin.utils.ResolutionOptions;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The command lines which run goals in the project JVM directly, with the classpath and JVM arguments Leiningen
+ * computed for the project, for run configurations with fast launch. An entry is computed in the background on the
+ * first run, which still goes through "lein", and dropped when the project stamp changes, see {@link ProjectStamp}.
+ * <p/>
+ * The form a command line evaluates is kept in an init file of its own in the system directory; an entry whose init
+ * file is gone is computed again.
+ */
+public class LaunchCommandCache {
+    private static final Logger log = Logger.getInstance(LaunchCommandCache.class);
+
+    private static final LaunchCommandCache ourInstance = new LaunchCommandCache();
+
+    private final Map<String, Entry> myEntries = new ConcurrentHashMap<String, Entry>();
+    private final Set<String> myPending = Collections.synchronizedSet(new HashSet<String>());
+
+    public static LaunchCommandCache getInstance() {
+        return ourInstance;
+    }
+
+    private LaunchCommandCache() {
+    }
+
+    /**
+     * @param directory the project directory
+     * @param goals     the goals
+     * @param settings  the settings
+     * @return the cached command line, or null if there is none yet or the goals need Leiningen. In the first case it is
+     * computed in the background for the next run.
+     */
+    @Nullable
+    public List<String> get(String directory, List<String> goals, LeiningenRunnerSettings settings) {
+        String key = directory + '\n' + goals;
+        long stamp = ProjectStamp.of(directory, settings);
+        Entry entry = myEntries.get(key);
+        if (entry != null && entry.stamp == stamp && (entry.command == null || initFile(key).isFile())) {
+            return entry.command;
+        }
+        myEntries.remove(key);
+        compute(key, directory, goals, stamp);
+        return null;
+    }
+
+    /**
+     * Forgets all command lines, eg. after the Leiningen settings changed.
+     */
+    public void clear() {
+        myEntries.clear();
+    }
+
+    private void compute(final String key, final String directory, final List<String> goals, final long stamp) {
+        if (!myPending.add(key)) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    String path = new File(directory, LeiningenConstants.PROJECT_CLJ).getPath();
+                    List<String> command =
+                            Interop.launchCommand(path, goals, ResolutionOptions.fromSettings(), initFile(key));
+                    myEntries.put(key, new Entry(command, stamp));
+                } catch (LeiningenProjectException e) {
+                    log.info("No fast launch for " + goals + " in " + directory + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    log.warn(e);
+                } finally {
+                    myPending.remove(key);
+                }
+            }
+        });
+    }
+
+    private static File initFile(String key) {
+        return new File(PathManager.getSystemPath(), "leiningen" + File.separator + "launch" + File.separator +
+                ClassDataSharing.digest(key) + ".clj");
+    }
+
+    private static class Entry {
+        private final List<String> command;
+        private final long stamp;
+
+        private Entry(List<String> command, long stamp) {
+            this.command = command;
+            this.stamp = stamp;
+        }
+    }
+}
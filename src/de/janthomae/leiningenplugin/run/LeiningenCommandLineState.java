@@ -1,12 +1,20 @@
 package de.janthomae.leiningenplugin.run;
 
+import com.intellij.execution.DefaultExecutionResult;
 import com.intellij.execution.ExecutionException;
+import com.intellij.execution.ExecutionResult;
+import com.intellij.execution.Executor;
 import com.intellij.execution.configurations.CommandLineState;
-import com.intellij.execution.configurations.GeneralCommandLine;
-import com.intellij.execution.process.ColoredProcessHandler;
-import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.runners.ExecutionEnvironment;
-import com.intellij.openapi.vfs.encoding.EncodingManager;
+import com.intellij.execution.runners.ProgramRunner;
+import com.intellij.execution.testframework.TestConsoleProperties;
+import com.intellij.execution.testframework.sm.SMTestRunnerConnectionUtil;
+import com.intellij.execution.testframework.sm.runner.SMTRunnerConsoleProperties;
+import com.intellij.execution.ui.ConsoleView;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
 
 
 /**
@@ -22,15 +30,40 @@ public class LeiningenCommandLineState extends CommandLineState {
         super(environment);
         mySettings = settings;
         this.myParameters = parameters;
+        addConsoleFilters(new BoundedOutput.FullOutputFilter());
+    }
+
+    @Override
+    protected ProcessHandler startProcess() throws ExecutionException {
+        return new LeiningenProcessLauncher(mySettings, myParameters).start();
     }
 
+    /**
+     * Shows "test" goals in the test runner if the run configuration asks for it, see {@link TestResults}, running them
+     * in several JVMs at once if it asks for that, see {@link ShardedTestRun}.
+     */
+    @NotNull
     @Override
-    protected OSProcessHandler startProcess() throws ExecutionException {
-        GeneralCommandLine commandLine = new GeneralCommandLine();
-        commandLine.setExePath(mySettings.leiningenPath);
-        commandLine.addParameters(myParameters.getGoals());
-        commandLine.setWorkDirectory(myParameters.getWorkingDirectory());
-        return new ColoredProcessHandler(commandLine.createProcess(), commandLine.getCommandLineString(),
-                EncodingManager.getInstance().getDefaultCharset());
+    public ExecutionResult execute(@NotNull Executor executor, @NotNull ProgramRunner runner)
+            throws ExecutionException {
+        if (!myParameters.isTestResults() || !TestResults.supports(myParameters.getGoals())) {
+            return super.execute(executor, runner);
+        }
+        ExecutionEnvironment environment = getEnvironment();
+        List<String> tests = TestResults.tests(environment.getProject(), myParameters);
+        ProcessHandler handler;
+        if (myParameters.getTestJvms() > 1 && tests.size() > 1) {
+            handler = new ShardedTestRun(mySettings, myParameters.getWorkingDirectory(), tests,
+                    myParameters.getTestJvms());
+        } else {
+            String directory = myParameters.getWorkingDirectory();
+            handler = new LeiningenProcessLauncher(mySettings,
+                    new LeiningenRunnerParameters(TestResults.goals(tests), directory)).start();
+        }
+        TestConsoleProperties properties = new SMTRunnerConsoleProperties(environment.getProject(),
+                environment.getRunProfile(), TestResults.FRAMEWORK, executor);
+        ConsoleView console = SMTestRunnerConnectionUtil.createAndAttachConsole(TestResults.FRAMEWORK, handler,
+                properties, environment);
+        return new DefaultExecutionResult(console, handler, new RerunFailedTestsAction(myParameters, handler));
     }
 }
@@ -0,0 +1,158 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.encoding.EncodingManager;
+import de.janthomae.leiningenplugin.metrics.FlightRecorder;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import de.janthomae.leiningenplugin.metrics.Timer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Starts the process which runs goals in a project, for run configurations and for runs across several projects.
+ */
+public class LeiningenProcessLauncher {
+    /**
+     * What the lein script uses if LEIN_JVM_OPTS is not set.
+     */
+    private static final String DEFAULT_LEIN_JVM_OPTS = "-XX:+TieredCompilation -XX:TieredStopAtLevel=1";
+
+    private final LeiningenRunnerSettings mySettings;
+    private final LeiningenRunnerParameters myParameters;
+
+    public LeiningenProcessLauncher(LeiningenRunnerSettings settings, LeiningenRunnerParameters parameters) {
+        mySettings = settings;
+        myParameters = parameters;
+    }
+
+    /**
+     * Runs the goals in the project JVM directly if fast launch is on and the command line for them is cached, in the
+     * project's warm Leiningen JVM if that is enabled, the goals can run there and the JVM is not running another goal,
+     * and otherwise in a fresh "lein" process.
+     */
+    public ProcessHandler start() throws ExecutionException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter(MetricsRegistry.PROCESS_LAUNCHES).inc();
+        Timer.Context timer = metrics.timer(MetricsRegistry.PROCESS_START).time();
+        FlightRecorder.Event event = FlightRecorder.GOAL_LAUNCH.begin();
+        try {
+            if (myParameters.isFastLaunch()) {
+                List<String> command = LaunchCommandCache.getInstance()
+                        .get(myParameters.getWorkingDirectory(), myParameters.getGoals(), mySettings);
+                if (command != null) {
+                    metrics.counter(MetricsRegistry.FAST_LAUNCHES).inc();
+                    return startProjectJvm(command);
+                }
+            }
+            if (mySettings.warmJvm && GoalServer.canRun(myParameters.getGoals())) {
+                GoalServer server = GoalServers.getInstance().reserve(myParameters.getWorkingDirectory());
+                if (server != null) {
+                    return new GoalServerProcessHandler(server, mySettings, myParameters.getGoals());
+                }
+            }
+            return startLeiningen();
+        } finally {
+            timer.stop();
+            event.set("workingDirectory", myParameters.getWorkingDirectory())
+                    .set("goals", StringUtil.join(myParameters.getGoals(), " ")).commit();
+        }
+    }
+
+    private ProcessHandler startLeiningen() throws ExecutionException {
+        GeneralCommandLine commandLine = new GeneralCommandLine();
+        commandLine.setExePath(mySettings.leiningenPath);
+        commandLine.addParameters(myParameters.getGoals());
+        commandLine.setWorkDirectory(myParameters.getWorkingDirectory());
+
+        ClassDataSharing.Archive archive = null;
+        if (mySettings.classDataSharing) {
+            archive = ClassDataSharing.getInstance().getArchive(ClassDataSharing.leiningenJavaCommand(), "lein",
+                    Collections.singletonList(mySettings.getRealLeiningenJar()));
+            // the lein script splits LEIN_JVM_OPTS at blanks
+            if (archive != null && archive.getPath().indexOf(' ') >= 0) {
+                archive.finished();
+                archive = null;
+            }
+            if (archive != null) {
+                String options = System.getenv("LEIN_JVM_OPTS");
+                Map<String, String> env = new HashMap<String, String>();
+                env.put("LEIN_JVM_OPTS", (options != null ? options : DEFAULT_LEIN_JVM_OPTS) + " " +
+                        StringUtil.join(archive.getJvmOptions(), " "));
+                commandLine.setEnvParams(env);
+            }
+        }
+        return start(commandLine, archive);
+    }
+
+    /**
+     * Starts a cached project command line. With class data sharing for projects, the classpath must start with the
+     * jars, since an archive can only hold classes from jars in front of the last non-empty directory. Leiningen puts
+     * the project's directories first and their classes must win over the jars', so a classpath with a directory in
+     * front of a jar runs without an archive rather than in a different order.
+     */
+    private ProcessHandler startProjectJvm(List<String> command) throws ExecutionException {
+        ClassDataSharing.Archive archive = null;
+        int classpath = Math.max(command.indexOf("-classpath"), command.indexOf("-cp")) + 1;
+        if (mySettings.classDataSharing && mySettings.classDataSharingProjects && classpath > 0 &&
+                classpath < command.size()) {
+            List<String> jars = jarsFirst(StringUtil.split(command.get(classpath), File.pathSeparator));
+            if (jars != null) {
+                archive = ClassDataSharing.getInstance()
+                        .getArchive(command.get(0), myParameters.getWorkingDirectory(), jars);
+            }
+            if (archive != null) {
+                command = new ArrayList<String>(command);
+                command.addAll(1, archive.getJvmOptions());
+            }
+        }
+        GeneralCommandLine commandLine = new GeneralCommandLine(command);
+        commandLine.setWorkDirectory(myParameters.getWorkingDirectory());
+        return start(commandLine, archive);
+    }
+
+    /**
+     * @return the jars of a classpath, or null if a directory comes before one of them
+     */
+    @Nullable
+    private static List<String> jarsFirst(List<String> entries) {
+        List<String> jars = new ArrayList<String>();
+        boolean directory = false;
+        for (String entry : entries) {
+            if (!entry.endsWith(".jar")) {
+                directory = true;
+            } else if (directory) {
+                return null;
+            } else {
+                jars.add(entry);
+            }
+        }
+        return jars;
+    }
+
+    private ProcessHandler start(GeneralCommandLine commandLine, @Nullable ClassDataSharing.Archive archive)
+            throws ExecutionException {
+        BoundedProcessHandler handler;
+        try {
+            handler = new BoundedProcessHandler(commandLine.createProcess(), commandLine.getCommandLineString(),
+                    EncodingManager.getInstance().getDefaultCharset(), mySettings.consoleLimitMegabytes);
+        } catch (ExecutionException e) {
+            if (archive != null) {
+                archive.finished();
+            }
+            throw e;
+        }
+        if (archive != null) {
+            archive.attach(handler);
+        }
+        return handler;
+    }
+}
@@ -23,6 +23,9 @@ public class LeiningenRunConfigurationSettings extends SettingsEditor<LeiningenR
     private final Project myProject;
     private TextFieldWithBrowseButton wdSelector;
     private TextFieldWithAutoCompletion<String> goals;
+    private JCheckBox fastLaunch;
+    private JCheckBox testResults;
+    private JTextField testJvms;
 
     public LeiningenRunConfigurationSettings(final Project p) {
         myProject = p;
@@ -31,18 +34,33 @@ public class LeiningenRunConfigurationSettings extends SettingsEditor<LeiningenR
     protected void resetEditorFrom(LeiningenRunConfiguration configuration) {
         wdSelector.setText(configuration.getRunnerParams().getWorkingDirectory());
         goals.setText(StringUtil.join(configuration.getRunnerParams().getGoals(), " "));
+        fastLaunch.setSelected(configuration.getRunnerParams().isFastLaunch());
+        testResults.setSelected(configuration.getRunnerParams().isTestResults());
+        testJvms.setText(String.valueOf(configuration.getRunnerParams().getTestJvms()));
     }
 
     protected void applyEditorTo(LeiningenRunConfiguration configuration) throws ConfigurationException {
+        int jvms;
+        try {
+            jvms = Integer.parseInt(testJvms.getText().trim());
+        } catch (NumberFormatException e) {
+            jvms = 0;
+        }
+        if (jvms <= 0) {
+            throw new ConfigurationException("The number of test JVMs must be a positive number.");
+        }
         LeiningenRunnerParameters runnerParams =
                 new LeiningenRunnerParameters(StringUtil.split(goals.getText(), " "), wdSelector.getText());
+        runnerParams.setFastLaunch(fastLaunch.isSelected());
+        runnerParams.setTestResults(testResults.isSelected());
+        runnerParams.setTestJvms(jvms);
         configuration.setRunnerParams(runnerParams);
     }
 
     @NotNull
     protected JComponent createEditor() {
 
-        JPanel configurationPanel = new JPanel(new FormLayout("fill:50dlu:grow", "p,p,5dlu,p,p,fill:50dlu:grow"));
+        JPanel configurationPanel = new JPanel(new FormLayout("fill:50dlu:grow", "p,p,5dlu,p,p,5dlu,p,p,p,p,fill:50dlu:grow"));
 
         CellConstraints c = new CellConstraints();
         configurationPanel.add(new JLabel("Working directory"), c.xy(1, 1));
@@ -54,6 +72,17 @@ public class LeiningenRunConfigurationSettings extends SettingsEditor<LeiningenR
         configurationPanel.add(new JLabel("Goals to run (separate with space)"), c.xy(1, 4));
         this.goals = new TextFieldWithAutoCompletion<String>(myProject, new TextFieldWithAutoCompletion.StringsCompletionProvider(Arrays.asList(LeiningenConstants.GOALS),null), true,null );
         configurationPanel.add(this.goals, c.xy(1, 5));
+        this.fastLaunch = new JCheckBox("Fast launch: after the first run, start the project JVM without Leiningen (run and test only)");
+        this.fastLaunch.setToolTipText("Reuses the classpath and JVM arguments of the first run until project.clj or a profiles.clj changes.");
+        configurationPanel.add(this.fastLaunch, c.xy(1, 7));
+        this.testResults = new JCheckBox("Show the results of test goals in the test runner");
+        this.testResults.setToolTipText("Runs the tests through \"lein run\" with a reporter for the test runner. Test selectors still run in the console.");
+        configurationPanel.add(this.testResults, c.xy(1, 8));
+        configurationPanel.add(new JLabel("Test JVMs, the test namespaces are spread over them by their last durations"),
+                c.xy(1, 9));
+        this.testJvms = new JTextField();
+        this.testJvms.setToolTipText("Only with the results in the test runner. 1 runs all tests in one JVM.");
+        configurationPanel.add(this.testJvms, c.xy(1, 10));
         return configurationPanel;
     }
 
@@ -9,15 +9,16 @@ import com.intellij.execution.executors.DefaultRunExecutor;
 import com.intellij.execution.process.ProcessAdapter;
 import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessListener;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.execution.runners.ProgramRunner;
 import com.intellij.execution.ui.RunContentDescriptor;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
-import com.intellij.openapi.vfs.LocalFileSystem;
 import de.janthomae.leiningenplugin.LeiningenIcons;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 
@@ -77,9 +78,19 @@ public class LeiningenRunConfigurationType implements LocatableConfigurationType
         return new ConfigurationFactory[]{myFactory};
     }
 
-    public static void runConfiguration(Project project,
-                                        LeiningenRunnerParameters params,
+    public static void runConfiguration(final Project project,
+                                        final LeiningenRunnerParameters params,
                                         DataContext context) {
+        runConfiguration(project, params, context, null);
+    }
+
+    /**
+     * @param listener notified of the run's process as well, eg. to act on its exit code
+     */
+    public static void runConfiguration(final Project project,
+                                        final LeiningenRunnerParameters params,
+                                        DataContext context,
+                                        @Nullable final ProcessListener listener) {
         RunnerAndConfigurationSettings configSettings = createRunnerAndConfigurationSettings(
                 params,
                 project);
@@ -93,10 +104,13 @@ public class LeiningenRunConfigurationType implements LocatableConfigurationType
                 public void processStarted(RunContentDescriptor runContentDescriptor) {
                     final ProcessHandler runContentDescriptorProcessHandler = runContentDescriptor.getProcessHandler();
                     if (runContentDescriptorProcessHandler != null) {
+                        if (listener != null) {
+                            runContentDescriptorProcessHandler.addProcessListener(listener);
+                        }
                         runContentDescriptorProcessHandler.addProcessListener(new ProcessAdapter() {
                             @Override
                             public void processTerminated(ProcessEvent event) {
-                                LocalFileSystem.getInstance().refreshWithoutFileWatcher(true);
+                                PostRunRefresh.getInstance().schedule(project, params);
                             }
                         });
                     }
@@ -12,6 +12,9 @@ import java.util.List;
 public class LeiningenRunnerParameters implements Cloneable {
     private List<String> myGoals;
     private String myWorkingDirectory;
+    private boolean myFastLaunch;
+    private boolean myTestResults;
+    private int myTestJvms = 1;
 
 
     // Serialization, only.
@@ -36,6 +39,9 @@ public class LeiningenRunnerParameters implements Cloneable {
         if (myWorkingDirectory != null ? !myWorkingDirectory
                 .equals(that.myWorkingDirectory) : that.myWorkingDirectory != null)
             return false;
+        if (myFastLaunch != that.myFastLaunch) return false;
+        if (myTestResults != that.myTestResults) return false;
+        if (myTestJvms != that.myTestJvms) return false;
 
         return true;
     }
@@ -44,6 +50,9 @@ public class LeiningenRunnerParameters implements Cloneable {
     public int hashCode() {
         int result = myGoals != null ? myGoals.hashCode() : 0;
         result = 31 * result + (myWorkingDirectory != null ? myWorkingDirectory.hashCode() : 0);
+        result = 31 * result + (myFastLaunch ? 1 : 0);
+        result = 31 * result + (myTestResults ? 1 : 0);
+        result = 31 * result + myTestJvms;
         return result;
     }
 
@@ -65,4 +74,39 @@ public class LeiningenRunnerParameters implements Cloneable {
     public void setWorkingDirectory(String workingDirectory) {
         this.myWorkingDirectory = workingDirectory;
     }
+
+    /**
+     * If set, the goals are run in the project JVM directly once Leiningen's command line for them is known, see
+     * {@link LaunchCommandCache}.
+     */
+    public boolean isFastLaunch() {
+        return myFastLaunch;
+    }
+
+    public void setFastLaunch(boolean fastLaunch) {
+        this.myFastLaunch = fastLaunch;
+    }
+
+    /**
+     * If set, the results of "test" goals are shown in the test runner, see {@link TestResults}.
+     */
+    public boolean isTestResults() {
+        return myTestResults;
+    }
+
+    public void setTestResults(boolean testResults) {
+        this.myTestResults = testResults;
+    }
+
+    /**
+     * How many JVMs the test namespaces are spread over when the results are shown in the test runner, see
+     * {@link ShardedTestRun}.
+     */
+    public int getTestJvms() {
+        return myTestJvms;
+    }
+
+    public void setTestJvms(int testJvms) {
+        this.myTestJvms = testJvms;
+    }
 }
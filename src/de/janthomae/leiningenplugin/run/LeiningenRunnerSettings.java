@@ -13,6 +13,7 @@ import java.io.FilenameFilter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author <a href="janthomae@janthomae.de">Jan Thom&auml;</a>
@@ -41,6 +42,83 @@ public class LeiningenRunnerSettings implements PersistentStateComponent<Leining
 
     public boolean overrideLeiningenJar = false;
 
+    /**
+     * If set, dependencies are resolved against the local repository only.
+     */
+    public boolean offlineResolution = false;
+
+    /**
+     * Comma separated profiles to import projects with, unless a project selects its own. Leiningen's default profiles
+     * are used if this is empty.
+     */
+    @NotNull
+    public String defaultProfiles = "";
+
+    /**
+     * How long reading a project file or resolving its dependencies may take before the import gives up on it.
+     */
+    public int resolutionTimeoutSeconds = 300;
+
+    /**
+     * How many imports and refreshes the diagnostics tool window keeps per project.
+     */
+    public int importHistorySize = 20;
+
+    /**
+     * If set, the import history is stored with the workspace and survives a restart.
+     */
+    public boolean persistImportHistory = false;
+
+    /**
+     * After how many seconds an import counts as slow and thread dumps are captured, 0 to never capture them.
+     */
+    public int slowImportThresholdSeconds = 60;
+
+    /**
+     * How often the threads of a slow import are dumped.
+     */
+    public int threadDumpIntervalSeconds = 10;
+
+    /**
+     * Comma separated folder patterns to exclude from every imported module, in addition to the build output, eg.
+     * "resources/public/js/out, doc/*". Relative to the project directory.
+     */
+    @NotNull
+    public String excludedFolders = "";
+
+    /**
+     * If set, goals run in a Leiningen JVM which is kept running per project instead of a fresh "lein" process.
+     */
+    public boolean warmJvm = false;
+
+    /**
+     * After how many minutes without a goal a warm Leiningen JVM is stopped.
+     */
+    public int warmJvmIdleMinutes = 30;
+
+    /**
+     * If set, the Leiningen JVMs are started with a class data sharing archive of the Leiningen jar, see
+     * {@link ClassDataSharing}. Needs Java 13 or later.
+     */
+    public boolean classDataSharing = false;
+
+    /**
+     * If set, fast launched project JVMs get class data sharing archives of their dependencies, too. Only a classpath
+     * which starts with its jars can use one; the order of the classpath is never changed for it.
+     */
+    public boolean classDataSharingProjects = false;
+
+    /**
+     * How many projects a goal run across several projects runs at the same time, 0 for one per processor.
+     */
+    public int parallelProcesses = 0;
+
+    /**
+     * How many megabytes of goal output a console shows, 0 for no limit. Beyond that the end of the output is shown when
+     * the goal finishes, and the full output is in a temporary file, see {@link BoundedOutput}.
+     */
+    public int consoleLimitMegabytes = 16;
+
 
 
     /**
@@ -143,6 +221,56 @@ public class LeiningenRunnerSettings implements PersistentStateComponent<Leining
     }
 
 
+    /**
+     * Returns the default profiles as a list.
+     * @return the profile names, empty for Leiningen's own defaults.
+     */
+    @NotNull
+    public List<String> getDefaultProfiles() {
+        return splitProfiles(defaultProfiles);
+    }
+
+    /**
+     * Splits a comma separated list of profile names.
+     * @param profiles the profile names, eg. "dev, test"
+     * @return the profile names without blanks.
+     */
+    @NotNull
+    public static List<String> splitProfiles(String profiles) {
+        List<String> result = new ArrayList<String>();
+        for (String profile : StringUtil.split(profiles, ",")) {
+            String trimmed = profile.trim();
+            if (trimmed.length() > 0) {
+                result.add(trimmed.startsWith(":") ? trimmed.substring(1) : trimmed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the extra excluded folder patterns as a list.
+     * @return the patterns, without blanks.
+     */
+    @NotNull
+    public List<String> getExcludedFolderPatterns() {
+        List<String> result = new ArrayList<String>();
+        for (String pattern : StringUtil.split(excludedFolders, ",")) {
+            String trimmed = pattern.trim();
+            if (trimmed.length() > 0) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns how many projects run at the same time.
+     * @return the configured number, or the number of processors.
+     */
+    public int getParallelProcesses() {
+        return parallelProcesses > 0 ? parallelProcesses : Runtime.getRuntime().availableProcessors();
+    }
+
     public static LeiningenRunnerSettings getInstance() {
         return ServiceManager.getService(LeiningenRunnerSettings.class);
     }
@@ -0,0 +1,372 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.ExecutionManager;
+import com.intellij.execution.executors.DefaultRunExecutor;
+import com.intellij.execution.filters.TextConsoleBuilder;
+import com.intellij.execution.filters.TextConsoleBuilderFactory;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.execution.ui.RunContentDescriptor;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the same goals in several Leiningen projects, at most {@link LeiningenRunnerSettings#getParallelProcesses()} of
+ * them at a time. Each project is started like a run configuration, see {@link LeiningenProcessLauncher}, and gets a
+ * tab with its own console. The first tab shows the output of all projects, each line prefixed with the project name,
+ * and a pass/fail summary at the end. Stopping the run stops all running projects and starts no more.
+ * <p/>
+ * A run in dependency order starts a project only once the projects it depends on passed, see {@link BuildGraph}, and
+ * starts no more projects after the first failure. Its summary names the critical path, the chain of projects which
+ * took longest one after another.
+ */
+public class MultiProjectRun extends ProcessHandler {
+    private final Project myProject;
+    private final LeiningenRunnerSettings mySettings;
+    private final List<Entry> myEntries = new ArrayList<Entry>();
+    private final int myParallelism;
+    private final BoundedOutput myOutput;
+    private final boolean myOrdered;
+    private final long myStart = System.currentTimeMillis();
+    private JTabbedPane myTabs;
+    private int myRunning;
+    private boolean myStopped;
+    private boolean myFinished;
+
+    private MultiProjectRun(Project project, List<LeiningenProject> projects,
+                            @Nullable BuildGraph<LeiningenProject> graph, List<String> goals) {
+        myProject = project;
+        mySettings = LeiningenRunnerSettings.getInstance();
+        myParallelism = Math.max(1, mySettings.getParallelProcesses());
+        myOutput = new BoundedOutput(mySettings.consoleLimitMegabytes, new BoundedOutput.Sink() {
+            public void print(String text, Key outputType) {
+                MultiProjectRun.super.notifyTextAvailable(text, outputType);
+            }
+        });
+        myOrdered = graph != null;
+        Map<LeiningenProject, Entry> byProject = new HashMap<LeiningenProject, Entry>();
+        for (LeiningenProject project : projects) {
+            Entry entry = new Entry(project.getDisplayName(),
+                    new LeiningenRunnerParameters(goals, project.getWorkingDir().getPath()));
+            if (graph != null) {
+                for (LeiningenProject dependency : graph.getDependencies(project)) {
+                    entry.dependencies.add(byProject.get(dependency));
+                }
+            }
+            byProject.put(project, entry);
+            myEntries.add(entry);
+        }
+    }
+
+    /**
+     * Shows a new run in the Run tool window and starts it.
+     *
+     * @param project  the IDEA project
+     * @param projects the Leiningen projects to run the goals in
+     * @param goals    the goals
+     */
+    public static void start(Project project, List<LeiningenProject> projects, List<String> goals) {
+        show(project, new MultiProjectRun(project, projects, null, goals), goals);
+    }
+
+    /**
+     * Shows a new run in the Run tool window and starts it, running each project after the ones it depends on.
+     *
+     * @param project the IDEA project
+     * @param graph   the Leiningen projects to run the goals in, without cycles
+     * @param goals   the goals
+     */
+    public static void startInOrder(Project project, BuildGraph<LeiningenProject> graph, List<String> goals) {
+        List<LeiningenProject> order = graph.topologicalOrder();
+        if (order == null) {
+            throw new IllegalArgumentException("The projects depend on each other: " + graph.findCycle());
+        }
+        show(project, new MultiProjectRun(project, order, graph, goals), goals);
+    }
+
+    private static void show(Project project, MultiProjectRun run, List<String> goals) {
+        ConsoleView summary = createConsole(project);
+        summary.attachToProcess(run);
+        run.myTabs = new JTabbedPane();
+        run.myTabs.addTab("All projects", summary.getComponent());
+        for (Entry entry : run.myEntries) {
+            entry.console = createConsole(project);
+            run.myTabs.addTab(entry.name, entry.console.getComponent());
+        }
+
+        String title = "lein " + StringUtil.join(goals, " ") + " (" + run.myEntries.size() + " projects)";
+        RunContentDescriptor descriptor = new RunContentDescriptor(summary, run, run.myTabs, title);
+        Disposer.register(descriptor, summary);
+        for (Entry entry : run.myEntries) {
+            Disposer.register(descriptor, entry.console);
+        }
+        ExecutionManager.getInstance(project).getContentManager()
+                .showRunContent(DefaultRunExecutor.getRunExecutorInstance(), descriptor);
+        run.startNotify();
+    }
+
+    private static ConsoleView createConsole(Project project) {
+        TextConsoleBuilder builder = TextConsoleBuilderFactory.getInstance().createBuilder(project);
+        builder.addFilter(new BoundedOutput.FullOutputFilter());
+        return builder.getConsole();
+    }
+
+    @Override
+    public void notifyTextAvailable(String text, Key outputType) {
+        myOutput.add(text, outputType);
+    }
+
+    @Override
+    public void startNotify() {
+        super.startNotify();
+        notifyTextAvailable("Running in " + myEntries.size() + " projects" + (myOrdered ? " in dependency order" : "") +
+                ", " + myParallelism + " at a time\n", ProcessOutputTypes.SYSTEM);
+        startMore();
+    }
+
+    private void startMore() {
+        List<Entry> toStart = new ArrayList<Entry>();
+        synchronized (this) {
+            Entry next;
+            while (!myStopped && myRunning < myParallelism && (next = nextReady()) != null) {
+                next.started = true;
+                toStart.add(next);
+                myRunning++;
+            }
+        }
+        for (Entry entry : toStart) {
+            start(entry);
+        }
+        finishIfDone();
+    }
+
+    /**
+     * @return the first project which has not been started and whose dependencies all passed, or null
+     */
+    private Entry nextReady() {
+        for (Entry entry : myEntries) {
+            if (!entry.started && entry.isReady()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void start(final Entry entry) {
+        entry.start = System.currentTimeMillis();
+        ProcessHandler handler;
+        try {
+            handler = new LeiningenProcessLauncher(mySettings, entry.parameters).start();
+        } catch (ExecutionException e) {
+            entry.console.print(e.getMessage() + "\n", ConsoleViewContentType.ERROR_OUTPUT);
+            ended(entry, -1);
+            return;
+        }
+        synchronized (this) {
+            entry.handler = handler;
+        }
+        entry.console.attachToProcess(handler);
+        handler.addProcessListener(new ProcessAdapter() {
+            private final StringBuilder myLine = new StringBuilder();
+
+            @Override
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                String text = event.getText();
+                int start = 0;
+                int newline;
+                while ((newline = text.indexOf('\n', start)) >= 0) {
+                    myLine.append(text, start, newline + 1);
+                    notifyTextAvailable("[" + entry.name + "] " + myLine, outputType);
+                    myLine.setLength(0);
+                    start = newline + 1;
+                }
+                myLine.append(text, start, text.length());
+            }
+
+            @Override
+            public void processTerminated(ProcessEvent event) {
+                if (myLine.length() > 0) {
+                    notifyTextAvailable("[" + entry.name + "] " + myLine + "\n", ProcessOutputTypes.STDOUT);
+                }
+                ended(entry, event.getExitCode());
+            }
+        });
+        handler.startNotify();
+    }
+
+    private void ended(final Entry entry, int exitCode) {
+        entry.millis = System.currentTimeMillis() - entry.start;
+        entry.exitCode = exitCode;
+        boolean stopping;
+        synchronized (this) {
+            entry.handler = null;
+            myRunning--;
+            stopping = myOrdered && !entry.passed() && !myStopped;
+            if (stopping) {
+                myStopped = true;
+            }
+        }
+        PostRunRefresh.getInstance().schedule(myProject, entry.parameters);
+        notifyTextAvailable("[" + entry.name + "] " + entry.describe() + "\n", ProcessOutputTypes.SYSTEM);
+        if (stopping) {
+            notifyTextAvailable("Starting no more projects, the running ones are left to finish\n",
+                    ProcessOutputTypes.STDERR);
+        }
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                int index = myEntries.indexOf(entry) + 1;
+                myTabs.setTitleAt(index, entry.name + (entry.passed() ? "" : " (failed)"));
+            }
+        });
+        startMore();
+    }
+
+    private void finishIfDone() {
+        synchronized (this) {
+            if (myFinished || myRunning > 0 || !myStopped && nextReady() != null) {
+                return;
+            }
+            myFinished = true;
+        }
+        int passed = 0;
+        int failed = 0;
+        StringBuilder lines = new StringBuilder();
+        BuildGraph<Entry> graph = new BuildGraph<Entry>();
+        Map<Entry, Long> durations = new HashMap<Entry, Long>();
+        for (Entry entry : myEntries) {
+            graph.add(entry);
+            for (Entry dependency : entry.dependencies) {
+                graph.addDependency(entry, dependency);
+            }
+            if (entry.exitCode == null) {
+                if (myOrdered) {
+                    lines.append("  ").append(entry.name).append(": not run\n");
+                }
+                continue;
+            }
+            durations.put(entry, entry.millis);
+            if (entry.passed()) {
+                passed++;
+            } else {
+                failed++;
+            }
+            lines.append("  ").append(entry.name).append(": ").append(entry.describe()).append('\n');
+        }
+        int notRun = myEntries.size() - passed - failed;
+        long wallTime = System.currentTimeMillis() - myStart;
+        if (myOrdered && !durations.isEmpty()) {
+            List<Entry> path = graph.criticalPath(durations);
+            List<String> names = new ArrayList<String>();
+            for (Entry entry : path) {
+                names.add(entry.name);
+            }
+            lines.append("Critical path: ").append(StringUtil.join(names, " -> ")).append(", ")
+                    .append(StringUtil.formatDuration(BuildGraph.duration(path, durations))).append(" of ")
+                    .append(StringUtil.formatDuration(wallTime)).append('\n');
+        }
+        notifyTextAvailable("\nSummary: " + passed + " passed, " + failed + " failed" +
+                (notRun > 0 ? ", " + notRun + " not run" : "") + " in " + StringUtil.formatDuration(wallTime) + "\n" +
+                lines, failed > 0 ? ProcessOutputTypes.STDERR : ProcessOutputTypes.SYSTEM);
+        myOutput.close();
+        notifyProcessTerminated(failed > 0 || notRun > 0 ? 1 : 0);
+    }
+
+    @Override
+    protected void destroyProcessImpl() {
+        List<ProcessHandler> running = new ArrayList<ProcessHandler>();
+        synchronized (this) {
+            myStopped = true;
+            for (Entry entry : myEntries) {
+                if (entry.handler != null) {
+                    running.add(entry.handler);
+                }
+            }
+        }
+        for (ProcessHandler handler : running) {
+            handler.destroyProcess();
+        }
+        finishIfDone();
+    }
+
+    @Override
+    protected void detachProcessImpl() {
+        List<ProcessHandler> running = new ArrayList<ProcessHandler>();
+        synchronized (this) {
+            myStopped = true;
+            myFinished = true;
+            for (Entry entry : myEntries) {
+                if (entry.handler != null) {
+                    running.add(entry.handler);
+                }
+            }
+        }
+        for (ProcessHandler handler : running) {
+            handler.detachProcess();
+        }
+        myOutput.close();
+        notifyProcessDetached();
+    }
+
+    @Override
+    public boolean detachIsDefault() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public OutputStream getProcessInput() {
+        return null;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final LeiningenRunnerParameters parameters;
+        private final List<Entry> dependencies = new ArrayList<Entry>();
+        private boolean started;
+        private ConsoleView console;
+        private ProcessHandler handler;
+        private long start;
+        private long millis;
+        private volatile Integer exitCode;
+
+        private Entry(String name, LeiningenRunnerParameters parameters) {
+            this.name = name;
+            this.parameters = parameters;
+        }
+
+        private boolean passed() {
+            return exitCode != null && exitCode == 0;
+        }
+
+        private boolean isReady() {
+            for (Entry dependency : dependencies) {
+                if (!dependency.passed()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String describe() {
+            return (passed() ? "passed" : "failed with exit code " + exitCode) + " in " +
+                    StringUtil.formatDuration(millis);
+        }
+    }
+}
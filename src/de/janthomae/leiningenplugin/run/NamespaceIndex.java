@@ -0,0 +1,385 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The namespaces of a project's .clj files and the namespaces they require or use, read from their ns forms. Kept in a
+ * properties file per project in the system directory; only the files which changed since the last update are read
+ * again.
+ */
+public class NamespaceIndex {
+    private static final Logger log = Logger.getInstance(NamespaceIndex.class);
+
+    private static final Pattern NS = Pattern.compile("^\\s*\\(\\s*ns\\s", Pattern.MULTILINE);
+
+    private final String myDirectory;
+    private final Map<String, Entry> myEntries = new HashMap<String, Entry>();
+
+    private NamespaceIndex(String directory) {
+        myDirectory = directory;
+    }
+
+    /**
+     * @param directory the project directory
+     * @return the index as of its last update, empty if there was none
+     */
+    public static synchronized NamespaceIndex load(String directory) {
+        NamespaceIndex index = new NamespaceIndex(directory);
+        File file = file(directory);
+        if (!file.isFile()) {
+            return index;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.info("Could not read " + file + ": " + e.getMessage());
+        }
+        for (String path : properties.stringPropertyNames()) {
+            List<String> values = StringUtil.split(properties.getProperty(path), " ");
+            if (values.size() < 2) {
+                continue;
+            }
+            try {
+                index.myEntries.put(path, new Entry(Long.parseLong(values.get(0)), values.get(1),
+                        new ArrayList<String>(values.subList(2, values.size()))));
+            } catch (NumberFormatException e) {
+                // read it again then
+            }
+        }
+        return index;
+    }
+
+    public void save() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(entry.getKey(), value.myModified + " " + value.myNamespace +
+                    (value.myDependencies.isEmpty() ? "" : " " + StringUtil.join(value.myDependencies, " ")));
+        }
+        write(myDirectory, properties);
+    }
+
+    private static synchronized void write(String directory, Properties properties) {
+        File file = file(directory);
+        try {
+            FileUtil.createParentDirs(file);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, directory);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.info("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the index was never updated
+     */
+    public boolean isEmpty() {
+        return myEntries.isEmpty();
+    }
+
+    /**
+     * Reads the .clj files below the directories which are new or changed since the last update and forgets the ones
+     * which are gone.
+     *
+     * @param directories the source and test paths
+     * @return the namespaces of the files which were added, changed or removed
+     */
+    public Set<String> update(List<String> directories) {
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<String> seen = new HashSet<String>();
+        for (String directory : directories) {
+            update(new File(directory), seen, changed);
+        }
+        for (String path : new ArrayList<String>(myEntries.keySet())) {
+            if (!seen.contains(path)) {
+                changed.add(myEntries.remove(path).myNamespace);
+            }
+        }
+        return changed;
+    }
+
+    private void update(File file, Set<String> seen, Set<String> changed) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                update(child, seen, changed);
+            }
+            return;
+        }
+        if (!file.getName().endsWith(".clj")) {
+            return;
+        }
+        String path = file.getAbsolutePath();
+        Entry entry = myEntries.get(path);
+        if (entry != null && entry.myModified == file.lastModified()) {
+            seen.add(path);
+            return;
+        }
+        Entry read = read(file);
+        if (read == null) {
+            if (entry != null) {
+                changed.add(entry.myNamespace);
+            }
+            return;
+        }
+        seen.add(path);
+        myEntries.put(path, read);
+        changed.add(read.myNamespace);
+    }
+
+    /**
+     * @param path a file in the index
+     * @return its namespace, null if it is not in the index
+     */
+    public String getNamespace(String path) {
+        Entry entry = myEntries.get(new File(path).getAbsolutePath());
+        return entry != null ? entry.myNamespace : null;
+    }
+
+    /**
+     * @param directories directories, eg. the test paths
+     * @return the namespaces of the files below them
+     */
+    public Set<String> getNamespaces(List<String> directories) {
+        Set<String> namespaces = new HashSet<String>();
+        for (Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+            for (String directory : directories) {
+                if (FileUtil.isAncestor(new File(directory), new File(entry.getKey()), true)) {
+                    namespaces.add(entry.getValue().myNamespace);
+                }
+            }
+        }
+        return namespaces;
+    }
+
+    /**
+     * @param changed    changed namespaces
+     * @param candidates the namespaces to choose from, eg. the test namespaces
+     * @return the candidates which are changed or require a changed namespace, directly or through others, sorted
+     */
+    public List<String> getDependents(Collection<String> changed, Set<String> candidates) {
+        Map<String, List<String>> dependents = new HashMap<String, List<String>>();
+        for (Entry entry : myEntries.values()) {
+            for (String dependency : entry.myDependencies) {
+                if (!dependents.containsKey(dependency)) {
+                    dependents.put(dependency, new ArrayList<String>());
+                }
+                dependents.get(dependency).add(entry.myNamespace);
+            }
+        }
+        Set<String> affected = new HashSet<String>();
+        List<String> queue = new ArrayList<String>(changed);
+        while (!queue.isEmpty()) {
+            String namespace = queue.remove(queue.size() - 1);
+            if (affected.add(namespace) && dependents.containsKey(namespace)) {
+                queue.addAll(dependents.get(namespace));
+            }
+        }
+        List<String> result = new ArrayList<String>();
+        for (String namespace : affected) {
+            if (candidates.contains(namespace)) {
+                result.add(namespace);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the entry for a file, null if it has no ns form or could not be read
+     */
+    private static Entry read(File file) {
+        String text;
+        try {
+            text = FileUtil.loadFile(file, "UTF-8");
+        } catch (IOException e) {
+            return null;
+        }
+        Matcher matcher = NS.matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        List<Object> form = new Reader(text, text.indexOf('(', matcher.start())).readForm();
+        if (form == null || form.size() < 2 || !(form.get(1) instanceof String)) {
+            return null;
+        }
+        return new Entry(file.lastModified(), (String) form.get(1), getDependencies(form));
+    }
+
+    /**
+     * @param form an ns form, as read by {@link Reader}
+     * @return the namespaces it requires or uses
+     */
+    static List<String> getDependencies(List<Object> form) {
+        List<String> dependencies = new ArrayList<String>();
+        for (Object clause : form.subList(2, form.size())) {
+            if (clause instanceof List && !((List) clause).isEmpty()) {
+                List elements = (List) clause;
+                Object kind = elements.get(0);
+                if (":require".equals(kind) || ":use".equals(kind)) {
+                    for (Object libspec : elements.subList(1, elements.size())) {
+                        addLibs("", libspec, dependencies);
+                    }
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Adds the namespaces of a libspec, eg. "a.b", "[a.b :as c]" or the prefix list "[a b [c :as d] e]".
+     */
+    private static void addLibs(String prefix, Object libspec, List<String> dependencies) {
+        if (libspec instanceof String) {
+            String name = (String) libspec;
+            if (!name.startsWith(":")) {
+                dependencies.add(prefix + name);
+            }
+            return;
+        }
+        if (!(libspec instanceof List) || ((List) libspec).isEmpty() || !(((List) libspec).get(0) instanceof String)) {
+            return;
+        }
+        List elements = (List) libspec;
+        String name = prefix + elements.get(0);
+        boolean prefixList = elements.size() > 1 && !(elements.get(1) instanceof String &&
+                ((String) elements.get(1)).startsWith(":"));
+        if (!prefixList) {
+            dependencies.add(name);
+            return;
+        }
+        for (Object element : elements.subList(1, elements.size())) {
+            addLibs(name + ".", element, dependencies);
+        }
+    }
+
+    private static File file(String directory) {
+        String name = ClassDataSharing.digest(new File(directory).getAbsolutePath()) + ".properties";
+        return new File(PathManager.getSystemPath(), "leiningen" + File.separator + "namespace-index" +
+                File.separator + name);
+    }
+
+    private static class Entry {
+        private final long myModified;
+        private final String myNamespace;
+        private final List<String> myDependencies;
+
+        private Entry(long modified, String namespace, List<String> dependencies) {
+            myModified = modified;
+            myNamespace = namespace;
+            myDependencies = dependencies;
+        }
+    }
+
+    /**
+     * Reads just enough Clojure for ns forms: lists and vectors become lists, symbols and keywords strings; strings,
+     * metadata, maps and the like are skipped.
+     */
+    static class Reader {
+        private final String myText;
+        private int myPos;
+
+        Reader(String text, int start) {
+            myText = text;
+            myPos = start;
+        }
+
+        /**
+         * @return the form starting at the current position, null if it does not end
+         */
+        List<Object> readForm() {
+            char open = myText.charAt(myPos++);
+            char close = open == '(' ? ')' : open == '[' ? ']' : '}';
+            List<Object> form = new ArrayList<Object>();
+            while (myPos < myText.length()) {
+                char c = myText.charAt(myPos);
+                if (c == close) {
+                    myPos++;
+                    return form;
+                } else if (c == '(' || c == '[') {
+                    List<Object> child = readForm();
+                    if (child == null) {
+                        return null;
+                    }
+                    form.add(child);
+                } else if (c == '{') {
+                    if (readForm() == null) {
+                        return null;
+                    }
+                } else if (c == ')' || c == ']' || c == '}') {
+                    return null;
+                } else if (c == ';') {
+                    while (myPos < myText.length() && myText.charAt(myPos) != '\n') {
+                        myPos++;
+                    }
+                } else if (c == '"') {
+                    myPos++;
+                    while (myPos < myText.length() && myText.charAt(myPos) != '"') {
+                        myPos += myText.charAt(myPos) == '\\' ? 2 : 1;
+                    }
+                    myPos++;
+                } else if (c == '\\') {
+                    myPos += 2;
+                } else if (c == '^') {
+                    myPos++;
+                    if (myPos < myText.length() && myText.charAt(myPos) == '{') {
+                        if (readForm() == null) {
+                            return null;
+                        }
+                    } else {
+                        readToken();
+                    }
+                } else if (Character.isWhitespace(c) || c == ',' || c == '\'' || c == '#') {
+                    myPos++;
+                } else {
+                    form.add(readToken());
+                }
+            }
+            return null;
+        }
+
+        private String readToken() {
+            int start = myPos;
+            while (myPos < myText.length() && !isDelimiter(myText.charAt(myPos))) {
+                myPos++;
+            }
+            return myText.substring(start, myPos);
+        }
+
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == ',' || "()[]{}\";".indexOf(c) >= 0;
+        }
+    }
+}
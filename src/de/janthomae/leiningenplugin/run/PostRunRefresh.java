@@ -0,0 +1,155 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import de.janthomae.leiningenplugin.LeiningenConstants;
+import de.janthomae.leiningenplugin.module.ModuleCreationUtils;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the files a finished goal may have written, instead of the whole local file system: the output directories
+ * of the project, its top level, eg. for pom.xml, and for "install" the artifact's directory in the local repository.
+ * The directories come from the project map of the managed project; goals run in other directories refresh the whole
+ * directory.
+ * <p/>
+ * Goals finishing within {@link #DELAY_MS} of each other, eg. in a run across several projects, are refreshed in one
+ * asynchronous refresh.
+ */
+public class PostRunRefresh {
+    private static final long DELAY_MS = 300;
+
+    private static final String[] OUTPUT_PATHS =
+            {ModuleCreationUtils.LEIN_TARGET_PATH, ModuleCreationUtils.LEIN_COMPILE_PATH};
+
+    private static final PostRunRefresh ourInstance = new PostRunRefresh();
+
+    private final Set<File> myRecursive = new LinkedHashSet<File>();
+    private final Set<File> myShallow = new LinkedHashSet<File>();
+    private boolean myScheduled;
+
+    public static PostRunRefresh getInstance() {
+        return ourInstance;
+    }
+
+    private PostRunRefresh() {
+    }
+
+    /**
+     * Schedules the refresh after goals ended.
+     *
+     * @param project    the IDEA project
+     * @param parameters the goals and the directory they ran in
+     */
+    public void schedule(Project project, LeiningenRunnerParameters parameters) {
+        File directory = new File(parameters.getWorkingDirectory());
+        VirtualFile projectFile = LocalFileSystem.getInstance()
+                .findFileByIoFile(new File(directory, LeiningenConstants.PROJECT_CLJ));
+        LeiningenProject leiningenProject = projectFile != null && !project.isDisposed()
+                ? LeiningenProjectsManager.getInstance(project).getProjectByProjectFile(projectFile) : null;
+
+        List<File> recursive = new ArrayList<File>();
+        List<File> shallow = new ArrayList<File>();
+        if (leiningenProject == null) {
+            recursive.add(directory);
+        } else {
+            Map projectMap = leiningenProject.getProjectMap();
+            shallow.add(directory);
+            for (String key : OUTPUT_PATHS) {
+                Object path = projectMap.get(key);
+                if (path instanceof String) {
+                    recursive.add(new File((String) path));
+                }
+            }
+            if (parameters.getGoals().contains("install")) {
+                recursive.add(localRepositoryDirectory(leiningenProject));
+            }
+        }
+
+        synchronized (this) {
+            myRecursive.addAll(recursive);
+            myShallow.addAll(shallow);
+            if (myScheduled) {
+                return;
+            }
+            myScheduled = true;
+        }
+        JobScheduler.getScheduler().schedule(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static File localRepositoryDirectory(LeiningenProject leiningenProject) {
+        Object localRepo = leiningenProject.getProjectMap().get("local-repo");
+        File repository = new File(System.getProperty("user.home"), ".m2" + File.separator + "repository");
+        if (localRepo instanceof String) {
+            repository = new File((String) localRepo);
+            if (!repository.isAbsolute()) {
+                repository = new File(leiningenProject.getWorkingDir().getPath(), (String) localRepo);
+            }
+        }
+        String group = StringUtil.notNullize(leiningenProject.getGroup(), leiningenProject.getName());
+        return new File(repository, group.replace('.', File.separatorChar) + File.separator +
+                leiningenProject.getName());
+    }
+
+    private void refresh() {
+        List<VirtualFile> recursive = new ArrayList<VirtualFile>();
+        List<VirtualFile> shallow = new ArrayList<VirtualFile>();
+        synchronized (this) {
+            findFiles(myRecursive, true, recursive, shallow);
+            findFiles(myShallow, false, recursive, shallow);
+            myRecursive.clear();
+            myShallow.clear();
+            myScheduled = false;
+        }
+        if (!recursive.isEmpty()) {
+            RefreshQueue.getInstance().refresh(true, true, null, recursive.toArray(new VirtualFile[recursive.size()]));
+        }
+        if (!shallow.isEmpty()) {
+            RefreshQueue.getInstance().refresh(true, false, null, shallow.toArray(new VirtualFile[shallow.size()]));
+        }
+    }
+
+    /**
+     * Finds the files in the VFS and marks them dirty, so that the refresh looks at them. A file the VFS does not know
+     * yet, eg. a new target directory, is found by refreshing its nearest known parent; its children are loaded from
+     * disk when they are first needed.
+     */
+    private static void findFiles(Set<File> files, boolean recursive, List<VirtualFile> recursiveFiles,
+                                  List<VirtualFile> shallowFiles) {
+        for (File file : files) {
+            VirtualFile virtualFile = LocalFileSystem.getInstance().findFileByIoFile(file);
+            boolean known = virtualFile != null;
+            for (File parent = file.getParentFile(); virtualFile == null && parent != null;
+                 parent = parent.getParentFile()) {
+                virtualFile = LocalFileSystem.getInstance().findFileByIoFile(parent);
+            }
+            if (!(virtualFile instanceof NewVirtualFile)) {
+                continue;
+            }
+            if (recursive && known) {
+                ((NewVirtualFile) virtualFile).markDirtyRecursively();
+                recursiveFiles.add(virtualFile);
+            } else {
+                ((NewVirtualFile) virtualFile).markDirty();
+                shallowFiles.add(virtualFile);
+            }
+        }
+    }
+}
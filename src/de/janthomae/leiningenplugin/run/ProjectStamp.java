@@ -0,0 +1,21 @@
+package de.janthomae.leiningenplugin.run;
+
+import de.janthomae.leiningenplugin.LeiningenConstants;
+
+import java.io.File;
+
+/**
+ * The modification times of the files which decide how Leiningen runs a project: its project.clj, its profiles.clj
+ * and the user's profiles.clj. Whatever was derived from a project for running it is stale once this changes.
+ */
+class ProjectStamp {
+    private ProjectStamp() {
+    }
+
+    static long of(String directory, LeiningenRunnerSettings settings) {
+        File projectDir = new File(directory);
+        return new File(projectDir, LeiningenConstants.PROJECT_CLJ).lastModified() * 31 +
+                new File(projectDir, "profiles.clj").lastModified() * 17 +
+                new File(settings.getRealLeiningenHome(), "profiles.clj").lastModified();
+    }
+}
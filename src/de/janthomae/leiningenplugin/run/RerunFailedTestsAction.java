@@ -0,0 +1,98 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the tests which failed in a run shown in the test runner again, see {@link TestResults}. The failed tests are
+ * taken from the service messages of the run.
+ */
+public class RerunFailedTestsAction extends AnAction implements DumbAware {
+    private static final Pattern FAILED = Pattern.compile("##teamcity\\[testFailed name='((?:[^'|]|\\|.)*)'");
+
+    private final LeiningenRunnerParameters myParameters;
+    private final ProcessHandler myHandler;
+    private final Set<String> myFailed = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+    public RerunFailedTestsAction(LeiningenRunnerParameters parameters, ProcessHandler handler) {
+        super("Rerun Failed Tests", "Run the tests which failed again", AllIcons.RunConfigurations.RerunFailedTests);
+        myParameters = parameters;
+        myHandler = handler;
+        handler.addProcessListener(new ProcessAdapter() {
+            private final StringBuilder myLine = new StringBuilder();
+
+            @Override
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                String text = event.getText();
+                int start = 0;
+                int newline;
+                while ((newline = text.indexOf('\n', start)) >= 0) {
+                    myLine.append(text, start, newline);
+                    collect(myLine.toString());
+                    myLine.setLength(0);
+                    start = newline + 1;
+                }
+                myLine.append(text, start, text.length());
+            }
+        });
+    }
+
+    private void collect(String line) {
+        Matcher matcher = FAILED.matcher(line);
+        if (matcher.find()) {
+            myFailed.add(unescape(matcher.group(1)));
+        }
+    }
+
+    private static String unescape(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '|' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                c = c == 'n' ? '\n' : c == 'r' ? '\r' : c;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        if (project == null) {
+            return;
+        }
+        List<String> goals = new ArrayList<String>();
+        goals.add("test");
+        synchronized (myFailed) {
+            goals.addAll(myFailed);
+        }
+        LeiningenRunnerParameters params = new LeiningenRunnerParameters(goals, myParameters.getWorkingDirectory());
+        params.setTestResults(true);
+        params.setTestJvms(myParameters.getTestJvms());
+        LeiningenRunConfigurationType.runConfiguration(project, params, e.getDataContext());
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        super.update(e);
+        e.getPresentation().setEnabled(myHandler.isProcessTerminated() && !myFailed.isEmpty());
+    }
+}
@@ -0,0 +1,127 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DataContext;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.actionSystem.impl.SimpleDataContext;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import de.janthomae.leiningenplugin.LeiningenDataKeys;
+import de.janthomae.leiningenplugin.LeiningenUtil;
+import de.janthomae.leiningenplugin.module.model.DependencyModel;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs only the tests of the selected Leiningen project which are affected by changes: the test namespaces which are
+ * changed or require a changed namespace, directly or through others, see {@link NamespaceIndex}. Changed are the
+ * files changed since the last passing run of this action and the local changes in version control, so that tests
+ * which failed run again until they pass.
+ */
+public class RunChangedTestsAction extends AnAction implements DumbAware {
+    private static final String TITLE = "Run Changed Tests";
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        final Project project = e.getData(PlatformDataKeys.PROJECT);
+        LeiningenProject leiningenProject = e.getData(LeiningenDataKeys.LEININGEN_PROJECT);
+        if (project == null || leiningenProject == null) {
+            return;
+        }
+        final String directory = leiningenProject.getWorkingDir().getPath();
+        Map projectMap = leiningenProject.getProjectMap();
+        final List<String> testPaths = DependencyModel.getPaths(DependencyModel.TEST_PATHS, projectMap);
+        if (testPaths.isEmpty()) {
+            testPaths.add(new File(directory, "test").getPath());
+        }
+        final List<String> paths = DependencyModel.getPaths(DependencyModel.SOURCE_PATHS, projectMap);
+        paths.addAll(testPaths);
+
+        final boolean versioned = ProjectLevelVcsManager.getInstance(project)
+                .getVcsFor(leiningenProject.getWorkingDir()) != null;
+        final List<String> localChanges = new ArrayList<String>();
+        if (versioned) {
+            ChangeListManager changes = ChangeListManager.getInstance(project);
+            List<VirtualFile> files = new ArrayList<VirtualFile>(changes.getAffectedFiles());
+            files.addAll(changes.getUnversionedFiles());
+            for (VirtualFile file : files) {
+                if (FileUtil.isAncestor(new File(directory), new File(file.getPath()), true)) {
+                    localChanges.add(file.getPath());
+                }
+            }
+        }
+
+        // the event's data context is only valid while the action is performed
+        final DataContext context = SimpleDataContext.getProjectContext(project);
+        new Task.Backgroundable(project, "Finding the tests affected by changes", true) {
+            private NamespaceIndex myIndex;
+            private List<String> myTests = Collections.emptyList();
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                NamespaceIndex index = NamespaceIndex.load(directory);
+                // without an earlier run only the local changes count, unless there is no version control
+                boolean known = !index.isEmpty() || !versioned;
+                Set<String> changed = index.update(paths);
+                if (!known) {
+                    changed.clear();
+                }
+                for (String path : localChanges) {
+                    String namespace = index.getNamespace(path);
+                    if (namespace != null) {
+                        changed.add(namespace);
+                    }
+                }
+                myTests = index.getDependents(changed, index.getNamespaces(testPaths));
+                myIndex = index;
+            }
+
+            @Override
+            public void onSuccess() {
+                if (myTests.isEmpty()) {
+                    myIndex.save();
+                    LeiningenUtil.notify(TITLE, "No tests are affected by the changes in " + directory + ".", project);
+                    return;
+                }
+                List<String> goals = new ArrayList<String>();
+                goals.add("test");
+                goals.addAll(myTests);
+                LeiningenRunnerParameters params = new LeiningenRunnerParameters(goals, directory);
+                params.setTestResults(true);
+                LeiningenRunConfigurationType.runConfiguration(project, params, context, new ProcessAdapter() {
+                    @Override
+                    public void processTerminated(ProcessEvent event) {
+                        // the changes count until the tests they affect pass
+                        if (event.getExitCode() == 0) {
+                            myIndex.save();
+                        }
+                    }
+                });
+            }
+        }.queue();
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        super.update(e);
+        e.getPresentation().setEnabled(e.getData(PlatformDataKeys.PROJECT) != null &&
+                e.getData(LeiningenDataKeys.LEININGEN_PROJECT) != null);
+    }
+}
@@ -0,0 +1,68 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
+import de.janthomae.leiningenplugin.LeiningenDataKeys;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs goals, eg. "install", in the selected Leiningen projects, or in all of them if none is selected, each project
+ * after the ones it depends on and independent projects in parallel.
+ */
+public class RunInDependencyOrderAction extends AnAction implements DumbAware {
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        if (project == null) {
+            return;
+        }
+        LeiningenProjectsManager manager = LeiningenProjectsManager.getInstance(project);
+        List<LeiningenProject> projects = e.getData(LeiningenDataKeys.LEININGEN_PROJECTS);
+        if (projects == null || projects.isEmpty()) {
+            projects = manager.getLeiningenProjects();
+        }
+        if (projects.isEmpty()) {
+            return;
+        }
+
+        BuildGraph<LeiningenProject> graph = manager.getDependencyGraph(projects);
+        List<LeiningenProject> cycle = graph.findCycle();
+        if (cycle != null) {
+            List<String> names = new ArrayList<String>();
+            for (LeiningenProject leiningenProject : cycle) {
+                names.add(leiningenProject.getDisplayName());
+            }
+            names.add(names.get(0));
+            Messages.showErrorDialog(project, "The projects depend on each other: " +
+                    StringUtil.join(names, " -> "), "Run in Dependency Order");
+            return;
+        }
+
+        List<String> selectedGoals = e.getData(LeiningenDataKeys.LEININGEN_GOALS);
+        String goals = Messages.showInputDialog(project,
+                "Goals to run in " + projects.size() + " projects in dependency order (separate with space):",
+                "Run in Dependency Order", Messages.getQuestionIcon(),
+                selectedGoals == null || selectedGoals.isEmpty() ? "install" : StringUtil.join(selectedGoals, " "),
+                null);
+        if (goals == null || goals.trim().isEmpty()) {
+            return;
+        }
+        MultiProjectRun.startInOrder(project, graph, StringUtil.split(goals.trim(), " "));
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        super.update(e);
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        e.getPresentation().setEnabled(project != null && LeiningenProjectsManager.getInstance(project).hasProjects());
+    }
+}
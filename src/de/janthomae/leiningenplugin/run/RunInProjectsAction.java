@@ -0,0 +1,52 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
+import de.janthomae.leiningenplugin.LeiningenDataKeys;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+
+import java.util.List;
+
+/**
+ * Runs goals in the selected Leiningen projects, or in all of them if none is selected, in parallel.
+ */
+public class RunInProjectsAction extends AnAction implements DumbAware {
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        if (project == null) {
+            return;
+        }
+        List<LeiningenProject> projects = e.getData(LeiningenDataKeys.LEININGEN_PROJECTS);
+        if (projects == null || projects.isEmpty()) {
+            projects = LeiningenProjectsManager.getInstance(project).getLeiningenProjects();
+        }
+        if (projects.isEmpty()) {
+            return;
+        }
+
+        List<String> selectedGoals = e.getData(LeiningenDataKeys.LEININGEN_GOALS);
+        String goals = Messages.showInputDialog(project,
+                "Goals to run in " + (projects.size() == 1 ? projects.get(0).getDisplayName() :
+                        projects.size() + " projects") + " (separate with space):",
+                "Run in Projects", Messages.getQuestionIcon(),
+                selectedGoals == null || selectedGoals.isEmpty() ? "test" : StringUtil.join(selectedGoals, " "), null);
+        if (goals == null || goals.trim().isEmpty()) {
+            return;
+        }
+        MultiProjectRun.start(project, projects, StringUtil.split(goals.trim(), " "));
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        super.update(e);
+        Project project = e.getData(PlatformDataKeys.PROJECT);
+        e.getPresentation().setEnabled(project != null && LeiningenProjectsManager.getInstance(project).hasProjects());
+    }
+}
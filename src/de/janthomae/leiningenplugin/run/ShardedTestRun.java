@@ -0,0 +1,264 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs test namespaces in several JVMs at once and merges their results into one test runner tree. The namespaces are
+ * spread over the JVMs by their last durations, see {@link TestDurations}, which are updated after the run with the
+ * durations the JVMs report for their suites.
+ * <p/>
+ * Each JVM reports through test_reporter.clj, see {@link TestResults}. The test runner cannot tell apart suites which
+ * run at the same time, so the output of a namespace is held back until it finished and then passed on as a whole; the
+ * tree still grows a namespace at a time. Other output is prefixed with the number of its JVM.
+ */
+public class ShardedTestRun extends ProcessHandler {
+    private static final String SUITE_STARTED = "##teamcity[testSuiteStarted ";
+    private static final String SUITE_FINISHED = "##teamcity[testSuiteFinished ";
+    private static final Pattern NAME = Pattern.compile("name='((?:[^'|]|\\|.)*)'");
+    private static final Pattern DURATION = Pattern.compile("duration='(\\d+)'");
+
+    private final LeiningenRunnerSettings mySettings;
+    private final String myDirectory;
+    private final List<List<String>> myShards = new ArrayList<List<String>>();
+    private final Map<String, Long> myDurations = new HashMap<String, Long>();
+    private final List<ProcessHandler> myHandlers = new ArrayList<ProcessHandler>();
+    private final BoundedOutput myOutput;
+    private final long myStart = System.currentTimeMillis();
+    private final int myNamespaces;
+    private int myRunning;
+    private boolean myFailed;
+    private boolean myStopped;
+
+    /**
+     * @param settings  the settings
+     * @param directory the project directory
+     * @param tests     the namespaces and vars to test, see {@link TestResults#tests}
+     * @param jvms      how many JVMs to use at most
+     */
+    public ShardedTestRun(LeiningenRunnerSettings settings, String directory, List<String> tests, int jvms) {
+        mySettings = settings;
+        myDirectory = directory;
+        Map<String, List<String>> byNamespace = new LinkedHashMap<String, List<String>>();
+        for (String test : tests) {
+            int slash = test.indexOf('/');
+            String namespace = slash > 0 ? test.substring(0, slash) : test;
+            if (!byNamespace.containsKey(namespace)) {
+                byNamespace.put(namespace, new ArrayList<String>());
+            }
+            byNamespace.get(namespace).add(test);
+        }
+        myNamespaces = byNamespace.size();
+        for (List<String> namespaces : TestDurations.shard(new ArrayList<String>(byNamespace.keySet()),
+                TestDurations.load(directory), jvms)) {
+            List<String> shard = new ArrayList<String>();
+            for (String namespace : namespaces) {
+                shard.addAll(byNamespace.get(namespace));
+            }
+            myShards.add(shard);
+        }
+        myOutput = new BoundedOutput(settings.consoleLimitMegabytes, new BoundedOutput.Sink() {
+            public void print(String text, Key outputType) {
+                ShardedTestRun.super.notifyTextAvailable(text, outputType);
+            }
+        });
+    }
+
+    @Override
+    public void notifyTextAvailable(String text, Key outputType) {
+        myOutput.add(text, outputType);
+    }
+
+    @Override
+    public void startNotify() {
+        super.startNotify();
+        notifyTextAvailable("Running " + myNamespaces + " test namespaces in " + myShards.size() + " JVMs\n",
+                ProcessOutputTypes.SYSTEM);
+        synchronized (this) {
+            myRunning = myShards.size();
+        }
+        for (int i = 0; i < myShards.size(); i++) {
+            start(i + 1, myShards.get(i));
+        }
+    }
+
+    private void start(final int number, List<String> tests) {
+        final String prefix = "[JVM " + number + "] ";
+        final long start = System.currentTimeMillis();
+        ProcessHandler handler;
+        try {
+            synchronized (this) {
+                if (myStopped) {
+                    throw new ExecutionException("Stopped");
+                }
+            }
+            handler = new LeiningenProcessLauncher(mySettings,
+                    new LeiningenRunnerParameters(TestResults.goals(tests), myDirectory)).start();
+        } catch (ExecutionException e) {
+            notifyTextAvailable(prefix + e.getMessage() + "\n", ProcessOutputTypes.STDERR);
+            ended(prefix, -1, start);
+            return;
+        }
+        synchronized (this) {
+            myHandlers.add(handler);
+        }
+        handler.addProcessListener(new ProcessAdapter() {
+            private final StringBuilder myLine = new StringBuilder();
+            private final List<String> myBlock = new ArrayList<String>();
+            private final List<Key> myBlockTypes = new ArrayList<Key>();
+
+            @Override
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                if (outputType == ProcessOutputTypes.SYSTEM) {
+                    notifyTextAvailable(prefix + event.getText(), outputType);
+                    return;
+                }
+                String text = event.getText();
+                int start = 0;
+                int newline;
+                while ((newline = text.indexOf('\n', start)) >= 0) {
+                    myLine.append(text, start, newline + 1);
+                    line(myLine.toString(), outputType);
+                    myLine.setLength(0);
+                    start = newline + 1;
+                }
+                myLine.append(text, start, text.length());
+            }
+
+            private void line(String line, Key outputType) {
+                if (line.startsWith(SUITE_STARTED)) {
+                    flushBlock(false);
+                }
+                if (line.startsWith(SUITE_STARTED) || !myBlock.isEmpty()) {
+                    myBlock.add(line);
+                    myBlockTypes.add(outputType);
+                    if (line.startsWith(SUITE_FINISHED)) {
+                        Matcher name = NAME.matcher(line);
+                        Matcher duration = DURATION.matcher(line);
+                        if (name.find() && duration.find()) {
+                            synchronized (ShardedTestRun.this) {
+                                myDurations.put(name.group(1), Long.parseLong(duration.group(1)));
+                            }
+                        }
+                        flushBlock(true);
+                    }
+                } else {
+                    print(Collections.singletonList(prefix + line), Collections.singletonList(outputType));
+                }
+            }
+
+            /**
+             * Passes the held back output of a namespace on, closing its suite if the JVM did not.
+             */
+            private void flushBlock(boolean finished) {
+                if (myBlock.isEmpty()) {
+                    return;
+                }
+                if (!finished) {
+                    Matcher matcher = NAME.matcher(myBlock.get(0));
+                    myBlock.add(SUITE_FINISHED + "name='" + (matcher.find() ? matcher.group(1) : "") + "']\n");
+                    myBlockTypes.add(ProcessOutputTypes.STDOUT);
+                }
+                print(myBlock, myBlockTypes);
+                myBlock.clear();
+                myBlockTypes.clear();
+            }
+
+            @Override
+            public void processTerminated(ProcessEvent event) {
+                if (myLine.length() > 0) {
+                    line(myLine + "\n", ProcessOutputTypes.STDOUT);
+                    myLine.setLength(0);
+                }
+                flushBlock(false);
+                ended(prefix, event.getExitCode(), start);
+            }
+        });
+        handler.startNotify();
+    }
+
+    /**
+     * Prints lines without output of other JVMs in between.
+     */
+    private synchronized void print(List<String> lines, List<Key> outputTypes) {
+        for (int i = 0; i < lines.size(); i++) {
+            notifyTextAvailable(lines.get(i), outputTypes.get(i));
+        }
+    }
+
+    private void ended(String prefix, int exitCode, long start) {
+        boolean done;
+        synchronized (this) {
+            myRunning--;
+            myFailed |= exitCode != 0;
+            done = myRunning == 0;
+        }
+        notifyTextAvailable(prefix + (exitCode == 0 ? "passed" : "failed with exit code " + exitCode) + " in " +
+                StringUtil.formatDuration(System.currentTimeMillis() - start) + "\n", ProcessOutputTypes.SYSTEM);
+        if (done) {
+            Map<String, Long> durations;
+            synchronized (this) {
+                durations = new HashMap<String, Long>(myDurations);
+            }
+            TestDurations.save(myDirectory, durations);
+            long total = System.currentTimeMillis() - myStart;
+            notifyTextAvailable("All JVMs finished in " + StringUtil.formatDuration(total) + "\n",
+                    ProcessOutputTypes.SYSTEM);
+            myOutput.close();
+            notifyProcessTerminated(myFailed ? 1 : 0);
+        }
+    }
+
+    @Override
+    protected void destroyProcessImpl() {
+        List<ProcessHandler> running;
+        synchronized (this) {
+            myStopped = true;
+            running = new ArrayList<ProcessHandler>(myHandlers);
+        }
+        for (ProcessHandler handler : running) {
+            handler.destroyProcess();
+        }
+    }
+
+    @Override
+    protected void detachProcessImpl() {
+        List<ProcessHandler> running;
+        synchronized (this) {
+            myStopped = true;
+            running = new ArrayList<ProcessHandler>(myHandlers);
+        }
+        for (ProcessHandler handler : running) {
+            handler.detachProcess();
+        }
+        myOutput.close();
+        notifyProcessDetached();
+    }
+
+    @Override
+    public boolean detachIsDefault() {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public OutputStream getProcessInput() {
+        return null;
+    }
+}
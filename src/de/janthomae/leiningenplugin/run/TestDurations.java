@@ -0,0 +1,141 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * How long the test namespaces of a project took in their last run, to spread them over several JVMs so that all
+ * finish at about the same time. Kept in a properties file per project in the system directory.
+ */
+public class TestDurations {
+    private static final Logger log = Logger.getInstance(TestDurations.class);
+
+    /**
+     * What a namespace without a recorded duration is assumed to take if no namespace has one.
+     */
+    private static final long DEFAULT_MS = 1000;
+
+    private TestDurations() {
+    }
+
+    /**
+     * @param directory the project directory
+     * @return the last duration in milliseconds by namespace
+     */
+    public static synchronized Map<String, Long> load(String directory) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        File file = file(directory);
+        if (!file.isFile()) {
+            return durations;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.info("Could not read " + file + ": " + e.getMessage());
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                durations.put(name, Long.parseLong(properties.getProperty(name)));
+            } catch (NumberFormatException e) {
+                // skip it
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Records the durations of a run, keeping those of the namespaces which did not run.
+     */
+    public static synchronized void save(String directory, Map<String, Long> durations) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        Map<String, Long> all = load(directory);
+        all.putAll(durations);
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : all.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        File file = file(directory);
+        try {
+            FileUtil.createParentDirs(file);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, directory);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.info("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Spreads namespaces over shards, longest first, each to the shard with the least total duration so far.
+     *
+     * @param namespaces the namespaces
+     * @param durations  their last durations, see {@link #load(String)}; the others count as the average
+     * @param count      the number of shards
+     * @return the non-empty shards
+     */
+    public static List<List<String>> shard(List<String> namespaces, final Map<String, Long> durations, int count) {
+        long total = 0;
+        for (Long duration : durations.values()) {
+            total += duration;
+        }
+        final long unknown = durations.isEmpty() ? DEFAULT_MS : total / durations.size();
+
+        List<String> sorted = new ArrayList<String>(namespaces);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                long da = durations.containsKey(a) ? durations.get(a) : unknown;
+                long db = durations.containsKey(b) ? durations.get(b) : unknown;
+                return da > db ? -1 : da < db ? 1 : 0;
+            }
+        });
+
+        List<List<String>> shards = new ArrayList<List<String>>();
+        long[] loads = new long[Math.max(1, Math.min(count, namespaces.size()))];
+        for (int i = 0; i < loads.length; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (String namespace : sorted) {
+            int least = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] < loads[least]) {
+                    least = i;
+                }
+            }
+            shards.get(least).add(namespace);
+            loads[least] += durations.containsKey(namespace) ? durations.get(namespace) : unknown;
+        }
+        return shards;
+    }
+
+    private static File file(String directory) {
+        String name = ClassDataSharing.digest(new File(directory).getAbsolutePath()) + ".properties";
+        return new File(PathManager.getSystemPath(), "leiningen" + File.separator + "test-durations" + File.separator +
+                name);
+    }
+}
@@ -0,0 +1,128 @@
+package de.janthomae.leiningenplugin.run;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import de.janthomae.leiningenplugin.LeiningenConstants;
+import de.janthomae.leiningenplugin.module.model.DependencyModel;
+import de.janthomae.leiningenplugin.project.LeiningenProject;
+import de.janthomae.leiningenplugin.project.LeiningenProjectsManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs "test" goals so that the IDE's test runner shows the results: the tests run through test_reporter.clj in the
+ * project JVM, started with "lein run", which reports them as service messages while they run.
+ * <p/>
+ * Without arguments, the namespaces in the project's test paths are run. Selectors, eg. ":integration", need "lein
+ * test" and are run as plain goals.
+ */
+public class TestResults {
+    /**
+     * The name of the test framework for the test runner.
+     */
+    public static final String FRAMEWORK = "Leiningen";
+
+    private static final String SCRIPT = "test_reporter.clj";
+
+    private static final Pattern NS = Pattern.compile("^\\s*\\(\\s*ns\\s+(?:\\^\\S+\\s+)*([^\\s()\\[\\]{}\"]+)",
+            Pattern.MULTILINE);
+
+    private TestResults() {
+    }
+
+    /**
+     * @return true if the goals run tests which the test runner can show
+     */
+    public static boolean supports(List<String> goals) {
+        if (goals.isEmpty() || !"test".equals(goals.get(0))) {
+            return false;
+        }
+        for (String arg : goals.subList(1, goals.size())) {
+            if (arg.startsWith(":")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param project    the IDEA project
+     * @param parameters the parameters of a run of "test", see {@link #supports(List)}
+     * @return the namespaces and vars to test: the arguments of the goal, or the namespaces in the test paths
+     * @throws ExecutionException if the project has no tests
+     */
+    public static List<String> tests(Project project, LeiningenRunnerParameters parameters)
+            throws ExecutionException {
+        List<String> tests = parameters.getGoals().subList(1, parameters.getGoals().size());
+        if (tests.isEmpty()) {
+            tests = namespaces(testPaths(project, parameters.getWorkingDirectory()));
+        }
+        if (tests.isEmpty()) {
+            throw new ExecutionException("There are no test namespaces in " + parameters.getWorkingDirectory() + ".");
+        }
+        return tests;
+    }
+
+    /**
+     * @param tests namespaces and vars, see {@link #tests(Project, LeiningenRunnerParameters)}
+     * @return the goals which run the tests through test_reporter.clj
+     * @throws ExecutionException if the script could not be written
+     */
+    public static List<String> goals(List<String> tests) throws ExecutionException {
+        return Arrays.asList("with-profile", "+test", "run", "-m", "clojure.main",
+                "-i", GoalServer.script(SCRIPT).getPath(),
+                "-e", "(leiningen.test-reporter/run (quote [" + StringUtil.join(tests, " ") + "]))");
+    }
+
+    private static List<String> testPaths(Project project, String directory) {
+        VirtualFile projectFile = LocalFileSystem.getInstance()
+                .findFileByIoFile(new File(directory, LeiningenConstants.PROJECT_CLJ));
+        LeiningenProject leiningenProject = projectFile != null
+                ? LeiningenProjectsManager.getInstance(project).getProjectByProjectFile(projectFile) : null;
+        if (leiningenProject == null) {
+            return Collections.singletonList(new File(directory, "test").getPath());
+        }
+        return DependencyModel.getPaths(DependencyModel.TEST_PATHS, leiningenProject.getProjectMap());
+    }
+
+    /**
+     * @return the namespaces declared by the .clj files below the directories
+     */
+    private static List<String> namespaces(List<String> directories) {
+        List<String> namespaces = new ArrayList<String>();
+        for (String directory : directories) {
+            collectNamespaces(new File(directory), namespaces);
+        }
+        return namespaces;
+    }
+
+    private static void collectNamespaces(File file, List<String> namespaces) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                collectNamespaces(child, namespaces);
+            }
+        } else if (file.getName().endsWith(".clj")) {
+            try {
+                Matcher matcher = NS.matcher(FileUtil.loadFile(file, "UTF-8"));
+                if (matcher.find() && !namespaces.contains(matcher.group(1))) {
+                    namespaces.add(matcher.group(1));
+                }
+            } catch (IOException e) {
+                // not a test namespace then
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+(ns leiningen.goal-server
+  "Runs Leiningen tasks for the IDE in a JVM which stays up between runs, so that a task does not pay for booting
+  Leiningen every time. The plugin starts it with the Leiningen jars on the classpath, see GoalServer.java.
+
+  On startup the server reads an access token from stdin, listens on a free port of the loopback interface and prints
+  \"leiningen-goal-server <port>\". It exits when stdin is closed, that is when the IDE stops it or is gone. The exit
+  runs Leiningen's shutdown hooks, which stop the project JVM of a task running eval-in-project.
+
+  A request is written with a DataOutputStream: the token, the project directory, the number of arguments and the
+  arguments, all but the count as UTF strings. The response is a sequence of frames, each a tag byte followed by an
+  int: for o (output) and e (error output) the int is the length of the UTF-8 bytes which follow, for x it is the exit
+  code of the task and the last frame. Requests are served one at a time, as tasks share System/out."
+  (:require [clojure.java.io :as io]
+            [leiningen.core.main :as main]
+            [leiningen.core.project :as project]
+            [leiningen.core.user :as user])
+  (:import (java.io BufferedOutputStream DataInputStream DataOutputStream OutputStream PrintStream PrintWriter)
+           (java.net InetAddress ServerSocket Socket)))
+
+(defn- frame-stream
+  "An output stream which writes everything as frames with the given tag."
+  [^DataOutputStream out tag]
+  (proxy [OutputStream] []
+    (write
+      ([b]
+         (if (integer? b)
+           (.write ^OutputStream this (byte-array [(unchecked-byte b)]) 0 1)
+           (let [^bytes b b] (.write ^OutputStream this b 0 (alength b)))))
+      ([b off len]
+         (when (pos? len)
+           (locking out
+             (.writeByte out (int tag))
+             (.writeInt out len)
+             (.write out ^bytes b (int off) (int len))))))
+    (flush []
+      (locking out (.flush out)))))
+
+(defn- run-task
+  "Runs a task the way `lein` would in dir, returns the exit code."
+  [dir args]
+  (binding [main/*exit-process?* false]
+    (try
+      (let [project (project/read (str (io/file dir "project.clj")))
+            [task-name & task-args] (if (seq args) args ["help"])]
+        (main/apply-task (main/lookup-alias task-name project) project task-args)
+        0)
+      (catch Throwable e
+        (if-let [code (:exit-code (ex-data e))]
+          code
+          (let [w (PrintWriter. *err*)]
+            (.printStackTrace e w)
+            (.flush w)
+            1))))))
+
+(defn- serve
+  "Serves one request."
+  [^Socket socket token]
+  (with-open [socket socket]
+    (let [in (DataInputStream. (.getInputStream socket))
+          out (DataOutputStream. (BufferedOutputStream. (.getOutputStream socket)))]
+      (when (= token (.readUTF in))
+        (let [dir (.readUTF in)
+              args (vec (repeatedly (.readInt in) #(.readUTF in)))
+              out-stream (frame-stream out \o)
+              err-stream (frame-stream out \e)
+              out-writer (io/writer out-stream :encoding "UTF-8")
+              err-writer (io/writer err-stream :encoding "UTF-8")
+              system-out System/out
+              system-err System/err]
+          (System/setOut (PrintStream. ^OutputStream out-stream true "UTF-8"))
+          (System/setErr (PrintStream. ^OutputStream err-stream true "UTF-8"))
+          (let [code (try
+                       (binding [*out* out-writer
+                                 *err* err-writer]
+                         (run-task dir args))
+                       (finally
+                         (.flush out-writer)
+                         (.flush err-writer)
+                         (.flush System/out)
+                         (.flush System/err)
+                         (System/setOut system-out)
+                         (System/setErr system-err)))]
+            (locking out
+              (.writeByte out (int \x))
+              (.writeInt out (int code))
+              (.flush out))))))))
+
+(defn -main []
+  (let [token (read-line)
+        server (ServerSocket. 0 0 (InetAddress/getByName "127.0.0.1"))]
+    (doto (Thread. #(do (while (not= -1 (.read *in*)))
+                        (System/exit 0)))
+      (.setDaemon true)
+      (.start))
+    (user/init)
+    (println "leiningen-goal-server" (.getLocalPort server))
+    (flush)
+    (loop []
+      (let [socket (.accept server)]
+        (try
+          (serve socket token)
+          (catch Exception e
+            (.printStackTrace e)))
+        (recur)))))
@@ -0,0 +1,157 @@
+(ns leiningen.test-reporter
+  "Runs clojure.test in the project JVM for the IDE and reports the results as TeamCity service messages on stdout,
+  which the IDE's test runner turns into a tree while the tests run. The plugin starts it with
+  `lein with-profile +test run -m clojure.main -i test_reporter.clj -e (leiningen.test-reporter/run (quote [...]))`,
+  see TestResults.java. The usual clojure.test output is printed as well.
+
+  Each namespace is a suite and each test var a test, with its duration; the duration of a suite, from loading the
+  namespace to its last fixture, is an extra attribute of testSuiteFinished. The arguments are namespaces, all of whose
+  tests run, or namespace qualified vars, which run alone with the namespace's fixtures, eg. the failures of an
+  earlier run. A var which does not exist runs its whole namespace; failures outside of a test, eg. in a fixture or
+  when loading the namespace, are reported as the tests <fixtures> and <load> of the namespace."
+  (:require [clojure.string :as str]
+            [clojure.test :as t])
+  (:import (java.io PrintWriter StringWriter)))
+
+(def ^:private escapes {"|" "||" "'" "|'" "[" "|[" "]" "|]" "\n" "|n" "\r" "|r"})
+
+(def ^:private lock (Object.))
+
+(defn- escape
+  [s]
+  (str/replace (str s) #"[|'\[\]\n\r]" #(escapes %)))
+
+(defn- message
+  "Prints a service message on a line of its own."
+  [type & attrs]
+  (let [text (apply str "##teamcity[" type
+                    (for [[k v] (partition 2 attrs)]
+                      (str " " (name k) "='" (escape v) "'")))]
+    (locking lock
+      (binding [*out* t/*test-out*]
+        (println (str text "]"))
+        (flush)))))
+
+(defn- stack-trace
+  [^Throwable e]
+  (let [w (StringWriter.)]
+    (.printStackTrace e (PrintWriter. w))
+    (str w)))
+
+(defn- test-name
+  [v]
+  (let [{:keys [ns name]} (meta v)]
+    (str (ns-name ns) "/" name)))
+
+;; The test which is running, {:name .. :start .. :failures [..]}, or nil between tests
+(def ^:private current (atom nil))
+
+(def ^:private current-ns (atom nil))
+
+;; When the namespace being run started loading, in nanoseconds
+(def ^:private ns-start (atom 0))
+
+(defn- ns-duration
+  []
+  (quot (- (System/nanoTime) @ns-start) 1000000))
+
+(declare finish-test)
+
+(defn- start-test
+  [name]
+  (finish-test)
+  (message "testStarted" :name name)
+  (reset! current {:name name :start (System/nanoTime) :failures []}))
+
+(defn- finish-test
+  []
+  (when-let [{:keys [name start failures]} @current]
+    (when (seq failures)
+      (let [[{:keys [expected actual]} & more] failures]
+        (apply message "testFailed" :name name
+               :message (str/join "\n" (map :message failures))
+               :details (str/join "\n" (map :details failures))
+               (when (and (not more) expected)
+                 [:type "comparisonFailure" :expected expected :actual actual]))))
+    (message "testFinished" :name name :duration (quot (- (System/nanoTime) start) 1000000))
+    (reset! current nil)))
+
+(defn- failure
+  [{:keys [type message expected actual]}]
+  (if (= :error type)
+    {:message (str (or message "Uncaught exception") ": " actual)
+     :details (if (instance? Throwable actual) (stack-trace actual) (pr-str actual))}
+    {:message (or message (str "expected: " (pr-str expected)))
+     :details (str "expected: " (pr-str expected) "\n  actual: " (pr-str actual))
+     :expected (pr-str expected)
+     :actual (pr-str actual)}))
+
+(defn- report-event
+  [m]
+  (case (:type m)
+    :begin-test-ns (do (reset! current-ns (ns-name (:ns m)))
+                       (message "testSuiteStarted" :name (ns-name (:ns m))))
+    :end-test-ns (do (finish-test)
+                     (message "testSuiteFinished" :name (ns-name (:ns m)) :duration (ns-duration)))
+    :begin-test-var (start-test (test-name (:var m)))
+    :end-test-var (finish-test)
+    (:fail :error) (do (when-not @current
+                         ;; outside of a test var, eg. in a fixture
+                         (start-test (str @current-ns "/<fixtures>")))
+                       (swap! current update-in [:failures] conj (failure m)))
+    nil))
+
+(defn- test-vars
+  "Runs some vars of a namespace with its fixtures."
+  [ns vars]
+  (let [once (t/join-fixtures (::t/once-fixtures (meta ns)))
+        each (t/join-fixtures (::t/each-fixtures (meta ns)))]
+    (once (fn []
+            (doseq [v vars :when (:test (meta v))]
+              (each #(t/test-var v)))))))
+
+(defn- load-failed
+  [ns-sym ^Throwable e]
+  (t/inc-report-counter :error)
+  (message "testSuiteStarted" :name ns-sym)
+  (message "testStarted" :name (str ns-sym "/<load>"))
+  (message "testFailed" :name (str ns-sym "/<load>") :message (str "Could not load " ns-sym ": " e)
+           :details (stack-trace e))
+  (message "testFinished" :name (str ns-sym "/<load>"))
+  (message "testSuiteFinished" :name ns-sym :duration (ns-duration))
+  (binding [*out* t/*test-out*]
+    (println "ERROR loading" ns-sym)
+    (println (stack-trace e))))
+
+(defn- run-ns
+  "Runs the tests of a namespace, or just the given vars if they all exist."
+  [ns-sym var-syms]
+  (let [ns (the-ns ns-sym)
+        vars (keep #(ns-resolve ns (symbol (name %))) var-syms)]
+    (if (or (empty? var-syms) (not= (count vars) (count var-syms)))
+      (let [counters (t/test-ns ns)]
+        (dosync (alter t/*report-counters* #(merge-with + % counters))))
+      (do (t/do-report {:type :begin-test-ns :ns ns})
+          (test-vars ns vars)
+          (t/do-report {:type :end-test-ns :ns ns})))))
+
+(defn run
+  "Runs the tests of args, a seq of namespace or var symbols, and exits with 0 if all passed."
+  [args]
+  (let [ns-of #(symbol (or (namespace %) (name %)))
+        whole (set (map ns-of (remove namespace args)))
+        var-syms (group-by ns-of (filter namespace args))
+        original t/report]
+    (binding [t/*report-counters* (ref t/*initial-report-counters*)
+              t/report (fn [m]
+                         (report-event m)
+                         (original m))]
+      (doseq [ns-sym (distinct (map ns-of args))]
+        (reset! ns-start (System/nanoTime))
+        (if-let [e (try (require ns-sym) nil (catch Throwable e e))]
+          (load-failed ns-sym e)
+          (run-ns ns-sym (when-not (whole ns-sym) (get var-syms ns-sym)))))
+      (let [summary (assoc @t/*report-counters* :type :summary)]
+        (t/do-report summary)
+        (shutdown-agents)
+        (System/exit (if (zero? (+ (:fail summary) (:error summary))) 0 1))))))
@@ -11,6 +11,7 @@ import com.intellij.ui.components.JBLabel;
 import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
 import de.janthomae.leiningenplugin.LeiningenIcons;
+import de.janthomae.leiningenplugin.run.LaunchCommandCache;
 import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
 import org.jetbrains.annotations.Nls;
 
@@ -29,6 +30,18 @@ public class LeiningenSettings implements Configurable {
     private JBCheckBox overrideLeinHome;
     private TextFieldWithBrowseButton leinJarSelectorField;
     private JBCheckBox overrideLeinJar;
+    private JBCheckBox offlineResolution;
+    private JTextField defaultProfiles;
+    private JTextField resolutionTimeout;
+    private JBCheckBox persistImportHistory;
+    private JTextField slowImportThreshold;
+    private JTextField excludedFolders;
+    private JBCheckBox warmJvm;
+    private JTextField warmJvmIdle;
+    private JBCheckBox classDataSharing;
+    private JBCheckBox classDataSharingProjects;
+    private JTextField parallelProcesses;
+    private JTextField consoleLimit;
     private UserActivityWatcher myWatcher;
     private boolean changed = false;
 
@@ -48,7 +61,7 @@ public class LeiningenSettings implements Configurable {
     public JComponent createComponent() {
         JPanel outerPanel = new JPanel(new BorderLayout());
         
-        JPanel leinPanel = new JPanel(new FormLayout("80dlu, fill:80dlu:grow, 20dlu, 80dlu", "p,p,p"));
+        JPanel leinPanel = new JPanel(new FormLayout("80dlu, fill:80dlu:grow, 20dlu, 80dlu", "p,p,p,p,p,p,p,p,p,p,p,p,p,p,p"));
 
         CellConstraints c = new CellConstraints();
         int row = 1;
@@ -85,6 +98,81 @@ public class LeiningenSettings implements Configurable {
         leinPanel.add(overrideLeinJar, c.xy(3,row));
         leinPanel.add(new JBLabel("Override"), c.xy(4,row));
 
+        row++;
+
+        this.offlineResolution = new JBCheckBox("Resolve dependencies offline (local repository only)");
+        leinPanel.add(offlineResolution, c.xyw(1,row,4));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Default profiles:"), c.xy(1,row));
+        this.defaultProfiles = new JTextField();
+        this.defaultProfiles.setToolTipText("Comma separated, eg. 'dev, test'. Leave empty for Leiningen's default profiles.");
+        leinPanel.add(defaultProfiles, c.xy(2,row));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Import timeout (s):"), c.xy(1,row));
+        this.resolutionTimeout = new JTextField();
+        this.resolutionTimeout.setToolTipText("Reading a project file or resolving its dependencies is aborted after this many seconds.");
+        leinPanel.add(resolutionTimeout, c.xy(2,row));
+
+        row++;
+
+        this.persistImportHistory = new JBCheckBox("Keep the import history of the diagnostics window across restarts");
+        leinPanel.add(persistImportHistory, c.xyw(1,row,4));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Slow import after (s):"), c.xy(1,row));
+        this.slowImportThreshold = new JTextField();
+        this.slowImportThreshold.setToolTipText("Thread dumps of imports running longer than this are written to the log directory. 0 disables them.");
+        leinPanel.add(slowImportThreshold, c.xy(2,row));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Excluded folders:"), c.xy(1,row));
+        this.excludedFolders = new JTextField();
+        this.excludedFolders.setToolTipText("Comma separated folders to exclude from imported modules besides the build output, eg. 'resources/public/js/out, doc/*'.");
+        leinPanel.add(excludedFolders, c.xy(2,row));
+
+        row++;
+
+        this.warmJvm = new JBCheckBox("Run goals in a Leiningen JVM kept running per project");
+        leinPanel.add(warmJvm, c.xyw(1,row,4));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Stop idle JVM after (min):"), c.xy(1,row));
+        this.warmJvmIdle = new JTextField();
+        this.warmJvmIdle.setToolTipText("A kept running Leiningen JVM is stopped after this many minutes without a goal.");
+        leinPanel.add(warmJvmIdle, c.xy(2,row));
+
+        row++;
+
+        this.classDataSharing = new JBCheckBox("Start Leiningen with a class data sharing archive (Java 13 or later)");
+        leinPanel.add(classDataSharing, c.xyw(1,row,4));
+
+        row++;
+
+        this.classDataSharingProjects = new JBCheckBox("Also archive the dependencies of fast launched run configurations");
+        this.classDataSharingProjects.setToolTipText("Only for classpaths which list the jars before any directory, as the archive requires.");
+        leinPanel.add(classDataSharingProjects, c.xyw(1,row,4));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Parallel projects:"), c.xy(1,row));
+        this.parallelProcesses = new JTextField();
+        this.parallelProcesses.setToolTipText("How many projects a goal run across several projects runs at the same time. 0 for one per processor.");
+        leinPanel.add(parallelProcesses, c.xy(2,row));
+
+        row++;
+
+        leinPanel.add(new JBLabel("Console limit (MB):"), c.xy(1,row));
+        this.consoleLimit = new JTextField();
+        this.consoleLimit.setToolTipText("Output beyond this size goes to a temporary file, the console shows its end when the goal finishes. 0 for no limit.");
+        leinPanel.add(consoleLimit, c.xy(2,row));
+
         outerPanel.add(leinPanel, BorderLayout.NORTH);
 
         myWatcher = new UserActivityWatcher();
@@ -104,12 +192,71 @@ public class LeiningenSettings implements Configurable {
     }
 
     public void apply() throws ConfigurationException {
+        int timeout;
+        try {
+            timeout = Integer.parseInt(resolutionTimeout.getText().trim());
+        } catch (NumberFormatException e) {
+            timeout = 0;
+        }
+        if (timeout <= 0) {
+            throw new ConfigurationException("The import timeout must be a positive number of seconds.");
+        }
+        int threshold;
+        try {
+            threshold = Integer.parseInt(slowImportThreshold.getText().trim());
+        } catch (NumberFormatException e) {
+            threshold = -1;
+        }
+        if (threshold < 0) {
+            throw new ConfigurationException("The slow import threshold must be a number of seconds, or 0.");
+        }
+        int idle;
+        try {
+            idle = Integer.parseInt(warmJvmIdle.getText().trim());
+        } catch (NumberFormatException e) {
+            idle = 0;
+        }
+        if (idle <= 0) {
+            throw new ConfigurationException("The idle time of the Leiningen JVM must be a positive number of minutes.");
+        }
+        int parallel;
+        try {
+            parallel = Integer.parseInt(parallelProcesses.getText().trim());
+        } catch (NumberFormatException e) {
+            parallel = -1;
+        }
+        if (parallel < 0) {
+            throw new ConfigurationException("The number of parallel projects must be a positive number, or 0.");
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(consoleLimit.getText().trim());
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit < 0) {
+            throw new ConfigurationException("The console limit must be a positive number of megabytes, or 0.");
+        }
+
         LeiningenRunnerSettings settings = LeiningenRunnerSettings.getInstance();
         settings.leiningenPath = leinBinSelectorField.getText();
         settings.leiningenHome = leinHomeSelectorField.getText();
         settings.leiningenJar = leinJarSelectorField.getText();
         settings.overrideLeiningenHome = overrideLeinHome.isSelected();
         settings.overrideLeiningenJar = overrideLeinJar.isSelected();
+        settings.offlineResolution = offlineResolution.isSelected();
+        settings.defaultProfiles = defaultProfiles.getText();
+        settings.resolutionTimeoutSeconds = timeout;
+        settings.persistImportHistory = persistImportHistory.isSelected();
+        settings.slowImportThresholdSeconds = threshold;
+        settings.excludedFolders = excludedFolders.getText();
+        settings.warmJvm = warmJvm.isSelected();
+        settings.warmJvmIdleMinutes = idle;
+        settings.classDataSharing = classDataSharing.isSelected();
+        settings.classDataSharingProjects = classDataSharingProjects.isSelected();
+        settings.parallelProcesses = parallel;
+        settings.consoleLimitMegabytes = limit;
+        LaunchCommandCache.getInstance().clear();
         changed = false;
     }
 
@@ -121,6 +268,18 @@ public class LeiningenSettings implements Configurable {
         leinJarSelectorField.setText(settings.getRealLeiningenJar());
         overrideLeinHome.setSelected(settings.overrideLeiningenHome);
         overrideLeinJar.setSelected((settings.overrideLeiningenJar));
+        offlineResolution.setSelected(settings.offlineResolution);
+        defaultProfiles.setText(settings.defaultProfiles);
+        resolutionTimeout.setText(String.valueOf(settings.resolutionTimeoutSeconds));
+        persistImportHistory.setSelected(settings.persistImportHistory);
+        slowImportThreshold.setText(String.valueOf(settings.slowImportThresholdSeconds));
+        excludedFolders.setText(settings.excludedFolders);
+        warmJvm.setSelected(settings.warmJvm);
+        warmJvmIdle.setText(String.valueOf(settings.warmJvmIdleMinutes));
+        classDataSharing.setSelected(settings.classDataSharing);
+        classDataSharingProjects.setSelected(settings.classDataSharingProjects);
+        parallelProcesses.setText(String.valueOf(settings.parallelProcesses));
+        consoleLimit.setText(String.valueOf(settings.consoleLimitMegabytes));
     }
 
     public void disposeUIResources() {
@@ -1,5 +1,6 @@
 package de.janthomae.leiningenplugin.utils;
 
+import clojure.lang.ExceptionInfo;
 import clojure.lang.RT;
 import clojure.lang.Symbol;
 import clojure.lang.Var;
@@ -7,11 +8,34 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.components.ApplicationComponent;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import de.janthomae.leiningenplugin.metrics.Timer;
+import de.janthomae.leiningenplugin.project.LeiningenProjectException;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Colin Fleming
@@ -19,14 +43,260 @@ import java.util.Map;
 public class Interop implements ApplicationComponent {
     private static final Logger logger = Logger.getLogger(Interop.class);
 
-  public static Map loadProject(String path) {
+    /**
+     * How often a waiting caller looks at its progress indicator.
+     */
+    private static final long POLL_INTERVAL_MS = 100;
+
+    /**
+     * The names of the worker threads start with this.
+     */
+    public static final String WORKER_NAME = "Leiningen worker";
+
+    /**
+     * Evaluating project files and resolving dependencies runs here rather than on the caller's thread, so that the
+     * caller can give up on a project which hangs (slow code in defproject, an unresponsive repository) without waiting
+     * for it. The threads are daemons: an abandoned one must never keep the IDE from exiting.
+     */
+    private static final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable r) {
+            Thread thread = new Thread(r, WORKER_NAME + " " + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(Interop.class.getClassLoader());
+            return thread;
+        }
+    });
+
+    /**
+     * The workers which were given up on but have not exited yet, by the project file they work on. Until such a
+     * worker exits no new one is started for its project: it may still hold Leiningen's locks and update the caches
+     * of that project, and would only make the next attempt wait.
+     */
+    private static final Map<String, Worker> abandoned = new HashMap<String, Worker>();
+
+  public static Map loadProject(String path) throws LeiningenProjectException {
+    return loadProject(path, new ResolutionOptions(false, false));
+  }
+
+  /**
+   * Reads a project file.
+   *
+   * @param path    the project.clj path
+   * @param options the options, only the selected profiles are relevant here
+   * @return the project map
+   * @throws LeiningenProjectException if reading the project timed out
+   */
+  public static Map loadProject(String path, ResolutionOptions options) throws LeiningenProjectException {
+    saveAll();
+    ImportMetrics.phase(ImportMetrics.PHASE_EVALUATE, path);
+    Timer.Context timer = MetricsRegistry.getInstance().timer(MetricsRegistry.PROJECT_EVALUATION).time();
+    try {
+      return (Map) invoke("reading " + path, path, Vars.loadProject, path, options.toMap());
+    } finally {
+      timer.stop();
+    }
+  }
+
+  public static List loadDependencies(String path) throws LeiningenProjectException {
+    return loadDependencies(path, ResolutionOptions.fromSettings());
+  }
+
+  /**
+   * Resolves the dependencies of a project.
+   *
+   * @param path    the project.clj path
+   * @param options the resolution options
+   * @return the list of dependency maps
+   * @throws LeiningenProjectException if the dependencies could not be resolved or the resolution timed out. The
+   *                                   message lists the missing artifacts where they are known.
+   */
+  public static List loadDependencies(String path, ResolutionOptions options) throws LeiningenProjectException {
     saveAll();
-    return (Map) Vars.loadProject.invoke(path);
+    ImportMetrics.phase(ImportMetrics.PHASE_RESOLVE, path);
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    Timer.Context timer = metrics.timer(MetricsRegistry.DEPENDENCY_RESOLUTION).time();
+    try {
+      List dependencies = (List) invoke("resolving the dependencies of " + path, path, Vars.loadDependencies, path,
+              options.toMap());
+      metrics.histogram(MetricsRegistry.RESOLVED_ARTIFACTS).update(dependencies.size());
+      ImportMetrics.artifacts(path, dependencies.size());
+      return dependencies;
+    } finally {
+      timer.stop();
+    }
   }
 
-  public static List loadDependencies(String path) {
+  /**
+   * Resolves the dependencies of several projects in one go, once for projects with the same dependencies. Each project
+   * is resolved by a call of its own with the configured timeout, so a project which hangs only fails itself.
+   *
+   * @param paths   the project.clj paths
+   * @param options the resolution options
+   * @return a map from path to the dependency list {@link #loadDependencies(String)} would return. Projects which could
+   * not be resolved or timed out are missing from the map, why is logged.
+   * @throws ProcessCanceledException if the progress indicator was cancelled
+   */
+  public static Map loadDependencies(Collection<String> paths, ResolutionOptions options) {
     saveAll();
-    return (List) Vars.loadDependencies.invoke(path);
+    ImportMetrics.phase(ImportMetrics.PHASE_RESOLVE, null);
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    Timer.Context timer = metrics.timer(MetricsRegistry.BATCH_RESOLUTION).time();
+    try {
+      Map opts = options.toMap();
+      Object batch = Vars.newBatch.invoke(opts);
+      Map<String, List> dependencies = new LinkedHashMap<String, List>();
+      for (String path : paths) {
+        Object result;
+        try {
+          result = invoke("resolving the dependencies of " + path, path, Vars.loadDependenciesInBatch, batch, path,
+                  opts);
+        } catch (LeiningenProjectException e) {
+          result = e;
+        }
+        if (result instanceof Throwable) {
+          logger.warn("Resolving the dependencies of " + path + " in a batch failed", (Throwable) result);
+          continue;
+        }
+        int size = ((List) result).size();
+        metrics.histogram(MetricsRegistry.RESOLVED_ARTIFACTS).update(size);
+        ImportMetrics.artifacts(path, size);
+        dependencies.put(path, (List) result);
+      }
+      return dependencies;
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * Computes the command line which runs goals in the project JVM without starting Leiningen, see launch-command in
+   * leiningen.clj. This resolves the dependencies of the project if they are not in the local repository yet.
+   *
+   * @param path     the project.clj path
+   * @param goals    the goals
+   * @param options  the resolution options
+   * @param initFile where to write the form the command evaluates; the command needs it as long as it is used
+   * @return the command, or null if the goals need Leiningen
+   * @throws LeiningenProjectException if the project could not be read or resolved, or that timed out
+   */
+  public static List<String> launchCommand(String path, List<String> goals, ResolutionOptions options, File initFile)
+          throws LeiningenProjectException {
+    saveAll();
+    List command = (List) invoke("computing the command line of " + path, path, Vars.launchCommand, path,
+            new ArrayList<String>(goals), options.toMap(), initFile.getPath());
+    if (command == null) {
+      return null;
+    }
+    List<String> result = new ArrayList<String>();
+    for (Object arg : command) {
+      result.add((String) arg);
+    }
+    return result;
+  }
+
+  /**
+   * Calls a var on a worker thread and waits for the result, as long as the progress indicator of the calling thread
+   * (if any) is not cancelled and the configured timeout has not passed. Otherwise the worker is interrupted and left
+   * behind - nothing it produces afterwards reaches the IDE, and no other call for its project starts until it exited.
+   *
+   * @param description what the call does, for the timeout message
+   * @param path        the project file the call works on
+   * @param var         the var to call
+   * @param args        the arguments
+   * @return the var's result
+   * @throws LeiningenProjectException if the call timed out or failed with an ExceptionInfo, or an earlier call for
+   *                                   the project was given up on and is still running
+   * @throws ProcessCanceledException  if the progress indicator was cancelled
+   */
+  private static Object invoke(String description, String path, final Var var, final Object... args)
+          throws LeiningenProjectException {
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    int timeout = Math.max(LeiningenRunnerSettings.getInstance().resolutionTimeoutSeconds, 1);
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+
+    final Worker worker = new Worker(path);
+    synchronized (abandoned) {
+      Worker earlier = abandoned.get(path);
+      if (earlier != null && !earlier.exited) {
+        throw new LeiningenProjectException("An earlier attempt at " + description + " timed out or was cancelled " +
+                "and has not stopped yet. Try again once it has.");
+      }
+      abandoned.remove(path);
+    }
+    Future<Object> future = workers.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        if (!worker.started.compareAndSet(false, true)) {
+          return null;
+        }
+        try {
+          return var.applyTo(RT.seq(args));
+        } finally {
+          worker.exited = true;
+        }
+      }
+    });
+    try {
+      while (true) {
+        try {
+          return future.get(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          if (indicator != null && indicator.isCanceled()) {
+            abandon(worker, future);
+            throw new ProcessCanceledException();
+          }
+          if (System.currentTimeMillis() > deadline) {
+            abandon(worker, future);
+            throw new LeiningenProjectException("Timed out after " + timeout + " seconds " +
+                    description + ". The timeout can be changed in the Leiningen settings.");
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      abandon(worker, future);
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ExceptionInfo) {
+        throw new LeiningenProjectException(cause.getMessage(), cause);
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Interrupts a worker and, unless it never started, blocks its project until it exits.
+   */
+  private static void abandon(Worker worker, Future<Object> future) {
+    future.cancel(true);
+    if (worker.started.compareAndSet(false, true) || worker.exited) {
+      return;
+    }
+    logger.warn("Abandoning a Leiningen worker which does not respond, its project is blocked until it exits: " +
+            worker.path);
+    synchronized (abandoned) {
+      abandoned.put(worker.path, worker);
+    }
+  }
+
+  private static class Worker {
+    final String path;
+    final AtomicBoolean started = new AtomicBoolean();
+    volatile boolean exited;
+
+    Worker(String path) {
+      this.path = path;
+    }
   }
 
   private static void saveAll() {
@@ -54,6 +324,12 @@ public class Interop implements ApplicationComponent {
             clojure.lang.Compiler.LOADER.bindRoot(loader);
 
             RT.var("clojure.core", "require").invoke(Symbol.intern("de.janthomae.leiningenplugin.leiningen"));
+
+            Collection missing = (Collection) Vars.missingRepositorySettingsFns.invoke();
+            if (!missing.isEmpty()) {
+                logger.warn("Resolution progress is not reported, this version of Leiningen lacks these functions " +
+                        "of leiningen.core.classpath: " + new ArrayList<Object>(missing));
+            }
         } catch (Exception e) {
             logger.error(e, e);
         } finally {
@@ -74,5 +350,9 @@ public class Interop implements ApplicationComponent {
     private static class Vars {
         private static final Var loadProject = RT.var("de.janthomae.leiningenplugin.leiningen", "load-project");
         private static final Var loadDependencies = RT.var("de.janthomae.leiningenplugin.leiningen", "load-dependencies");
+        private static final Var newBatch = RT.var("de.janthomae.leiningenplugin.leiningen", "new-batch");
+        private static final Var loadDependenciesInBatch = RT.var("de.janthomae.leiningenplugin.leiningen", "load-dependencies-in-batch");
+        private static final Var missingRepositorySettingsFns = RT.var("de.janthomae.leiningenplugin.leiningen", "missing-repository-settings-fns");
+        private static final Var launchCommand = RT.var("de.janthomae.leiningenplugin.leiningen", "launch-command");
     }
 }
@@ -0,0 +1,296 @@
+package de.janthomae.leiningenplugin.utils;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent index of dependency graphs which have already been resolved from the local repository.
+ * <p/>
+ * Each record maps a resolution key (the dependencies with their exclusions and the repository URLs, as computed on the
+ * Clojure side; never credentials) to the artifacts Aether resolved for it, together with the modification stamps of
+ * their jars and POMs. The index file is memory-mapped once when it is opened and only ever appended to, so looking up
+ * a known graph costs a few stat calls instead of reading POMs and metadata files. A record is dropped as soon as one
+ * of its files changed or disappeared.
+ * <p/>
+ * Graphs whose POMs declare version ranges, LATEST or RELEASE are not recorded: which version they resolve to depends on
+ * what is installed in the local repository, not just on the files of the graph.
+ * <p/>
+ * Artifacts are exchanged with the Clojure side as maps with the string keys "groupid", "artifactid", "classifier",
+ * "extension", "version", "scope" and "file" (a java.io.File).
+ */
+public class LocalRepositoryIndex {
+    private static final Logger log = Logger.getInstance(LocalRepositoryIndex.class);
+
+    private static final int MAGIC = 0x4c524932;
+    private static final String[] FIELDS = {"groupid", "artifactid", "classifier", "extension", "version", "scope"};
+    private static final Pattern DYNAMIC_VERSION = Pattern.compile("<version>\\s*(?:[\\[(]|LATEST\\b|RELEASE\\b)");
+
+    private static LocalRepositoryIndex ourInstance;
+
+    private final File myFile;
+    private final Map<String, Integer> myOffsets = new HashMap<String, Integer>();
+    /**
+     * The records stored since the file was mapped, positioned at their artifact count.
+     */
+    private final Map<String, ByteBuffer> myStored = new HashMap<String, ByteBuffer>();
+    private MappedByteBuffer myBuffer;
+
+    public static synchronized LocalRepositoryIndex getInstance() {
+        if (ourInstance == null) {
+            File dir = new File(PathManager.getSystemPath(), "leiningen");
+            ourInstance = new LocalRepositoryIndex(new File(dir, "local-repository.index"));
+        }
+        return ourInstance;
+    }
+
+    public LocalRepositoryIndex(File file) {
+        myFile = file;
+        try {
+            load();
+        } catch (IOException e) {
+            log.warn("Could not read the local repository index " + file + ", starting with an empty one", e);
+            myOffsets.clear();
+            myBuffer = null;
+            FileUtil.delete(file);
+        }
+    }
+
+    /**
+     * Looks up the artifacts recorded for a resolution key.
+     *
+     * @param key the resolution key
+     * @return the recorded artifacts, or null if the key is unknown or any of its files changed since it was recorded.
+     */
+    public synchronized List<Map<String, Object>> lookup(String key) {
+        ByteBuffer in;
+        if (myStored.containsKey(key)) {
+            in = myStored.get(key).duplicate();
+        } else {
+            Integer offset = myOffsets.get(key);
+            if (offset == null || myBuffer == null) {
+                return null;
+            }
+            in = myBuffer.duplicate();
+            in.position(offset);
+        }
+        int count = in.getInt();
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> artifact = new HashMap<String, Object>();
+            for (String field : FIELDS) {
+                artifact.put(field, readString(in));
+            }
+            File file = new File(readString(in));
+            long fileStamp = in.getLong();
+            long pomStamp = in.getLong();
+            File pom = pomFile(file, (String) artifact.get("artifactid"), (String) artifact.get("version"));
+            if (file.lastModified() != fileStamp || pom.lastModified() != pomStamp) {
+                myOffsets.remove(key);
+                myStored.remove(key);
+                return null;
+            }
+            artifact.put("file", file);
+            result.add(artifact);
+        }
+        return result;
+    }
+
+    /**
+     * Records the artifacts resolved for a key, superseding any earlier record. Nothing is recorded if an artifact has no
+     * file or the graph has dynamic versions.
+     *
+     * @param key       the resolution key
+     * @param artifacts the resolved artifacts
+     */
+    public synchronized void store(String key, List<Map<String, Object>> artifacts) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, key);
+            int countOffset = out.size();
+            out.writeInt(artifacts.size());
+            for (Map<String, Object> artifact : artifacts) {
+                File file = (File) artifact.get("file");
+                if (file == null) {
+                    return;
+                }
+                File pom = pomFile(file, String.valueOf(artifact.get("artifactid")),
+                        String.valueOf(artifact.get("version")));
+                if (hasDynamicVersions(pom)) {
+                    return;
+                }
+                for (String field : FIELDS) {
+                    Object value = artifact.get(field);
+                    writeString(out, value != null ? value.toString() : "");
+                }
+                writeString(out, file.getAbsolutePath());
+                out.writeLong(file.lastModified());
+                out.writeLong(pom.lastModified());
+            }
+            out.flush();
+
+            byte[] record = bytes.toByteArray();
+            append(record);
+            ByteBuffer stored = ByteBuffer.wrap(record);
+            stored.position(countOffset);
+            myStored.put(key, stored.slice());
+            myOffsets.remove(key);
+        } catch (IOException e) {
+            log.warn("Could not update the local repository index " + myFile, e);
+        }
+    }
+
+    private void load() throws IOException {
+        if (!myFile.isFile()) {
+            FileUtil.createParentDirs(myFile);
+            writeHeader(myFile);
+        }
+
+        // Scan a heap copy, so that a damaged tail or superseded records can be fixed up before the file gets mapped
+        ByteBuffer in = ByteBuffer.wrap(FileUtil.loadFileBytes(myFile));
+        if (in.remaining() < 4 || in.getInt() != MAGIC) {
+            throw new IOException("Not a local repository index");
+        }
+
+        Map<String, int[]> records = new HashMap<String, int[]>();
+        int scanned = 0;
+        int end = in.position();
+        try {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                String key = readString(in);
+                int countOffset = in.position();
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j <= FIELDS.length; j++) {
+                        readString(in);
+                    }
+                    in.getLong();
+                    in.getLong();
+                }
+                end = in.position();
+                records.put(key, new int[]{start, countOffset, end});
+                scanned++;
+            }
+        } catch (BufferUnderflowException e) {
+            log.info("Dropping the incomplete tail of the local repository index " + myFile);
+        }
+
+        if (end < in.limit() || scanned > 2 * records.size()) {
+            rewrite(in, records);
+        } else {
+            for (Map.Entry<String, int[]> record : records.entrySet()) {
+                myOffsets.put(record.getKey(), record.getValue()[1]);
+            }
+        }
+        map();
+    }
+
+    /**
+     * Writes a fresh index file holding only the latest record of each key.
+     */
+    private void rewrite(ByteBuffer in, Map<String, int[]> records) throws IOException {
+        File tmp = new File(myFile.getPath() + ".tmp");
+        writeHeader(tmp);
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            for (Map.Entry<String, int[]> record : records.entrySet()) {
+                int[] bounds = record.getValue();
+                long position = out.length();
+                out.seek(position);
+                out.write(in.array(), bounds[0], bounds[2] - bounds[0]);
+                myOffsets.put(record.getKey(), (int) position + bounds[1] - bounds[0]);
+            }
+        } finally {
+            out.close();
+        }
+        FileUtil.rename(tmp, myFile);
+    }
+
+    private void append(byte[] record) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(myFile, "rw");
+        try {
+            out.seek(out.length());
+            out.write(record);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(myFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            myBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void writeHeader(File file) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the POM next to an artifact in the local repository; the artifact's own file name may have a classifier.
+     */
+    private static File pomFile(File artifactFile, String artifactId, String version) {
+        return new File(artifactFile.getParentFile(), artifactId + "-" + version + ".pom");
+    }
+
+    /**
+     * @return true if the POM declares a version range, LATEST or RELEASE, or could not be read
+     */
+    private static boolean hasDynamicVersions(File pom) {
+        if (!pom.isFile()) {
+            return false;
+        }
+        try {
+            return DYNAMIC_VERSION.matcher(FileUtil.loadFile(pom, "UTF-8")).find();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,78 @@
+package de.janthomae.leiningenplugin.utils;
+
+import de.janthomae.leiningenplugin.metrics.ImportMetrics;
+import de.janthomae.leiningenplugin.metrics.MetricsRegistry;
+import de.janthomae.leiningenplugin.run.LeiningenRunnerSettings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options for reading projects and resolving their dependencies through {@link Interop}.
+ * <p/>
+ * These are handed to the Clojure side as a map with string keys, see the docs of the functions in leiningen.clj.
+ */
+public class ResolutionOptions {
+    private final boolean offline;
+    private final boolean force;
+    private final Map<String, List<String>> profiles = new HashMap<String, List<String>>();
+    private Map<String, String> siblings = new HashMap<String, String>();
+
+    /**
+     * @param offline if true, only the local repository is used
+     * @param force   if true, dependencies are resolved again even if they are cached for the selected profiles
+     */
+    public ResolutionOptions(boolean offline, boolean force) {
+        this.offline = offline;
+        this.force = force;
+    }
+
+    /**
+     * @return the options configured in the settings, using cached resolutions where possible.
+     */
+    public static ResolutionOptions fromSettings() {
+        return new ResolutionOptions(LeiningenRunnerSettings.getInstance().offlineResolution, false);
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Selects the profiles to merge when reading a project.
+     *
+     * @param path     the project file path
+     * @param profiles the profile names, Leiningen's default profiles are used if this is empty
+     */
+    public void setProfiles(String path, List<String> profiles) {
+        this.profiles.put(path, new ArrayList<String>(profiles));
+    }
+
+    /**
+     * Selects the sibling projects. A dependency on one of them is resolved by resolving the sibling's own dependencies
+     * instead, so that it does not need to be installed, and is returned as a dependency on its module.
+     *
+     * @param siblings from "group/artifact" to the project file path of the sibling
+     */
+    public void setSiblings(Map<String, String> siblings) {
+        this.siblings = new HashMap<String, String>(siblings);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put("offline", offline);
+        options.put("force", force);
+        options.put("profiles", profiles);
+        options.put("siblings", siblings);
+        options.put("index", LocalRepositoryIndex.getInstance());
+        options.put("listener", ImportMetrics.current());
+        options.put("metrics", MetricsRegistry.getInstance());
+        return options;
+    }
+}
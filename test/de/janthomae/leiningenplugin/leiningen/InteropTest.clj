@@ -18,3 +18,38 @@
     (map #(contains? % :artifactid ) result) => (has every? true?)
     (map #(contains? % :file ) result) => (has every? true?)
     (map #(contains? % :groupid ) result) => (has every? true?)))
+
+(facts
+  "About sharing resolutions within a batch"
+  (let [cache (atom {})
+        resolutions (atom 0)
+        resolve #(do (swap! resolutions inc) [:artifacts])
+        project (assoc p/defaults :dependencies '[[org.clojure/clojure "1.5.1"]])]
+    (shared-resolution cache project nil resolve) => [:artifacts]
+    (shared-resolution cache (assoc project :description "another project") nil resolve) => [:artifacts]
+    @resolutions => 1
+    (shared-resolution cache (update-in project [:dependencies] conj '[fake/dep "1.0"]) nil resolve) => [:artifacts]
+    (shared-resolution cache (assoc project :offline? true) nil resolve) => [:artifacts]
+    @resolutions => 3))
+
+(defn- prepared-local-repo
+  "Creates a local repository holding just fake/dep 1.0, as if it had been installed there."
+  []
+  (let [repo (doto (java.io.File/createTempFile "local-repo" "") (.delete) (.mkdirs))
+        dir (doto (java.io.File. repo "fake/dep/1.0") (.mkdirs))]
+    (spit (java.io.File. dir "dep-1.0.pom")
+          (str "<project><modelVersion>4.0.0</modelVersion>"
+               "<groupId>fake</groupId><artifactId>dep</artifactId><version>1.0</version></project>"))
+    (spit (java.io.File. dir "dep-1.0.jar") "")
+    repo))
+
+(facts
+  "About offline resolution against a prepared local repository"
+  (let [project (assoc p/defaults :local-repo (.getAbsolutePath (prepared-local-repo)))
+        offline {"offline" true}]
+    (map :artifactid (resolve-dependencies (assoc project :dependencies '[[fake/dep "1.0"]]) offline)) => ["dep"]
+    (resolve-dependencies (assoc project :dependencies '[[fake/missing "2.0"]]) offline)
+      => (throws clojure.lang.ExceptionInfo #"missing from the local repository")
+    (try
+      (resolve-dependencies (assoc project :dependencies '[[fake/dep "1.0"] [fake/missing "2.0"]]) offline)
+      (catch clojure.lang.ExceptionInfo e (:missing (ex-data e)))) => ["fake:missing:jar:2.0"]))
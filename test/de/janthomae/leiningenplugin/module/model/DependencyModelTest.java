@@ -0,0 +1,71 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks when an import may leave a module as the last import built it.
+ */
+public class DependencyModelTest extends TestCase {
+    private final Map<String, Object> myProjectMap = new HashMap<String, Object>();
+    private final List<Map<String, Object>> myDependencies = Arrays.asList(
+            dependency("org.clojure", "clojure", "1.5.1"), dependency("ring", "ring", "1.2.0"));
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myProjectMap.put(DependencyModel.COMPILE_PATH, "/work/project/target/classes");
+        myProjectMap.put(DependencyModel.SOURCE_PATHS, Arrays.asList("/work/project/src"));
+    }
+
+    public void testFingerprintCoversModuleNameAndSdk() {
+        String fingerprint = fingerprint("project", "1.6");
+        assertEquals(fingerprint, fingerprint("project", "1.6"));
+        assertFalse(fingerprint.equals(fingerprint("renamed", "1.6")));
+        assertFalse(fingerprint.equals(fingerprint("project", "1.7")));
+        assertFalse(fingerprint.equals(fingerprint("project", null)));
+    }
+
+    public void testUpToDate() {
+        String fingerprint = fingerprint("project", "1.6");
+        Set<String> libraries = DependencyModel.libraryNames(myDependencies);
+        assertTrue(DependencyModel.isUpToDate(false, fingerprint, fingerprint, libraries, myDependencies));
+        assertFalse(DependencyModel.isUpToDate(false, fingerprint, null, libraries, myDependencies));
+        assertFalse(DependencyModel.isUpToDate(false, fingerprint, fingerprint("project", "1.7"), libraries,
+                myDependencies));
+    }
+
+    public void testLibraryRemovedByHand() {
+        String fingerprint = fingerprint("project", "1.6");
+        Set<String> libraries = DependencyModel.libraryNames(myDependencies.subList(0, 1));
+        assertFalse(DependencyModel.isUpToDate(false, fingerprint, fingerprint, libraries, myDependencies));
+    }
+
+    public void testForcedImportIsNeverUpToDate() {
+        String fingerprint = fingerprint("project", "1.6");
+        Set<String> libraries = DependencyModel.libraryNames(myDependencies);
+        assertFalse(DependencyModel.isUpToDate(true, fingerprint, fingerprint, libraries, myDependencies));
+    }
+
+    private String fingerprint(String moduleName, String sdkName) {
+        return DependencyModel.fingerprint(moduleName, sdkName, myProjectMap, myDependencies,
+                Collections.singletonList("target"));
+    }
+
+    private static Map<String, Object> dependency(String groupId, String artifactId, String version) {
+        Map<String, Object> dependency = new HashMap<String, Object>();
+        dependency.put("groupid", groupId);
+        dependency.put("artifactid", artifactId);
+        dependency.put("version", version);
+        dependency.put("scope", "compile");
+        dependency.put("file", new File("/m2/" + artifactId + "-" + version + ".jar"));
+        return dependency;
+    }
+}
@@ -0,0 +1,119 @@
+package de.janthomae.leiningenplugin.module.model;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the excluded folders are found through symlinks, which is how checkouts are usually set up, and that they
+ * are given relative to the project directory. The symlink tests only run where "ln -s" works; elsewhere the suite
+ * says that they were skipped.
+ */
+public class ExcludedFoldersTest extends TestCase {
+    private File myRoot;
+
+    public ExcludedFoldersTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() throws Exception {
+        boolean symlinks = symlinksSupported();
+        TestSuite suite = new TestSuite(ExcludedFoldersTest.class.getName() +
+                (symlinks ? "" : " (symlink tests skipped, ln -s does not work here)"));
+        if (symlinks) {
+            suite.addTest(new ExcludedFoldersTest("testBuildOutputAndCheckoutTargets"));
+            suite.addTest(new ExcludedFoldersTest("testSymlinkedProjectDirectory"));
+        }
+        suite.addTest(new ExcludedFoldersTest("testSourcesAreNeverExcluded"));
+        return suite;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myRoot = FileUtil.createTempDirectory("excluded-folders", null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.delete(myRoot);
+        super.tearDown();
+    }
+
+    public void testBuildOutputAndCheckoutTargets() throws Exception {
+        File project = mkdirs(myRoot, "project");
+        File library = mkdirs(myRoot, "library");
+        mkdirs(library, "target");
+        mkdirs(project, "checkouts");
+        symlink(library, new File(project, "checkouts/library"));
+        List<String> excluded = ExcludedFolders.compute(project, projectMap(project.getPath()),
+                Collections.<String>emptyList());
+        assertEquals(Arrays.asList("target", "target/classes", "checkouts/library/target", "target/stale"), excluded);
+    }
+
+    public void testSymlinkedProjectDirectory() throws Exception {
+        File real = mkdirs(myRoot, "real");
+        File project = new File(myRoot, "linked");
+        symlink(real, project);
+        mkdirs(real, ".lein-git-deps");
+        List<String> excluded = ExcludedFolders.compute(project, projectMap(real.getCanonicalPath()),
+                Collections.<String>emptyList());
+        assertEquals(Arrays.asList("target", "target/classes", ".lein-git-deps", "target/stale"), excluded);
+    }
+
+    public void testSourcesAreNeverExcluded() throws Exception {
+        File project = mkdirs(myRoot, "project");
+        mkdirs(project, "target/generated");
+        Map<String, Object> projectMap = projectMap(project.getPath());
+        projectMap.put(DependencyModel.SOURCE_PATHS, Arrays.asList(new File(project, "target/generated").getPath()));
+        List<String> excluded = ExcludedFolders.compute(project, projectMap, Arrays.asList("../elsewhere"));
+        assertEquals(Arrays.asList("target/classes", "target/stale"), excluded);
+    }
+
+    private static Map<String, Object> projectMap(String root) {
+        Map<String, Object> projectMap = new HashMap<String, Object>();
+        projectMap.put(DependencyModel.TARGET_PATH, root + File.separator + "target");
+        projectMap.put(DependencyModel.COMPILE_PATH, root + File.separator + "target" + File.separator + "classes");
+        return projectMap;
+    }
+
+    private static File mkdirs(File parent, String path) {
+        File dir = new File(parent, path);
+        assertTrue(dir.getPath(), dir.mkdirs());
+        return dir;
+    }
+
+    private static void symlink(File target, File link) throws IOException, InterruptedException {
+        assertTrue("Could not link " + link + " to " + target, tryToSymlink(target, link));
+    }
+
+    /**
+     * @return false if the file system or platform does not support symlinks
+     */
+    private static boolean tryToSymlink(File target, File link) throws InterruptedException {
+        try {
+            Process process = new ProcessBuilder("ln", "-s", target.getPath(), link.getPath()).start();
+            return process.waitFor() == 0 && link.isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean symlinksSupported() throws IOException, InterruptedException {
+        File root = FileUtil.createTempDirectory("symlinks", null);
+        try {
+            return tryToSymlink(mkdirs(root, "target"), new File(root, "link"));
+        } finally {
+            FileUtil.delete(root);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package de.janthomae.leiningenplugin.project;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import de.janthomae.leiningenplugin.module.ModuleCreationUtils;
+import de.janthomae.leiningenplugin.navigator.RefreshProjectsAction;
+import de.janthomae.leiningenplugin.utils.Interop;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports and refreshes a generated monorepo and fails if that takes longer or allocates more than its budget, so
+ * that regressions in how the import scales show up in the build. The size and the budgets can be changed with system
+ * properties, eg. -Dleiningen.perf.projects=100 -Dleiningen.perf.importBudgetMs=120000.
+ */
+public class ImportPerformanceTest extends PlatformTestCase {
+    private static final Logger log = Logger.getInstance(ImportPerformanceTest.class);
+
+    private static final int PROJECTS = Integer.getInteger("leiningen.perf.projects", 20);
+    private static final int SHARED = Integer.getInteger("leiningen.perf.shared", 50);
+    private static final int UNIQUE = Integer.getInteger("leiningen.perf.unique", 5);
+
+    private static final long IMPORT_BUDGET_MS = Long.getLong("leiningen.perf.importBudgetMs", 60000);
+    private static final long REFRESH_BUDGET_MS = Long.getLong("leiningen.perf.refreshBudgetMs", 30000);
+    private static final long IMPORT_BUDGET_BYTES = Long.getLong("leiningen.perf.importBudgetBytes", 2L << 30);
+    private static final long REFRESH_BUDGET_BYTES = Long.getLong("leiningen.perf.refreshBudgetBytes", 1L << 30);
+
+    private SyntheticMonorepo myMonorepo;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myMonorepo = SyntheticMonorepo.generate(createTempDirectory(), PROJECTS, SHARED, UNIQUE);
+    }
+
+    public void testImportAndRefresh() throws Exception {
+        List<VirtualFile> projectFiles = new ArrayList<VirtualFile>();
+        for (File file : myMonorepo.getProjectFiles()) {
+            VirtualFile projectFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(file);
+            assertNotNull(file.getPath(), projectFile);
+            projectFiles.add(projectFile);
+        }
+        LeiningenProjectsManager manager = LeiningenProjectsManager.getInstance(myProject);
+
+        Measurement importRun = new Measurement();
+        List<Module> modules = manager.importLeiningenProjects(projectFiles, myProject);
+        importRun.stop();
+        assertEquals(PROJECTS, modules.size());
+        assertImported(projectFiles);
+
+        Measurement refreshRun = new Measurement();
+        RefreshProjectsAction.refresh(myProject, false);
+        refreshRun.stop();
+        assertImported(projectFiles);
+
+        log.info("Import of " + PROJECTS + " projects: " + importRun + ", refresh: " + refreshRun);
+        importRun.assertWithin("Import", IMPORT_BUDGET_MS, IMPORT_BUDGET_BYTES);
+        refreshRun.assertWithin("Refresh", REFRESH_BUDGET_MS, REFRESH_BUDGET_BYTES);
+    }
+
+    private void assertImported(List<VirtualFile> projectFiles) {
+        for (VirtualFile projectFile : projectFiles) {
+            Module module = ModuleCreationUtils.findModule(myProject, projectFile);
+            assertNotNull("No module for " + projectFile.getPath(), module);
+            int libraries = 0;
+            for (OrderEntry entry : ModuleRootManager.getInstance(module).getOrderEntries()) {
+                if (entry instanceof LibraryOrderEntry &&
+                        entry.getPresentableName().startsWith(ModuleCreationUtils.LEIN_LIB_PREFIX)) {
+                    libraries++;
+                }
+            }
+            assertEquals(module.getName(), myMonorepo.getArtifactsPerProject(), libraries);
+        }
+    }
+
+    /**
+     * Wall time and the bytes allocated by the importing thread and by Interop's workers, which evaluate the projects
+     * and resolve their dependencies. The other threads of the JVM, the IDE's included, allocate at their own pace and
+     * would make the budget depend on what else runs. A worker which exits during the measurement is missed, but the
+     * pool keeps idle workers for a minute.
+     */
+    private static class Measurement {
+        private final long start = System.currentTimeMillis();
+        private final Map<Long, Long> startBytes = allocatedBytes();
+        private long millis;
+        private long bytes;
+
+        void stop() {
+            millis = System.currentTimeMillis() - start;
+            Map<Long, Long> endBytes = allocatedBytes();
+            if (startBytes == null || endBytes == null) {
+                bytes = -1;
+                return;
+            }
+            for (Map.Entry<Long, Long> entry : endBytes.entrySet()) {
+                Long before = startBytes.get(entry.getKey());
+                bytes += entry.getValue() - (before != null ? before : 0);
+            }
+        }
+
+        void assertWithin(String what, long budgetMillis, long budgetBytes) {
+            assertTrue(what + " took " + millis + " ms, budget is " + budgetMillis + " ms", millis <= budgetMillis);
+            if (bytes >= 0) {
+                assertTrue(what + " allocated " + bytes + " bytes, budget is " + budgetBytes + " bytes",
+                        bytes <= budgetBytes);
+            }
+        }
+
+        /**
+         * @return the bytes allocated so far by the current thread and the live workers, by thread id, or null if the
+         * JVM does not count them
+         */
+        private static Map<Long, Long> allocatedBytes() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            List<Thread> measured = new ArrayList<Thread>();
+            measured.add(Thread.currentThread());
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith(Interop.WORKER_NAME)) {
+                    measured.add(thread);
+                }
+            }
+            Map<Long, Long> bytes = new HashMap<Long, Long>();
+            for (Thread thread : measured) {
+                long allocated = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread.getId());
+                if (allocated >= 0) {
+                    bytes.put(thread.getId(), allocated);
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return millis + " ms, " + (bytes >= 0 ? bytes / (1024 * 1024) + " MB allocated" : "allocation unknown");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.janthomae.leiningenplugin.project;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A generated monorepo for performance tests: a number of projects which all depend on the same shared artifacts plus a
+ * few of their own, and a file based Maven repository holding all of them. The projects resolve from that repository
+ * into a local repository next to it, so nothing is downloaded from the network and nothing touches ~/.m2.
+ */
+public class SyntheticMonorepo {
+    public static final String GROUP = "bench.generated";
+
+    private final File root;
+    private final File repository;
+    private final File localRepository;
+    private final List<File> projectFiles = new ArrayList<File>();
+    private final int artifactsPerProject;
+
+    /**
+     * Generates a monorepo. Every fifth shared artifact depends on the next one, so that there are transitive
+     * dependencies to walk; each project depends on all shared artifacts directly as well, so that it resolves to
+     * exactly shared + unique artifacts.
+     *
+     * @param root     the directory to generate into
+     * @param projects the number of projects
+     * @param shared   the number of artifacts every project depends on
+     * @param unique   the number of artifacts only a single project depends on
+     * @return the generated monorepo
+     * @throws IOException if a file could not be written
+     */
+    public static SyntheticMonorepo generate(File root, int projects, int shared, int unique) throws IOException {
+        SyntheticMonorepo monorepo = new SyntheticMonorepo(root, shared + unique);
+        for (int i = 0; i < shared; i++) {
+            List<String> dependencies = i % 5 == 0 && i + 1 < shared
+                    ? Collections.singletonList(sharedArtifact(i + 1))
+                    : Collections.<String>emptyList();
+            monorepo.writeArtifact(sharedArtifact(i), dependencies);
+        }
+        for (int p = 0; p < projects; p++) {
+            List<String> dependencies = new ArrayList<String>();
+            for (int i = 0; i < shared; i++) {
+                dependencies.add(sharedArtifact(i));
+            }
+            for (int i = 0; i < unique; i++) {
+                String artifact = "project" + p + "-lib" + i;
+                monorepo.writeArtifact(artifact, Collections.<String>emptyList());
+                dependencies.add(artifact);
+            }
+            monorepo.writeProject("project" + p, dependencies);
+        }
+        return monorepo;
+    }
+
+    private SyntheticMonorepo(File root, int artifactsPerProject) {
+        this.root = root;
+        this.repository = new File(root, "repository");
+        this.localRepository = new File(root, "local-repository");
+        this.artifactsPerProject = artifactsPerProject;
+    }
+
+    private static String sharedArtifact(int i) {
+        return "shared" + i;
+    }
+
+    private void writeArtifact(String artifact, List<String> dependencies) throws IOException {
+        File dir = new File(repository, GROUP.replace('.', '/') + "/" + artifact + "/1.0");
+        StringBuilder pom = new StringBuilder("<project><modelVersion>4.0.0</modelVersion>");
+        pom.append("<groupId>").append(GROUP).append("</groupId><artifactId>").append(artifact)
+                .append("</artifactId><version>1.0</version><dependencies>");
+        for (String dependency : dependencies) {
+            pom.append("<dependency><groupId>").append(GROUP).append("</groupId><artifactId>").append(dependency)
+                    .append("</artifactId><version>1.0</version></dependency>");
+        }
+        pom.append("</dependencies></project>");
+        FileUtil.writeToFile(new File(dir, artifact + "-1.0.pom"), pom.toString());
+        FileUtil.writeToFile(new File(dir, artifact + "-1.0.jar"), "");
+    }
+
+    private void writeProject(String name, List<String> dependencies) throws IOException {
+        File dir = new File(root, name);
+        FileUtil.createDirectory(new File(dir, "src"));
+        FileUtil.createDirectory(new File(dir, "test"));
+
+        StringBuilder project = new StringBuilder();
+        project.append("(defproject ").append(GROUP).append("/").append(name).append(" \"1.0.0-SNAPSHOT\"\n");
+        project.append("  :dependencies [");
+        for (String dependency : dependencies) {
+            project.append("[").append(GROUP).append("/").append(dependency).append(" \"1.0\"]\n                 ");
+        }
+        project.append("]\n");
+        project.append("  :repositories ^:replace [[\"generated\" {:url \"").append(repository.toURI())
+                .append("\" :checksum :ignore}]]\n");
+        project.append("  :local-repo \"").append(FileUtil.toSystemIndependentName(localRepository.getPath()))
+                .append("\")\n");
+
+        File projectFile = new File(dir, "project.clj");
+        FileUtil.writeToFile(projectFile, project.toString());
+        projectFiles.add(projectFile);
+    }
+
+    public List<File> getProjectFiles() {
+        return Collections.unmodifiableList(projectFiles);
+    }
+
+    /**
+     * @return the number of artifacts every project resolves to.
+     */
+    public int getArtifactsPerProject() {
+        return artifactsPerProject;
+    }
+}
@@ -0,0 +1,64 @@
+package de.janthomae.leiningenplugin.run;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks the build order, cycle detection and critical path of a graph of projects.
+ */
+public class BuildGraphTest extends TestCase {
+    private final BuildGraph<String> myGraph = new BuildGraph<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // app needs web and db, web needs core, db needs core; tools stands alone
+        for (String node : Arrays.asList("app", "web", "db", "core", "tools")) {
+            myGraph.add(node);
+        }
+        myGraph.addDependency("app", "web");
+        myGraph.addDependency("app", "db");
+        myGraph.addDependency("web", "core");
+        myGraph.addDependency("db", "core");
+    }
+
+    public void testTopologicalOrder() {
+        assertEquals(Arrays.asList("core", "tools", "web", "db", "app"), myGraph.topologicalOrder());
+        assertNull(myGraph.findCycle());
+    }
+
+    public void testDependenciesOutsideTheGraphAndOnItselfAreIgnored() {
+        myGraph.addDependency("tools", "elsewhere");
+        myGraph.addDependency("tools", "tools");
+        assertEquals(Collections.<String>emptySet(), myGraph.getDependencies("tools"));
+        assertNull(myGraph.findCycle());
+    }
+
+    public void testCycle() {
+        myGraph.addDependency("core", "app");
+        assertNull(myGraph.topologicalOrder());
+        assertEquals(Arrays.asList("app", "web", "core"), myGraph.findCycle());
+        assertEquals(Collections.<String>emptyList(), myGraph.criticalPath(new HashMap<String, Long>()));
+    }
+
+    public void testCriticalPath() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("app", 10L);
+        durations.put("web", 5L);
+        durations.put("db", 30L);
+        durations.put("core", 20L);
+        durations.put("tools", 40L);
+        assertEquals(Arrays.asList("core", "db", "app"), myGraph.criticalPath(durations));
+        assertEquals(60, BuildGraph.duration(myGraph.criticalPath(durations), durations));
+    }
+
+    public void testCriticalPathOfUnbuiltNodes() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("tools", 5L);
+        assertEquals(Arrays.asList("tools"), myGraph.criticalPath(durations));
+    }
+}
@@ -0,0 +1,47 @@
+package de.janthomae.leiningenplugin.run;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the ns forms found in practice are read, with the namespaces they require or use.
+ */
+public class NamespaceIndexTest extends TestCase {
+    public void testRequireAndUse() {
+        List<Object> form = read("(ns my.app.core-test\n" +
+                "  (:require [clojure.test :refer :all]\n" +
+                "            my.app.core)\n" +
+                "  (:use [my.app.util :only [helper]])\n" +
+                "  (:import java.io.File))");
+        assertEquals("my.app.core-test", form.get(1));
+        assertEquals(Arrays.asList("clojure.test", "my.app.core", "my.app.util"),
+                NamespaceIndex.getDependencies(form));
+    }
+
+    public void testPrefixLists() {
+        List<Object> form = read("(ns a (:require [my.app db [web :as w] [model user order]]))");
+        assertEquals(Arrays.asList("my.app.db", "my.app.web", "my.app.model.user", "my.app.model.order"),
+                NamespaceIndex.getDependencies(form));
+    }
+
+    public void testSkipsMetadataCommentsAndStrings() {
+        List<Object> form = read("(ns ^{:doc \"Uses (parens) and [brackets]\"} ^:integration my.app.slow-test\n" +
+                "  \"A docstring with \\\"quotes\\\" and ) ] in it\"\n" +
+                "  ; (:require commented.out)\n" +
+                "  {:author \"someone\"}\n" +
+                "  (:require [my.app.core :as core], my.app.extra))");
+        assertEquals("my.app.slow-test", form.get(1));
+        assertEquals(Arrays.asList("my.app.core", "my.app.extra"), NamespaceIndex.getDependencies(form));
+    }
+
+    public void testUnbalancedForm() {
+        assertNull(read("(ns my.app.broken (:require [my.app.core]"));
+        assertNull(read("(ns my.app.broken (:require [my.app.core)))"));
+    }
+
+    private static List<Object> read(String text) {
+        return new NamespaceIndex.Reader(text, 0).readForm();
+    }
+}